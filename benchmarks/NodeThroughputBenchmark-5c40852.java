@@ -0,0 +1,144 @@
+package dynamo;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.actor.UntypedActor;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import dynamo.messages.OperationMessage;
+import dynamo.messages.StartJoinMessage;
+import org.openjdk.jmh.annotations.*;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures the operations per second a single node handles: the operations of a client go
+ * through the NodeActor to the coordinator, then to the shard owning the item and back, so
+ * that the NodeActor handles 3 messages for each read and 4 for each write (N = R = W = 1).
+ * The node and the client are in the same actor system, so the messages are not serialized:
+ * this measures the cost of the dispatch and of the coordination in the actors.
+ *
+ * The variant of the benchmark for the commit before the typed messages (5c40852), where
+ * every operation message is an OperationMessage: copy it over
+ * src/jmh/java/dynamo/NodeThroughputBenchmark.java there to measure the "before" figure.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NodeThroughputBenchmark {
+
+    private static final int KEYS = 1000;
+    // the operations in flight at a time
+    private static final int BATCH = 1000;
+
+    @Param({"read", "write"})
+    public String operation;
+
+    private File directory;
+    private ActorSystem system;
+    private ActorRef driver;
+    private Object[] operations = new Object[BATCH];
+
+    /**
+     * The operations sent by the Driver in one go, and the latch released when all of them are answered
+     */
+    static class Batch {
+        final Object[] operations;
+        final CountDownLatch done = new CountDownLatch(1);
+
+        Batch(Object[] operations) {
+            this.operations = operations;
+        }
+    }
+
+    /**
+     * A client sending batches of operations to the node
+     */
+    public static class Driver extends UntypedActor {
+
+        private ActorRef node;
+        private Batch batch;
+        private int pending = 0;
+
+        public Driver(ActorRef node) {
+            this.node = node;
+        }
+
+        public void onReceive(Object message) {
+            if (message instanceof OperationMessage && !((OperationMessage) message).isRequest()) {
+                if (--pending == 0) {
+                    batch.done.countDown();
+                }
+            } else if (message instanceof Batch) {
+                batch = (Batch) message;
+                pending = batch.operations.length;
+                for (Object operation : batch.operations) {
+                    node.tell(operation, getSelf());
+                }
+            } else {
+                unhandled(message);
+            }
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        directory = Files.createTempDirectory("dynamo_node_benchmark").toFile();
+        Config config = ConfigFactory.parseString("akka.remote.netty.tcp.hostname = 127.0.0.1\n"
+                + "akka.remote.netty.tcp.port = 0\n"
+                + "dynamo.metrics.jmx.enabled = false\n"
+                + "dynamo.metrics.http.enabled = false")
+                .withFallback(ConfigFactory.load("application"));
+        system = ActorSystem.create("dynamo", config);
+        ActorRef node = system.actorOf(Props.create(NodeActor.class, 1, 1, 1, 1, directory.getPath(), "INFO"), "node");
+        node.tell(new StartJoinMessage(null, null), ActorRef.noSender());
+        driver = system.actorOf(Props.create(Driver.class, node), "driver");
+
+        // the items are written first, so that the reads find them
+        Object[] writes = new Object[KEYS];
+        for (int key = 0; key < KEYS; key++) {
+            writes[key] = new OperationMessage(true, true, false, key, "value" + key);
+        }
+        run(writes);
+        // the replicas are updated after the reply to the client
+        Thread.sleep(500);
+
+        for (int i = 0; i < BATCH; i++) {
+            operations[i] = operation.equals("read")
+                    ? new OperationMessage(true, true, true, i % KEYS, null)
+                    : new OperationMessage(true, true, false, i % KEYS, "updated" + i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        Await.result(system.terminate(), Duration.create(10, TimeUnit.SECONDS));
+        try (Stream<Path> paths = Files.walk(directory.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    private void run(Object[] operations) throws InterruptedException {
+        Batch batch = new Batch(operations);
+        driver.tell(batch, ActorRef.noSender());
+        batch.done.await();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void operations() throws InterruptedException {
+        run(operations);
+    }
+}
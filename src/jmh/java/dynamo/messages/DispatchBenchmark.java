@@ -0,0 +1,178 @@
+package dynamo.messages;
+
+import dynamo.nodeutilities.DynamoLogger;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the messages per second the NodeActor dispatches, without the actors: the
+ * part of NodeThroughputBenchmark that the typed messages changed, runnable without an
+ * actor system. The messages are the ones the NodeActor handles for an operation of a
+ * client (3 for a read, 4 for a write).
+ * "byType" is the current dispatch: typed messages with primitive fields, an instanceof
+ * chain and no debug string unless it is printed. "byName" is the baseline one, kept
+ * here as the reference: a single OperationMessage with boxed fields, dispatched on the
+ * name of its class, and turned into a string for a debug message that is not printed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+
+    private static final int KEYS = 1000;
+    // the messages dispatched by every invocation: the ones of 4000 reads or 3000 writes
+    private static final int MESSAGES = 12000;
+
+    @Param({"byName", "byType"})
+    public String dispatch;
+
+    @Param({"read", "write"})
+    public String operation;
+
+    private final DynamoLogger logger = new DynamoLogger();
+    private Object[] messages;
+
+    /**
+     * The message of the baseline, multiplexing every operation message through three booleans
+     */
+    static class OperationMessage implements Serializable {
+        private boolean client;
+        private boolean request;
+        private boolean read;
+        private Integer key;
+        private String value;
+        private Integer version;
+        private Integer senderKey;
+        private Long timestamp;
+        private Long epoch;
+        private Long operationId;
+
+        OperationMessage(boolean client, boolean request, boolean read, Integer key, String value,
+                         Integer version, Integer senderKey, Long timestamp) {
+            this.client = client;
+            this.request = request;
+            this.read = read;
+            this.key = key;
+            this.value = value;
+            this.version = version;
+            this.senderKey = senderKey;
+            this.timestamp = timestamp;
+        }
+
+        @Override
+        public String toString() {
+            return "OperationMessage{" +
+                    "client=" + client +
+                    ", request=" + request +
+                    ", read=" + read +
+                    ", key=" + key +
+                    ", value='" + value + '\'' +
+                    ", version=" + version +
+                    ", senderKey=" + senderKey +
+                    ", timestamp=" + timestamp +
+                    ", epoch=" + epoch +
+                    ", operationId=" + operationId +
+                    '}';
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        boolean read = operation.equals("read");
+        int perOperation = read ? 3 : 4;
+        messages = new Object[MESSAGES];
+        for (int i = 0; i < MESSAGES / perOperation; i++) {
+            int key = i % KEYS;
+            String value = "value" + key;
+            long timestamp = System.nanoTime();
+            int m = i * perOperation;
+            if (dispatch.equals("byName")) {
+                messages[m] = new OperationMessage(true, true, read, key, read ? null : value, null, null, null);
+                OperationMessage request = new OperationMessage(false, true, true, key, null, null, null, timestamp);
+                request.operationId = (long) i;
+                messages[m + 1] = request;
+                OperationMessage reply = new OperationMessage(false, false, true, key, value, 3, 42, timestamp);
+                reply.operationId = (long) i;
+                reply.epoch = 5L;
+                messages[m + 2] = reply;
+                if (!read) {
+                    messages[m + 3] = new OperationMessage(false, true, false, key, value, 4, null, null);
+                }
+            } else {
+                messages[m] = read ? new ClientReadMessage(key) : new ClientWriteMessage(key, value);
+                messages[m + 1] = new ReplicaReadMessage(key, i, timestamp, 5);
+                messages[m + 2] = new ReplicaReadReplyMessage(key, value, 3, 42, timestamp, i, 5);
+                if (!read) {
+                    messages[m + 3] = new ReplicaWriteMessage(key, value, 4, 5);
+                }
+            }
+        }
+    }
+
+    /**
+     * The dispatch of the baseline NodeActor
+     * @return the key and the epoch of the message, for the router
+     */
+    private long dispatchByName(Object message) {
+        logger.debug("Received Message {}", message.toString());
+        switch (message.getClass().getName().split("[.]")[2]) {
+            case "DispatchBenchmark$OperationMessage":
+                OperationMessage op = (OperationMessage) message;
+                long epoch = op.epoch == null ? 0 : op.epoch;
+                if (op.client) {
+                    return op.key;
+                } else if (op.request) {
+                    return op.read ? op.key + epoch : op.key + epoch + op.version;
+                } else {
+                    return op.key + epoch + op.version;
+                }
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * The dispatch of the current NodeActor
+     * @return the key and the epoch of the message, for the router
+     */
+    private long dispatchByType(Object message) {
+        if (logger.isDebugEnabled()) {
+            logger.debug("Received Message {}", message);
+        }
+        if (message instanceof ReplicaReadMessage) {
+            return ((ReplicaReadMessage) message).getKey() + ((ReplicaReadMessage) message).getEpoch();
+        } else if (message instanceof ReplicaWriteMessage) {
+            return ((ReplicaWriteMessage) message).getKey() + ((ReplicaWriteMessage) message).getEpoch()
+                    + ((ReplicaWriteMessage) message).getVersion();
+        } else if (message instanceof ReplicaReadReplyMessage) {
+            return ((ReplicaReadReplyMessage) message).getKey() + ((ReplicaReadReplyMessage) message).getEpoch()
+                    + ((ReplicaReadReplyMessage) message).getVersion();
+        } else if (message instanceof ClientReadMessage) {
+            return ((ClientReadMessage) message).getKey();
+        } else if (message instanceof ClientWriteMessage) {
+            return ((ClientWriteMessage) message).getKey();
+        }
+        return 0;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public long messages() {
+        long routed = 0;
+        if (dispatch.equals("byName")) {
+            for (Object message : messages) {
+                routed += dispatchByName(message);
+            }
+        } else {
+            for (Object message : messages) {
+                routed += dispatchByType(message);
+            }
+        }
+        return routed;
+    }
+}
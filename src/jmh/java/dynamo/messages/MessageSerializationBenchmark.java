@@ -0,0 +1,135 @@
+package dynamo.messages;
+
+import dynamo.metrics.MetricsRegistry;
+import dynamo.nodeutilities.Compression;
+import dynamo.nodeutilities.Item;
+import dynamo.nodeutilities.Peer;
+import dynamo.nodeutilities.RingChange;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the Java serialization (the one used by akka-remote in this project)
+ * of every message exchanged by the nodes. The number of items (and peers) only
+ * matters for the messages carrying them.
+ * ActorSelections cannot be serialized outside of an actor system, so they are left null.
+ * The items of the bulk messages are packed as the nodes do, with the default compression.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageSerializationBenchmark {
+
+    @Param({"ByeMatesMessage", "ClientReadMessage", "ClientReplyMessage", "ClientWriteMessage",
+            "FallbackMessage", "HedgeMessage", "HelloMatesMessage", "LeaveMessage", "PeersListMessage",
+            "RecoveryMessage", "ReplicaBatchMessage", "ReplicaReadMessage", "ReplicaReadReplyMessage",
+            "ReplicaReplyBatchMessage", "ReplicaWriteMessage",
+            "RequestInitItemsMessage", "RingDeltaMessage", "StartJoinMessage", "TimeoutMessage"})
+    public String messageType;
+
+    // number of items (or peers, or operations) carried by the bulk messages
+    @Param({"10", "1000"})
+    public int items;
+
+    private static final Compression compression = new Compression(true, 256, new MetricsRegistry());
+
+    private Serializable message;
+    private byte[] serialized;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        message = createMessage(messageType, items);
+        serialized = serialize(message);
+    }
+
+    static Serializable createMessage(String type, int items) {
+        ArrayList<Item> itemList = new ArrayList<>();
+        for (int i = 0; i < items; i++) {
+            itemList.add(new Item(i, "value" + i, 1));
+        }
+        TreeMap<Integer, Peer> peers = new TreeMap<>();
+        for (int i = 0; i < items; i++) {
+            peers.put(i, new Peer("akka.tcp://dynamo@127.0.0.1:10000/user/node", null, i));
+        }
+        switch (type) {
+            case "ByeMatesMessage":
+                return new ByeMatesMessage(42, compression.pack(itemList), 5);
+            case "ClientReadMessage":
+                return new ClientReadMessage(42);
+            case "ClientReplyMessage":
+                return new ClientReplyMessage(42, "value42", 3, 5L);
+            case "ClientWriteMessage":
+                return new ClientWriteMessage(42, "value42");
+            case "FallbackMessage":
+                return new FallbackMessage(42);
+            case "HedgeMessage":
+                return new HedgeMessage(42);
+            case "HelloMatesMessage":
+                return new HelloMatesMessage(null, 42, "akka.tcp://dynamo@127.0.0.1:10000/user/node", 5);
+            case "LeaveMessage":
+                return new LeaveMessage();
+            case "PeersListMessage":
+                return new PeersListMessage(false, peers, 5, 42);
+            case "RecoveryMessage":
+                return new RecoveryMessage("akka.tcp://dynamo@127.0.0.1:10000/user/node", (String) null, 42);
+            case "ReplicaBatchMessage":
+                ArrayList<Serializable> operations = new ArrayList<>();
+                for (int i = 0; i < items; i++) {
+                    operations.add(i % 2 == 0 ? new ReplicaReadMessage(i, i, System.nanoTime(), 5)
+                            : new ReplicaWriteMessage(i, "value" + i, 4, 5));
+                }
+                return new ReplicaBatchMessage(operations);
+            case "ReplicaReadMessage":
+                return new ReplicaReadMessage(42, 1234L, System.nanoTime(), 5);
+            case "ReplicaReadReplyMessage":
+                return new ReplicaReadReplyMessage(42, "value42", 3, 7, System.nanoTime(), 1234L, 5L);
+            case "ReplicaReplyBatchMessage":
+                ArrayList<ReplicaReadReplyMessage> replies = new ArrayList<>();
+                for (int i = 0; i < items; i++) {
+                    replies.add(new ReplicaReadReplyMessage(i, "value" + i, 3, 7, System.nanoTime(), i, 5L));
+                }
+                return new ReplicaReplyBatchMessage(replies);
+            case "ReplicaWriteMessage":
+                return new ReplicaWriteMessage(42, "value42", 4, 5);
+            case "RequestInitItemsMessage":
+                return new RequestInitItemsMessage(false, compression.pack(itemList));
+            case "RingDeltaMessage":
+                // a single change, as sent to a node which missed one
+                ArrayList<RingChange> changes = new ArrayList<>();
+                changes.add(new RingChange(5, 42, 42, peers.get(42 % items)));
+                return new RingDeltaMessage(changes, 5);
+            case "StartJoinMessage":
+                return new StartJoinMessage("127.0.0.1", "10000");
+            case "TimeoutMessage":
+                return new TimeoutMessage(false, 1234L);
+            default:
+                throw new IllegalArgumentException("Unknown message type " + type);
+        }
+    }
+
+    static byte[] serialize(Serializable message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(message);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        return serialize(message);
+    }
+
+    @Benchmark
+    public Object deserialize() throws IOException, ClassNotFoundException {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized));
+        return in.readObject();
+    }
+}
@@ -0,0 +1,73 @@
+package dynamo.nodeutilities;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the lookups the NodeActor performs on its Ring, for different ring sizes
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RingBenchmark {
+
+    // number of nodes in the ring
+    @Param({"4", "16", "64", "256"})
+    public int ringSize;
+
+    // replication factor
+    @Param({"4"})
+    public int N;
+
+    private static final int KEY_SPACE = 100000;
+    private static final int SAMPLES = 1024;
+
+    private Ring ring;
+    // precomputed random keys, so the benchmarks do not measure the random generator
+    private int[] itemKeys = new int[SAMPLES];
+    private int[] nodeKeys = new int[SAMPLES];
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(42);
+        ring = new Ring();
+        while (ring.getNumberOfPeers() < ringSize) {
+            ring.addPeer(new Peer(null, null, random.nextInt(KEY_SPACE)));
+        }
+        ArrayList<Integer> keys = new ArrayList<>(ring.getPeers().keySet());
+        for (int i = 0; i < SAMPLES; i++) {
+            itemKeys[i] = random.nextInt(KEY_SPACE);
+            nodeKeys[i] = keys.get(random.nextInt(keys.size()));
+            // give every peer some latency samples, for the latency aware lookups
+            ring.recordLatency(nodeKeys[i], 100000 + random.nextInt(1000000));
+        }
+    }
+
+    private int nextIndex() {
+        next = (next + 1) & (SAMPLES - 1);
+        return next;
+    }
+
+    @Benchmark
+    public ArrayList<Peer> getReplicasFromKey() {
+        return ring.getReplicasFromKey(N, itemKeys[nextIndex()]);
+    }
+
+    @Benchmark
+    public ArrayList<Peer> getReplicasByLatency() {
+        return ring.getReplicasByLatency(N, itemKeys[nextIndex()]);
+    }
+
+    @Benchmark
+    public boolean isNodeWithinRangeFromItem() {
+        int i = nextIndex();
+        return ring.isNodeWithinRangeFromItem(itemKeys[i], nodeKeys[i], N);
+    }
+}
@@ -0,0 +1,175 @@
+package dynamo.nodeutilities;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import dynamo.metrics.MetricsRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the operations a StorageShardActor performs on its StorageEngine, for every engine
+ * and different dataset sizes, so that an engine can be chosen per workload. The engines are
+ * created as the shards do: the snapshots of the list engine are written by another actor,
+ * so they are not part of the updates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StorageBenchmark {
+
+    // the value of dynamo.storage.engine
+    @Param({"list", "lsm", "tiered"})
+    public String engine;
+
+    // number of items in the storage
+    @Param({"100", "1000", "10000"})
+    public int size;
+
+    private File directory;
+    private StorageEngine storage;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("dynamo_storage_benchmark").toFile();
+        storage = create(engine, directory);
+        fill(storage, size);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        storage.close();
+        delete(directory);
+    }
+
+    /**
+     * @param engine the value of dynamo.storage.engine
+     * @param directory where the files of the engine are written
+     * @return a new, empty engine, with the default configuration
+     * @throws IOException if the files of the engine cannot be written
+     */
+    static StorageEngine create(String engine, File directory) throws IOException {
+        Config config = ConfigFactory.parseString("dynamo.storage.engine = " + engine)
+                .withFallback(ConfigFactory.load("application"));
+        return StorageEngines.create(config, new File(directory, "storage").getPath(), false, 1,
+                new MetricsRegistry(), "storage");
+    }
+
+    /**
+     * Fills a storage with the items 0 ... size - 1
+     * @param storage the storage to be filled
+     * @param size the number of items
+     */
+    static void fill(StorageEngine storage, int size) {
+        for (int key = 0; key < size; key++) {
+            storage.update(key, "value" + key, 1);
+        }
+    }
+
+    /**
+     * Deletes a directory and its content
+     * @param directory the directory
+     * @throws IOException if a file cannot be deleted
+     */
+    public static void delete(File directory) throws IOException {
+        Iterator<File> files = Files.walk(directory.toPath()).sorted(Comparator.reverseOrder())
+                .map(java.nio.file.Path::toFile).iterator();
+        while (files.hasNext()) {
+            Files.delete(files.next().toPath());
+        }
+    }
+
+    @Benchmark
+    public void updateExisting() {
+        int key = ThreadLocalRandom.current().nextInt(size);
+        storage.update(key, "updated" + key, 2);
+    }
+
+    @Benchmark
+    public Item getItem() {
+        return storage.getItem(ThreadLocalRandom.current().nextInt(size));
+    }
+
+    @Benchmark
+    public Item getItemMissing() {
+        return storage.getItem(size + ThreadLocalRandom.current().nextInt(size));
+    }
+
+    @Benchmark
+    public void scan(Blackhole bh) {
+        Iterator<Item> items = storage.iterator();
+        while (items.hasNext()) {
+            bh.consume(items.next());
+        }
+    }
+
+    @Benchmark
+    public void itemsForNewNode(Blackhole bh) {
+        // a new node taking the range (size / 4, size / 2]
+        storage.itemsForNewNode(size / 4, size / 2).forEach(bh::consume);
+    }
+
+    /**
+     * State for removeItemsOutOfResponsibility, which deletes items: a new storage
+     * is filled before every invocation
+     */
+    @State(Scope.Thread)
+    public static class RemovalState {
+
+        @Param({"list", "lsm", "tiered"})
+        public String engine;
+
+        @Param({"100", "1000", "10000"})
+        public int size;
+
+        // number of nodes in the ring, their keys are spread evenly over the items
+        @Param({"8", "32"})
+        public int ringSize;
+
+        public int N = 4;
+        File directory;
+        StorageEngine storage;
+        Ring ring;
+        Integer localKey;
+
+        @Setup(Level.Trial)
+        public void setupTrial() throws IOException {
+            directory = Files.createTempDirectory("dynamo_storage_benchmark").toFile();
+            ring = new Ring();
+            for (int i = 0; i < ringSize; i++) {
+                ring.addPeer(new Peer(null, null, i * size / ringSize));
+            }
+            localKey = (ringSize / 2) * size / ringSize;
+        }
+
+        @Setup(Level.Invocation)
+        public void setupInvocation() throws IOException {
+            if (storage != null) {
+                storage.close();
+            }
+            storage = create(engine, directory);
+            fill(storage, size);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            storage.close();
+            delete(directory);
+        }
+    }
+
+    @Benchmark
+    public void removeItemsOutOfResponsibility(RemovalState state) {
+        state.storage.removeItemsOutOfResponsibility(state.localKey, state.ring, state.N);
+    }
+}
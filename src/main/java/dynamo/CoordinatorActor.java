@@ -0,0 +1,629 @@
+package dynamo;
+
+import akka.actor.UntypedActor;
+import com.typesafe.config.Config;
+import dynamo.messages.*;
+import dynamo.metrics.MetricsRegistry;
+import dynamo.nodeutilities.*;
+import scala.concurrent.duration.Duration;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A child of the NodeActor that coordinates the read/write requests of the clients:
+ * it contacts the replicas, waits for the quorum and replies to the client.
+ * It works on its own copy of the ring, updated by the NodeActor at every membership
+ * change, where it keeps the latencies observed for each peer.
+ * All its messages to the other nodes are sent on behalf of the NodeActor, which routes
+ * the replies back, so that the node keeps a single address.
+ * If batching is enabled, the messages to the same replica are sent together in a
+ * ReplicaBatchMessage, once the messages already in the mailbox are processed (plus an
+ * optional linger time) or as soon as the batch is full.
+ * New requests are refused right away with an OverloadedMessage when too many operations are
+ * in progress or too many messages are waiting in the mailbox: under overload the requests
+ * would otherwise wait until the clients give up on them, and be processed for nothing.
+ */
+public class CoordinatorActor extends UntypedActor {
+
+    private DynamoLogger coordinatorLogger = new DynamoLogger();
+
+    private Integer N = 0;
+    private Integer R = 0;
+    private Integer W = 0;
+    private Integer Q = 0;
+
+    // a copy of the ring of the node, with the latencies observed for each peer
+    private Ring ring;
+
+    // the read/write requests from clients we are coordinating, by operation id
+    private HashMap<Long, QuorumOperation> operations = new HashMap<>();
+    // incremented for every client operation, gives each one a unique id
+    private long operationCounter = 0;
+    // the reads in progress by key, the other reads of the same keys are attached to them (if coalescing)
+    private HashMap<Integer, QuorumOperation> readsByKey = new HashMap<>();
+    private boolean readCoalescing = false;
+
+    // true if reads are sent first to the fastest replicas only
+    private boolean latencyAwareReads = false;
+    // probability of sending a read to all the replicas anyway (to keep sampling every peer)
+    private double exploreProbability = 0;
+    // true if late reads are sent to one more replica (hedged reads)
+    private boolean hedgedReads = false;
+    // percentile of the recent read latencies after which a read is hedged
+    private double hedgePercentile = 0;
+    // latencies of the last client reads, from the request to the R-th reply
+    private LatencyStats readLatency;
+
+    // computes the quorum timeouts from the latencies observed for each peer
+    private TimeoutEstimator timeoutEstimator;
+
+    // the messages waiting to be sent to each replica, by key of the replica (if batching)
+    private HashMap<Integer, PendingBatch> batches = new HashMap<>();
+    private boolean batching = false;
+    private long batchLinger = 0;
+    private int batchMaxSize = 0;
+
+    // the limits of the admission control, 0 if disabled
+    private int maxInFlight = 0;
+    private int maxMailboxDepth = 0;
+    // the queue of the mailbox, which counts its messages (null if it is not a PriorityMailbox)
+    private PriorityMailbox.PriorityMessageQueue queue;
+
+    // runtime metrics of the node
+    private MetricsRegistry metrics;
+    // the names of the metrics of each peer (see PEER_METRICS), built once
+    private HashMap<Integer, String[]> peerMetricNames = new HashMap<>();
+    private static final int RESPONSE_US = 0;
+    private static final int LATENCY_EWMA_MS = 1;
+    private static final int LATENCY_PERCENTILE_MS = 2;
+    private static final String[] PEER_METRICS = {".response.us", ".latency.ewma.ms", ".latency.percentile.ms"};
+
+    public CoordinatorActor(Integer n, Integer r, Integer w, MetricsRegistry metrics, String logLevel) {
+        this.N = n;
+        this.R = r;
+        this.W = w;
+        this.Q = Math.max(this.R, this.W);
+        this.metrics = metrics;
+        this.queue = PriorityMailbox.queueOf(getSelf());
+        PriorityMailbox.PriorityMessageQueue.recordQueueTimes(getContext(), metrics, "mailbox.coordinator");
+
+        // read the settings for adaptive timeouts from the configuration of the actor system
+        Config config = getContext().system().settings().config();
+        this.timeoutEstimator = new TimeoutEstimator(
+                config.getLong("dynamo.timeout.initial"),
+                config.getLong("dynamo.timeout.min"),
+                config.getLong("dynamo.timeout.max"),
+                config.getDouble("dynamo.timeout.percentile"),
+                config.getDouble("dynamo.timeout.multiplier"));
+        this.ring = new Ring(config.getDouble("dynamo.timeout.ewma-alpha"), config.getInt("dynamo.timeout.window"));
+
+        this.latencyAwareReads = config.getString("dynamo.read.selection").equals("latency");
+        this.exploreProbability = config.getDouble("dynamo.read.explore-probability");
+        this.hedgedReads = config.getBoolean("dynamo.read.hedge.enabled");
+        this.hedgePercentile = config.getDouble("dynamo.read.hedge.percentile");
+        this.readCoalescing = config.getBoolean("dynamo.read.coalescing");
+        this.batching = config.getBoolean("dynamo.batching.enabled");
+        this.batchLinger = config.getLong("dynamo.batching.linger");
+        this.batchMaxSize = config.getInt("dynamo.batching.max-size");
+        this.maxInFlight = config.getInt("dynamo.admission.max-in-flight");
+        this.maxMailboxDepth = config.getInt("dynamo.admission.max-mailbox-depth");
+        this.readLatency = new LatencyStats(config.getDouble("dynamo.timeout.ewma-alpha"),
+                config.getInt("dynamo.timeout.window"));
+
+        if (logLevel.equals("INFO")) {
+            this.coordinatorLogger.setLevel(DynamoLogger.LOG_LEVEL.INFO);
+        } else if (logLevel.equals("DEBUG")) {
+            this.coordinatorLogger.setLevel(DynamoLogger.LOG_LEVEL.DEBUG);
+        }
+    }
+
+    /**
+     * Send a message to the replicas responsible for
+     * data item with a certain key
+     * @param message the message to be sent (must implement Serializable interface)
+     * @param itemKey the key of the data item
+     */
+    private void sendMessageToReplicas(Serializable message, Integer itemKey) {
+        sendMessageToReplicas(message, ring.getReplicasFromKey(this.N, itemKey));
+    }
+
+    /**
+     * Send a message to a given list of replicas, on behalf of the node
+     * @param message the message to be sent (must implement Serializable interface)
+     * @param replicas the Peers the message is sent to
+     */
+    private void sendMessageToReplicas(Serializable message, List<Peer> replicas) {
+        for (Peer p : replicas){
+            if (batching) {
+                addToBatch(p, message);
+            } else {
+                p.getRemoteSelection().tell(message, getContext().parent());
+            }
+            if (coordinatorLogger.isDebugEnabled()) {
+                coordinatorLogger.debug("Sent message {} to Node {} ({})", message, p.getKey(), p.getRemotePath());
+            }
+        }
+    }
+
+    /**
+     * The messages waiting to be sent to a replica
+     */
+    private static class PendingBatch {
+        final Peer peer;
+        final ArrayList<Serializable> messages = new ArrayList<>();
+
+        PendingBatch(Peer peer) {
+            this.peer = peer;
+        }
+    }
+
+    /**
+     * Adds a message to the batch of a replica, which is sent if full. The first message of
+     * a round of batches schedules the FlushBatchesMessage sending all of them.
+     * @param peer the replica
+     * @param message the message
+     */
+    private void addToBatch(Peer peer, Serializable message) {
+        if (batches.isEmpty()) {
+            if (batchLinger > 0) {
+                getContext().system().scheduler().scheduleOnce(Duration.create(batchLinger, TimeUnit.MILLISECONDS),
+                        getSelf(), new FlushBatchesMessage(), getContext().system().dispatcher(), getSelf());
+            } else {
+                getSelf().tell(new FlushBatchesMessage(), getSelf());
+            }
+        }
+        PendingBatch batch = batches.get(peer.getKey());
+        if (batch == null) {
+            batch = new PendingBatch(peer);
+            batches.put(peer.getKey(), batch);
+        }
+        batch.messages.add(message);
+        if (batch.messages.size() >= batchMaxSize) {
+            batches.remove(peer.getKey());
+            sendBatch(batch);
+        }
+    }
+
+    /**
+     * Sends a batch to its replica, as a single message
+     * @param batch the batch
+     */
+    private void sendBatch(PendingBatch batch) {
+        metrics.record("batch.size", batch.messages.size());
+        Object message = batch.messages.size() == 1 ? batch.messages.get(0) : new ReplicaBatchMessage(batch.messages);
+        batch.peer.getRemoteSelection().tell(message, getContext().parent());
+    }
+
+    /**
+     * Starts the coordination of a read/write request from a client.
+     * Sends a read request for the item to all of the N next nodes
+     * and schedules the timeout of the operation, based on the latencies
+     * observed so far for these nodes.
+     * When latency aware reads are enabled, only the quorum replicas with the
+     * best latency are contacted at first: the others are contacted only if some
+     * of them do not have the item or do not respond in the expected time.
+     * When hedged reads are enabled, only the quorum replicas are contacted at first
+     * and one more replica is contacted every time the read takes longer than
+     * the configured percentile of the recent read latencies.
+     * Writes always contact all the N nodes for the version of the item.
+     * @param op the operation to be started
+     */
+    private void handleClientReadRequest(QuorumOperation op) {
+        operations.put(op.id, op);
+        ArrayList<Peer> replicas = ring.getReplicasFromKey(this.N, op.itemKey);
+
+        long timeout = timeoutEstimator.getQuorumTimeout(ring, replicas, op.quorumThreshold);
+        metrics.setGauge(op.read ? "timeout.quorum.read.ms" : "timeout.quorum.write.ms", timeout);
+        op.timeout = getContext().system().scheduler().scheduleOnce(
+                Duration.create(timeout, TimeUnit.MILLISECONDS),
+                getSelf(), new TimeoutMessage(false, op.id), getContext().system().dispatcher(), getSelf());
+
+        // we cannot hedge before knowing how long reads usually take
+        boolean hedge = op.read && hedgedReads && readLatency.hasSamples();
+        if (op.read && (latencyAwareReads || hedge) && replicas.size() > op.quorumThreshold
+                && ThreadLocalRandom.current().nextDouble() >= exploreProbability) {
+            ArrayList<Peer> ordered = latencyAwareReads ? ring.getReplicasByLatency(this.N, op.itemKey) : replicas;
+            List<Peer> first = ordered.subList(0, op.quorumThreshold);
+            // peers without samples come first: if there is any, we just contact everyone
+            if (!latencyAwareReads || ring.getLatencyScore(first.get(op.quorumThreshold - 1).getKey()) != null) {
+                op.remainingReplicas = new ArrayList<>(ordered.subList(op.quorumThreshold, ordered.size()));
+                contactReplicas(op, new ArrayList<>(first));
+                if (hedge) {
+                    scheduleHedge(op);
+                } else {
+                    long fallback = timeoutEstimator.getExpectedQuorumLatency(ring, first, op.quorumThreshold);
+                    op.fallback = getContext().system().scheduler().scheduleOnce(
+                            Duration.create(fallback, TimeUnit.MILLISECONDS),
+                            getSelf(), new FallbackMessage(op.id),
+                            getContext().system().dispatcher(), getSelf());
+                }
+                return;
+            }
+        }
+        // send a retrieve message to each one of the replicas (check if one of these is SELF)
+        contactReplicas(op, replicas);
+    }
+
+    /**
+     * Schedules a HedgeMessage for an operation, after the configured
+     * percentile of the recent read latencies
+     * @param op the operation to be hedged
+     */
+    private void scheduleHedge(QuorumOperation op) {
+        long delay = Math.max(1, (long) Math.ceil(readLatency.getPercentileMillis(hedgePercentile)));
+        op.fallback = getContext().system().scheduler().scheduleOnce(
+                Duration.create(delay, TimeUnit.MILLISECONDS),
+                getSelf(), new HedgeMessage(op.id),
+                getContext().system().dispatcher(), getSelf());
+    }
+
+    /**
+     * Accounts the latency of a read that reached its quorum
+     * @param op the read operation
+     */
+    private void recordReadLatency(QuorumOperation op) {
+        readLatency.record(System.nanoTime() - op.startTime);
+        metrics.increment("read.count");
+        metrics.setGauge("read.latency.p99.ms", readLatency.getPercentileMillis(0.99));
+        metrics.setGauge("read.hedge.rate",
+                (double) metrics.getCounter("read.hedge.count") / metrics.getCounter("read.count"));
+    }
+
+    /**
+     * Sends a read request for the item of an operation to some replicas
+     * @param op the operation
+     * @param replicas the Peers to be contacted
+     */
+    private void contactReplicas(QuorumOperation op, List<Peer> replicas) {
+        long timestamp = System.nanoTime();
+        ReplicaReadMessage readRequest = new ReplicaReadMessage(op.itemKey, op.id, timestamp, ring.getEpoch());
+        for (Peer p : replicas) {
+            op.pendingReplicas.put(p.getKey(), timestamp);
+        }
+        metrics.increment("read.replicas.contacted", replicas.size());
+        sendMessageToReplicas(readRequest, replicas);
+    }
+
+    /**
+     * Contacts the next replica not involved yet in an operation, if any
+     * @param op the operation
+     */
+    private void contactNextReplica(QuorumOperation op) {
+        if (!op.remainingReplicas.isEmpty()) {
+            ArrayList<Peer> next = new ArrayList<>();
+            next.add(op.remainingReplicas.remove(0));
+            contactReplicas(op, next);
+        }
+    }
+
+    /**
+     * Updates the latency statistics of the replica that sent a read response.
+     * Responses arriving after the quorum was reached are accounted too,
+     * otherwise slow replicas would never be sampled.
+     * @param response the response received from a replica
+     * @param op the operation the response belongs to, null if it is already completed
+     */
+    private void recordReplicaLatency(ReplicaReadReplyMessage response, QuorumOperation op) {
+        Integer replicaKey = response.getSenderKey();
+        long latency = System.nanoTime() - response.getTimestamp();
+        ring.recordLatency(replicaKey, latency);
+        if (ring.getLatency(replicaKey) != null) {
+            metrics.record(peerMetricNames(replicaKey)[RESPONSE_US], latency / 1000);
+        }
+        Long sent = op == null ? null : op.pendingReplicas.get(replicaKey);
+        if (sent != null && sent == response.getTimestamp()) {
+            op.pendingReplicas.remove(replicaKey);
+        }
+        updateLatencyGauges(replicaKey);
+    }
+
+    /**
+     * @param peerKey the key of a Peer
+     * @return the names of its metrics, indexed as PEER_METRICS
+     */
+    private String[] peerMetricNames(Integer peerKey) {
+        String[] names = peerMetricNames.get(peerKey);
+        if (names == null) {
+            names = new String[PEER_METRICS.length];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = "peer." + peerKey + PEER_METRICS[i];
+            }
+            peerMetricNames.put(peerKey, names);
+        }
+        return names;
+    }
+
+    /**
+     * Publishes the latency statistics of a Peer to the metrics registry
+     * @param peerKey the key of the Peer
+     */
+    private void updateLatencyGauges(Integer peerKey) {
+        LatencyStats latency = ring.getLatency(peerKey);
+        if (latency != null) {
+            String[] names = peerMetricNames(peerKey);
+            metrics.setGauge(names[LATENCY_EWMA_MS], latency.getEwmaMillis());
+            metrics.setGauge(names[LATENCY_PERCENTILE_MS],
+                    latency.getPercentileMillis(timeoutEstimator.getPercentile()));
+        }
+    }
+
+    /**
+     * Returns the item with newer version number from the responses from the replicas
+     *
+     * @param op the operation
+     * @return an Item object with value, key and version number
+     */
+    private Item getLatestVersionItemFromResponses(QuorumOperation op) {
+        ReplicaReadReplyMessage max = op.responses.get(0);
+        for (ReplicaReadReplyMessage msg : op.responses){
+            if (msg.getVersion() > max.getVersion()){
+                max = msg;
+            }
+        }
+        return new Item(max.getKey(), max.getValue(), max.getVersion());
+    }
+
+    /**
+     * Decides what Item to send back to the client between the ones received by the replicas in the system, and then sends it.
+     * @param op the read operation
+     */
+    private void handleReadResponseToClient(QuorumOperation op) {
+        Item latest = getLatestVersionItemFromResponses(op);
+        // Send response to client
+        op.reply(new ClientReplyMessage(latest.getKey(), latest.getValue(), latest.getVersion(),
+                ring.getEpoch()), getContext().parent());
+    }
+
+    /**
+     * Sends success message to client and then tell the replicas to update their data item with the new value and latest version number.
+     *
+     * @param op the write operation
+     * @param item the Item to be updated
+     */
+    private void issueUpdateToReplicas(QuorumOperation op, Item item){
+        if (item == null) {
+            item = getLatestVersionItemFromResponses(op);
+        }
+
+        // send success response to client
+        op.client.tell(new ClientReplyMessage(true, ring.getEpoch()), getContext().parent());
+        // issue update to replicas
+        ReplicaWriteMessage issueUpdate = new ReplicaWriteMessage(item.getKey(), op.newValue, item.getVersion() + 1,
+                ring.getEpoch());
+        sendMessageToReplicas(issueUpdate, item.getKey());
+    }
+
+    /**
+     * Ends an operation, when its quorum is reached or it timed out
+     * @param op the operation
+     */
+    private void completeOperation(QuorumOperation op) {
+        op.cancelScheduled();
+        operations.remove(op.id);
+        if (op.read) {
+            readsByKey.remove(op.itemKey, op);
+        }
+    }
+
+    /**
+     * @return the number of messages in the mailbox of the coordinator (0 if it is not a
+     * PriorityMailbox, which counts them as they are enqueued)
+     */
+    private int mailboxDepth() {
+        return queue != null ? queue.numberOfMessages() : 0;
+    }
+
+    /**
+     * Decides if a new operation can be started, according to the number of operations
+     * in progress and to the depth of the mailbox. Refused requests are answered right
+     * away with an OverloadedMessage.
+     * @return true if the operation can be started
+     */
+    private boolean admitOperation() {
+        if ((maxInFlight > 0 && operations.size() >= maxInFlight)
+                || (maxMailboxDepth > 0 && mailboxDepth() >= maxMailboxDepth)) {
+            metrics.increment("admission.rejected.count");
+            getSender().tell(new OverloadedMessage(ring.getEpoch()), getContext().parent());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Starts the coordination of a request from a client, unless the coordinator is overloaded.
+     * A read coalesced with one in progress is always accepted, since it costs nothing.
+     * @param read true for a read, false for a write
+     * @param key the key of the item
+     * @param value the new value (null for reads)
+     */
+    private void startOperation(boolean read, int key, String value) {
+        if (readCoalescing && read) {
+            QuorumOperation inProgress = readsByKey.get(key);
+            if (inProgress != null) {
+                metrics.increment("read.coalesced.count");
+            }
+            metrics.increment("read.requests.count");
+            metrics.setGauge("read.coalescing.rate", (double) metrics.getCounter("read.coalesced.count")
+                    / metrics.getCounter("read.requests.count"));
+            if (inProgress != null) {
+                // the same key is already being read: wait for the same replies
+                inProgress.coalesce(getSender());
+                return;
+            }
+        }
+        if (!admitOperation()) {
+            return;
+        }
+        if (readCoalescing && !read) {
+            // the reads starting after this write must not get the result of an older read
+            readsByKey.remove(key);
+        }
+        /*
+         So we have received a read/write operation from the client.
+         So we have to contact the nodes responsible for the specified item
+         to retrieve the data. The operation keeps a reference to the client
+         to be used to respond later.
+        */
+        QuorumOperation op = new QuorumOperation(++this.operationCounter, getSender(),
+                read, key, value, read ? this.R : this.Q);
+        if (read && readCoalescing) {
+            readsByKey.put(key, op);
+        }
+        this.handleClientReadRequest(op);
+    }
+
+    /**
+     * Accounts the reply of a replica to a read request, and completes the operation
+     * it belongs to if it reached its quorum
+     * @param reply the reply of the replica
+     */
+    private void handleReplicaReply(ReplicaReadReplyMessage reply) {
+        /*
+         The operation is still in progress in case this Node sent a
+         ReadMessage to other nodes and it is waiting
+         to have at least R replies before sending the response back to
+         the client
+        */
+        QuorumOperation op = this.operations.get(reply.getOperationId());
+        this.recordReplicaLatency(reply, op);
+        if (op == null) {
+            // the operation is already completed (or timed out). Message Ignored.
+            if (coordinatorLogger.isDebugEnabled()) {
+                coordinatorLogger.debug("Received an {} for no pending operation. Message Ignored.", reply);
+            }
+            return;
+        }
+        if (!reply.hasItem() && op.read){
+            // this reply does not count for the quorum, ask someone else
+            this.contactNextReplica(op);
+            return;
+        }
+        op.quorum++;
+        op.responses.add(reply);
+        /*
+         if we have reached the read quorum, send response
+         to client and complete the operation.
+        */
+        if (op.quorum == op.quorumThreshold){
+            metrics.record(op.read ? "quorum.read.latency.us" : "quorum.write.latency.us",
+                    (System.nanoTime() - op.startTime) / 1000);
+            if (op.read){
+                this.recordReadLatency(op);
+                // respond to the client with the proper item
+                this.handleReadResponseToClient(op);
+            } else{
+                // Q nodes have sent a response. Now we have to check if ALL of these responses
+                // are null (which means that no replica has this element yet > do an insert), otherwise
+                // we just send the update with the latest received item
+                // only the responses with a version are considered
+                ArrayList<ReplicaReadReplyMessage> versioned = new ArrayList<>();
+                for (ReplicaReadReplyMessage m : op.responses){
+                    if (m.hasItem()){
+                        versioned.add(m);
+                    }
+                }
+                // in case all the messages were null, we just sent the new item (insert operation)
+                // to all replicas
+                if (versioned.isEmpty()){
+                    Item newItem = new Item(reply.getKey(),
+                            null, 0); // the version will become 1 before sending to replicas
+                    // send to replicas the new element.
+                    this.issueUpdateToReplicas(op, newItem);
+                } else { // otherwise we send the update with the latest version
+                    op.responses = versioned;
+                    this.issueUpdateToReplicas(op, null);
+                }
+            }
+            this.completeOperation(op);
+        }
+    }
+
+    /**
+     * Dispatches the messages by type, the operation messages first since they are
+     * the vast majority of them
+     */
+    public void onReceive(Object message) throws Exception {
+        if (coordinatorLogger.isDebugEnabled()) {
+            coordinatorLogger.debug("Coordinator received Message {}", message);
+        }
+
+        if (message instanceof ReplicaReadReplyMessage) {
+            handleReplicaReply((ReplicaReadReplyMessage) message);
+        } else if (message instanceof ReplicaReplyBatchMessage) {
+            for (ReplicaReadReplyMessage reply : ((ReplicaReplyBatchMessage) message).getReplies()) {
+                handleReplicaReply(reply);
+            }
+        } else if (message instanceof FlushBatchesMessage) {
+            for (PendingBatch batch : batches.values()) {
+                sendBatch(batch);
+            }
+            batches.clear();
+        } else if (message instanceof ClientReadMessage) {
+            startOperation(true, ((ClientReadMessage) message).getKey(), null);
+        } else if (message instanceof ClientWriteMessage) {
+            ClientWriteMessage write = (ClientWriteMessage) message;
+            startOperation(false, write.getKey(), write.getValue());
+        } else if (message instanceof TimeoutMessage) {
+            // if we are still waiting for some nodes to respond but too much time has passed
+            QuorumOperation op = this.operations.get(((TimeoutMessage) message).getOperationId());
+            if (op != null) {
+                metrics.increment("timeout.quorum.count");
+                metrics.increment(op.read ? "timeout.quorum.read.count" : "timeout.quorum.write.count");
+                // the replicas which did not respond took at least this long,
+                // account it so that the next timeouts take the slowdown into account
+                long now = System.nanoTime();
+                for (Map.Entry<Integer, Long> pending : op.pendingReplicas.entrySet()) {
+                    ring.recordLatency(pending.getKey(), now - pending.getValue());
+                    updateLatencyGauges(pending.getKey());
+                }
+                op.reply(new ClientReplyMessage(false, ring.getEpoch()), getContext().parent());
+                this.completeOperation(op);
+            }
+        } else if (message instanceof FallbackMessage) {
+            // the fastest replicas are late, involve all the others
+            QuorumOperation op = this.operations.get(((FallbackMessage) message).getOperationId());
+            if (op != null && !op.remainingReplicas.isEmpty()) {
+                metrics.increment("read.fallback.count");
+                ArrayList<Peer> others = new ArrayList<>(op.remainingReplicas);
+                op.remainingReplicas.clear();
+                contactReplicas(op, others);
+            }
+        } else if (message instanceof HedgeMessage) {
+            // the read is taking longer than usual, send it to one more replica
+            QuorumOperation op = this.operations.get(((HedgeMessage) message).getOperationId());
+            if (op != null && !op.remainingReplicas.isEmpty()) {
+                metrics.increment("read.hedge.count");
+                this.contactNextReplica(op);
+                if (!op.remainingReplicas.isEmpty()) {
+                    this.scheduleHedge(op);
+                }
+            }
+        } else if (message instanceof RingUpdateMessage) {
+            RingUpdateMessage update = (RingUpdateMessage) message;
+            // forget the metrics of the peers that left
+            HashSet<Integer> left = new HashSet<>(this.ring.getPeers().keySet());
+            left.removeAll(update.getPeers().keySet());
+            for (Integer key : left) {
+                String[] names = peerMetricNames(key);
+                metrics.removeGauge(names[LATENCY_EWMA_MS]);
+                metrics.removeGauge(names[LATENCY_PERCENTILE_MS]);
+                metrics.removeHistogram(names[RESPONSE_US]);
+                peerMetricNames.remove(key);
+            }
+            this.ring.setPeers(update.getPeers());
+            this.ring.setEpoch(update.getEpoch());
+        } else if (message instanceof MetricsSampleMessage) {
+            metrics.setGauge("mailbox.depth.coordinator", mailboxDepth());
+            metrics.setGauge("operations.pending", this.operations.size());
+        } else {
+            unhandled(message);
+        }
+    }
+}
@@ -0,0 +1,431 @@
+package dynamo;
+
+import akka.actor.ActorSelection;
+import akka.actor.ActorSystem;
+import akka.pattern.PatternsCS;
+import akka.util.Timeout;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import dynamo.messages.ClientReadMessage;
+import dynamo.messages.ClientReplyMessage;
+import dynamo.messages.ClientWriteMessage;
+import dynamo.messages.LeaveMessage;
+import dynamo.messages.LoadReportMessage;
+import dynamo.messages.MoveTokenMessage;
+import dynamo.messages.OverloadedMessage;
+import dynamo.messages.PeersListMessage;
+import dynamo.messages.ReplicaReadMessage;
+import dynamo.messages.ReplicaReadReplyMessage;
+import dynamo.messages.ReplicaWriteMessage;
+import dynamo.messages.RingDeltaMessage;
+import dynamo.nodeutilities.Item;
+import dynamo.nodeutilities.Peer;
+import dynamo.nodeutilities.Ring;
+import dynamo.nodeutilities.TokenBalancer;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A long-lived client of the Dynamo system, meant to be embedded in other applications.
+ * It is thread-safe: every operation returns immediately with a CompletableFuture,
+ * so any number of requests can be outstanding at the same time.
+ *
+ * Requests are routed according to the dynamo.client.mode parameter:
+ *  - fixed: to the entry node, which coordinates them
+ *  - direct: to a node in the preference list of the key, using a cached copy of the ring
+ *  - quorum: the client contacts the replicas and runs the quorum itself
+ * The cached ring is refreshed whenever a node replies with a different membership epoch.
+ * The operations refused by an overloaded coordinator fail right away with an OverloadedException.
+ */
+public class DynamoClient {
+
+    private ActorSystem system;
+    // true if the actor system was created by this client (and must be terminated by it)
+    private boolean ownSystem;
+    private ActorSelection entryNode;
+
+    private String mode;
+    private int N, R, W;
+    private Timeout timeout;
+    // the imbalance tolerated by rebalance (see TokenBalancer)
+    private double rebalanceTolerance;
+
+    // how long a node may take to move along the ring, transferring the items of a range
+    private static final Timeout MOVE_TIMEOUT = new Timeout(Duration.create(60, TimeUnit.SECONDS));
+
+    // cached copy of the ring, replaced as a whole at every refresh
+    private volatile Ring ring = null;
+    // the refresh in progress, if any (guarded by this)
+    private CompletableFuture<Ring> ringRefresh = null;
+
+    /**
+     * Creates a client with its own actor system, bound to a free port chosen by the OS
+     * @param address the address of the entry node
+     * @param port the port of the entry node
+     */
+    public DynamoClient(String address, String port) {
+        Config myConfig = ConfigFactory.load("application");
+        Config custom = ConfigFactory.parseString("akka.remote.netty.tcp.hostname = localhost, akka.remote.netty.tcp.port = 0");
+        this.system = ActorSystem.create("dynamo", custom.withFallback(myConfig));
+        this.ownSystem = true;
+        init(address, port, myConfig);
+    }
+
+    /**
+     * Creates a client on an existing actor system, which is not terminated by close()
+     * @param system the actor system to be used
+     * @param address the address of the entry node
+     * @param port the port of the entry node
+     */
+    public DynamoClient(ActorSystem system, String address, String port) {
+        this.system = system;
+        this.ownSystem = false;
+        init(address, port, system.settings().config());
+    }
+
+    private void init(String address, String port, Config config) {
+        this.entryNode = system.actorSelection("akka.tcp://dynamo@" + address + ":" + port + "/user/node");
+        this.mode = config.getString("dynamo.client.mode");
+        this.N = config.getInt("dynamo.replication.N");
+        this.R = config.getInt("dynamo.replication.R");
+        this.W = config.getInt("dynamo.replication.W");
+        this.timeout = new Timeout(Duration.create(config.getLong("dynamo.client.timeout"), TimeUnit.MILLISECONDS));
+        this.rebalanceTolerance = config.getDouble("dynamo.rebalance.tolerance");
+    }
+
+    /**
+     * Reads an item
+     * @param key the key of the item
+     * @return a future completed with the item, or exceptionally with a TimeoutException
+     * if the quorum could not be reached or with an OverloadedException if the coordinator
+     * refused the request
+     */
+    public CompletableFuture<Item> get(int key) {
+        return sendOperation(new ClientReadMessage(key), key).thenApply(msg -> {
+            return new Item(msg.getKey(), msg.getValue(), msg.getVersion());
+        });
+    }
+
+    /**
+     * Updates (or inserts) an item
+     * @param key the key of the item
+     * @param value the new value
+     * @return a future completed when the update has been issued to the replicas, or
+     * exceptionally with a TimeoutException if the quorum could not be reached or with an
+     * OverloadedException if the coordinator refused the request
+     */
+    public CompletableFuture<Void> update(int key, String value) {
+        return sendOperation(new ClientWriteMessage(key, value), key).thenApply(msg -> null);
+    }
+
+    /**
+     * Asks the entry node to leave the system
+     * @return a future completed when the node has left
+     */
+    public CompletableFuture<Void> leave() {
+        return ask(entryNode, new LeaveMessage()).thenApply(msg -> null);
+    }
+
+    /**
+     * Evens out the load of the nodes (see TokenBalancer): asks every node for its load, then
+     * moves the nodes along the ring, one at a time. Every move transfers only the items of
+     * the keys between the old and the new key of the node.
+     * @return a future completed with the moves done (none if the load was balanced enough),
+     * or exceptionally if a node did not report its load or could not move
+     */
+    public CompletableFuture<List<TokenBalancer.Move>> rebalance() {
+        return refreshRing(entryNode).thenCompose(fresh -> {
+            ArrayList<CompletableFuture<Object>> reports = new ArrayList<>();
+            for (Peer peer : fresh.getPeers().values()) {
+                reports.add(ask(peer.getRemoteSelection(), new LoadReportMessage()));
+            }
+            return CompletableFuture.allOf(reports.toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+                ArrayList<TokenBalancer.Load> loads = new ArrayList<>();
+                for (CompletableFuture<Object> report : reports) {
+                    LoadReportMessage load = (LoadReportMessage) report.join();
+                    loads.add(new TokenBalancer.Load(load.getKey(), load.getItems(), load.getRequestRate(),
+                            load.getSampleKeys()));
+                }
+                return new TokenBalancer(rebalanceTolerance).plan(loads);
+            }).thenCompose(moves -> {
+                // a node moves once the previous one is done, since it might have to wait for it
+                CompletableFuture<Void> done = CompletableFuture.completedFuture(null);
+                for (TokenBalancer.Move move : moves) {
+                    ActorSelection node = fresh.getPeer(move.getFrom()).getRemoteSelection();
+                    done = done.thenCompose(previous ->
+                            PatternsCS.ask(node, new MoveTokenMessage(move.getTo()), MOVE_TIMEOUT).toCompletableFuture()
+                                    .thenAccept(reply -> {
+                                        if (!((MoveTokenMessage) reply).isSuccess()) {
+                                            throw new CompletionException(new IllegalStateException(
+                                                    "The node with key " + move.getFrom() + " could not move to key "
+                                                            + move.getTo()));
+                                        }
+                                    }));
+                }
+                return done.thenApply(v -> {
+                    this.ring = null;
+                    return moves;
+                });
+            });
+        });
+    }
+
+    /**
+     * Releases the resources of the client. Outstanding requests may fail.
+     * @throws Exception if the actor system does not terminate in time
+     */
+    public void close() throws Exception {
+        if (ownSystem) {
+            Await.result(system.terminate(), timeout.duration());
+        }
+    }
+
+    /**
+     * Routes a read/update operation according to the configured mode
+     * @param message the operation requested by the user (a ClientReadMessage or a ClientWriteMessage)
+     * @param key the key of the item
+     * @return a future completed with the (successful) reply of the coordinator
+     */
+    private CompletableFuture<ClientReplyMessage> sendOperation(Object message, int key) {
+        CompletableFuture<Object> reply;
+        if (mode.equals("direct")) {
+            reply = currentRing().thenCompose(ring -> sendToReplica(ring, message, key, true, null));
+        } else if (mode.equals("quorum")) {
+            reply = currentRing().thenCompose(ring -> runQuorum(ring, message, key));
+        } else {
+            reply = ask(entryNode, message);
+        }
+        return reply.thenApply(result -> {
+            if (result instanceof OverloadedMessage) {
+                throw new CompletionException(new OverloadedException("The coordinator is overloaded"));
+            }
+            ClientReplyMessage msg = (ClientReplyMessage) result;
+            if (!msg.isSuccess()) {
+                throw new CompletionException(new TimeoutException("The quorum was not reached in time"));
+            }
+            return msg;
+        });
+    }
+
+    /**
+     * @return a future completed with the cached ring, fetching it if needed
+     */
+    private CompletableFuture<Ring> currentRing() {
+        Ring cached = this.ring;
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        return refreshRing(entryNode);
+    }
+
+    /**
+     * Fetches the ring from a node and caches it. Concurrent refreshes are merged into one.
+     * If a ring is cached already, the node sends just the changes since its epoch, when it knows them.
+     * @param node the node to ask the ring to
+     * @return a future completed with the new ring
+     */
+    private synchronized CompletableFuture<Ring> refreshRing(ActorSelection node) {
+        if (ringRefresh != null) {
+            return ringRefresh;
+        }
+        Ring cached = this.ring;
+        CompletableFuture<Ring> refresh = fetchRing(node, cached).thenApply(fresh -> {
+            this.ring = fresh;
+            return fresh;
+        });
+        this.ringRefresh = refresh;
+        refresh.whenComplete((r, e) -> {
+            synchronized (DynamoClient.this) {
+                ringRefresh = null;
+            }
+        });
+        return refresh;
+    }
+
+    /**
+     * Asks the ring to a node
+     * @param node the node to ask the ring to
+     * @param cached the ring to update (it is not modified), null to fetch all the Peers
+     * @return a future completed with the new ring
+     */
+    private CompletableFuture<Ring> fetchRing(ActorSelection node, Ring cached) {
+        PeersListMessage request = cached == null ? new PeersListMessage(true, null, 0)
+                : new PeersListMessage(true, null, cached.getEpoch(), cached.getEpochOrigin());
+        return ask(node, request).thenCompose(result -> {
+            Ring fresh = new Ring();
+            if (result instanceof RingDeltaMessage) {
+                fresh.addPeers(cached.copyPeers());
+                fresh.setEpoch(cached.getEpoch(), cached.getEpochOrigin());
+                if (!fresh.applyChanges(((RingDeltaMessage) result).getChanges())) {
+                    // the ring changed in between: all the Peers are needed
+                    return fetchRing(node, null);
+                }
+            } else {
+                PeersListMessage msg = (PeersListMessage) result;
+                fresh.addPeers(msg.getPeers());
+                fresh.setEpoch(msg.getEpoch(), msg.getEpochOrigin());
+            }
+            return CompletableFuture.completedFuture(fresh);
+        });
+    }
+
+    /**
+     * Refreshes the cached ring (in background) if a node replied with a different membership epoch
+     * @param result the reply of a node
+     * @param node the node that replied
+     */
+    private void checkEpoch(Object result, ActorSelection node) {
+        Ring cached = this.ring;
+        long epoch;
+        if (result instanceof ClientReplyMessage) {
+            epoch = ((ClientReplyMessage) result).getEpoch();
+        } else if (result instanceof ReplicaReadReplyMessage) {
+            epoch = ((ReplicaReadReplyMessage) result).getEpoch();
+        } else if (result instanceof OverloadedMessage) {
+            epoch = ((OverloadedMessage) result).getEpoch();
+        } else {
+            return;
+        }
+        if (cached != null && epoch != cached.getEpoch()) {
+            refreshRing(node);
+        }
+    }
+
+    /**
+     * Sends the operation to a node in the preference list of the key, which coordinates it.
+     * The node is chosen randomly among the replicas to spread the coordination load;
+     * if it does not respond, the ring is refreshed and another replica is tried once.
+     * If it is overloaded, another replica is tried once as well.
+     * @param ring the ring to route with
+     * @param message the operation requested by the user
+     * @param key the key of the item
+     * @param retry true if another replica has to be tried in case of failure
+     * @param overloaded the replica which refused the operation, not to be tried again (or null)
+     * @return a future completed with the reply of the coordinator
+     */
+    private CompletableFuture<Object> sendToReplica(Ring ring, Object message, int key, boolean retry,
+                                                    Peer overloaded) {
+        ArrayList<Peer> replicas = ring.getReplicasFromKey(N, key);
+        if (overloaded != null && replicas.size() > 1) {
+            replicas.remove(overloaded);
+        }
+        Peer replica = replicas.get(ThreadLocalRandom.current().nextInt(replicas.size()));
+        ActorSelection node = replica.getRemoteSelection();
+        return ask(node, message).handle((result, error) -> {
+            if (error == null) {
+                checkEpoch(result, node);
+                if (result instanceof OverloadedMessage && retry) {
+                    return sendToReplica(ring, message, key, false, replica);
+                }
+                return CompletableFuture.completedFuture(result);
+            }
+            if (!retry) {
+                CompletableFuture<Object> failed = new CompletableFuture<>();
+                failed.completeExceptionally(error);
+                return failed;
+            }
+            return refreshRing(entryNode).thenCompose(fresh -> sendToReplica(fresh, message, key, false, null));
+        }).thenCompose(future -> future);
+    }
+
+    /**
+     * Runs the quorum protocol from the client: the replicas of the key are asked
+     * for their version of the item, as a coordinator node would do. For a read
+     * the latest of R replies is returned, for an update the latest of max(R, W) replies
+     * is used to compute the new version, which is then sent to all the replicas.
+     * @param ring the ring to route with
+     * @param message the operation requested by the user
+     * @param key the key of the item
+     * @return a future completed with the result, as a coordinator would have sent it
+     */
+    private CompletableFuture<Object> runQuorum(Ring ring, Object message, int key) {
+        boolean read = message instanceof ClientReadMessage;
+        ArrayList<Peer> replicas = ring.getReplicasFromKey(N, key);
+        QuorumCollector collector = new QuorumCollector(read, read ? R : Math.max(R, W), replicas.size());
+
+        // the replies go to a temporary actor, operation ids and timestamps are not needed,
+        // and the client has no epoch of its own
+        ReplicaReadMessage readRequest = new ReplicaReadMessage(key, 0, 0, 0);
+        for (Peer p : replicas) {
+            ask(p.getRemoteSelection(), readRequest).whenComplete((result, error) -> {
+                if (error == null) {
+                    checkEpoch(result, p.getRemoteSelection());
+                }
+                collector.add(error == null ? (ReplicaReadReplyMessage) result : null);
+            });
+        }
+
+        return collector.result.thenApply(latest -> {
+            if (read) {
+                return new ClientReplyMessage(latest.getKey(), latest.getValue(), latest.getVersion(), ring.getEpoch());
+            }
+            int newVersion = latest == null ? 1 : latest.getVersion() + 1;
+            ReplicaWriteMessage issueUpdate = new ReplicaWriteMessage(key,
+                    ((ClientWriteMessage) message).getValue(), newVersion, 0);
+            for (Peer p : replicas) {
+                p.getRemoteSelection().tell(issueUpdate, null);
+            }
+            return new ClientReplyMessage(true, ring.getEpoch());
+        });
+    }
+
+    /**
+     * Asks something to a node, with the configured timeout
+     * @param node the node
+     * @param message the request
+     * @return a future completed with the reply
+     */
+    private CompletableFuture<Object> ask(ActorSelection node, Object message) {
+        return PatternsCS.ask(node, message, timeout).toCompletableFuture();
+    }
+
+    /**
+     * Collects the read responses of the replicas for a quorum run by the client
+     */
+    private static class QuorumCollector {
+
+        private final boolean read;
+        private final int quorum;
+        private final int replicas;
+        private int received = 0;
+        private int answered = 0;
+        // the response with the latest version so far (null if none had the item)
+        private ReplicaReadReplyMessage latest = null;
+
+        final CompletableFuture<ReplicaReadReplyMessage> result = new CompletableFuture<>();
+
+        QuorumCollector(boolean read, int quorum, int replicas) {
+            this.read = read;
+            this.quorum = quorum;
+            this.replicas = replicas;
+        }
+
+        /**
+         * @param response the response of a replica, null if it did not respond
+         */
+        synchronized void add(ReplicaReadReplyMessage response) {
+            answered++;
+            // as for the coordinator, replicas without the item do not count for a read quorum
+            if (response != null && !(!response.hasItem() && read)) {
+                received++;
+                if (response.hasItem() && (latest == null || response.getVersion() > latest.getVersion())) {
+                    latest = response;
+                }
+                if (received == quorum) {
+                    result.complete(latest);
+                }
+            }
+            if (answered == replicas && received < quorum) {
+                result.completeExceptionally(new TimeoutException("The quorum was not reached in time"));
+            }
+        }
+    }
+}
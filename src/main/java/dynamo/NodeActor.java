@@ -1,24 +1,49 @@
 package dynamo;
 
 import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
 import akka.actor.Cancellable;
+import akka.actor.Props;
+import akka.pattern.PatternsCS;
 import dynamo.messages.*;
 import dynamo.nodeutilities.*;
 import akka.actor.ActorSelection;
 import akka.actor.UntypedActor;
 import akka.pattern.Patterns;
 import akka.util.Timeout;
+import com.typesafe.config.Config;
+import dynamo.metrics.HttpReporter;
+import dynamo.metrics.JmxReporter;
+import dynamo.metrics.MetricsRegistry;
 import scala.concurrent.Await;
 import scala.concurrent.Future;
 import scala.concurrent.duration.Duration;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 
 /**
- * The actor which implements the functionality of a node in the Dynamo system
+ * The actor which implements the functionality of a node in the Dynamo system.
+ * It is the address of the node for the clients and the other nodes, and it manages
+ * the membership (join, leave, recovery) itself. The rest of the work is done by its children:
+ *  - a CoordinatorActor coordinates the requests of the clients
+ *  - a pool of StorageShardActors store the items, each one a slice of them,
+ *    and serve the replica reads and updates in parallel
  */
 public class NodeActor extends UntypedActor{
 
@@ -30,7 +55,6 @@ public class NodeActor extends UntypedActor{
     private Integer N = 0;
     private Integer R = 0;
     private Integer W = 0;
-    private Integer Q = 0;
 
     // The identifier of the dynamo.NodeActor.
     private Integer idKey = null;
@@ -39,44 +63,80 @@ public class NodeActor extends UntypedActor{
     // Where all the peers are stored.
     private Ring ring = null;
 
-    // Where all the data items are stored.
-    private Storage storage = null;
+    // The actors where all the data items are stored (null until the storage is initialized),
+    // each one owns the items with key (modulo the number of shards) equal to its index
+    private ActorRef[] shards = null;
+    private int shardCount;
     private String storagePath;
-    /*
-    Handy variable when we are dealing with a read/write request
-    from the client.
-     */
-    // read or write operation
-    private boolean readOperation = false;
-    // true if we are waiting for some nodes to reply (to reach the quorum)
-    private boolean waitingQuorum = false;
-    // partial quorum counter
-    private Integer quorum = 0;
-    // the quorum that has to be reached (it changes based on read or write)
-    private Integer quorumThreshold = 0;
-    // the new value to be updated
-    private String newValue = null;
-    // the reference of the client to respond to after the quorum operation
-    private ActorRef clientReferenceRequest = null;
-    // contains the read responses from the issued nodes
-    private ArrayList<OperationMessage> readResponseMessages = new ArrayList<>();
+    private String logLevel;
+
+    // The actor coordinating the requests of the clients
+    private ActorRef coordinator;
+
+    // runtime metrics of this node
+    private MetricsRegistry metrics = new MetricsRegistry();
+    // encodes the items sent in bulk to the other nodes
+    private Compression compression;
+    // expose the metrics through JMX and HTTP (null if disabled)
+    private JmxReporter jmxReporter;
+    private HttpReporter httpReporter;
+    // the periodic MetricsSampleMessage
+    private Cancellable metricsSampleCancellable;
+    // the periodic LogSnapshotMessage (null if disabled)
+    private Cancellable logSnapshotCancellable;
+    // the queue of the mailbox, which counts its messages (null if it is not a PriorityMailbox)
+    private PriorityMailbox.PriorityMessageQueue queue;
 
     // A cancellable returned from the scheduler which lets us cancel the scheduled message
+    // (used for the timeout of the join procedure, operations have their own)
     private Cancellable scheduledTimeoutMessageCancellable;
 
+    // while recovering, the shards still to send their last DeltaItemsMessage, by key of
+    // the replica (-1 until the first one tells how many shards the replica has)
+    private HashMap<Integer, Integer> recoveringFrom = null;
+    private long recoveryStart;
+    private long recoveredItems;
+    // subtracted from the high-water marks, for the skew between the clocks of the nodes
+    private long recoveryMargin;
+
+    // when the ring was last asked to a peer with a newer epoch (System.nanoTime), and how often
+    // it can be asked: every message from such a peer would ask for it otherwise
+    private long lastCatchUp = 0;
+    private static final long CATCH_UP_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    // the key the Storage files are named after, the first key of the node: it may move
+    // along the ring later (see MoveTokenMessage), its current key is saved in a file
+    private Integer storageKey = null;
+    // the keys of its items the node reports with its load, at most
+    private int loadSamples;
+    // the move in progress, waiting for the items of the range: the new key and who asked for it
+    private Integer moveTarget = null;
+    private ActorRef moveRequester = null;
+
     public NodeActor(Integer id, Integer n, Integer r, Integer w, String storagePath, String logLevel) {
         this.idKey = id;
         this.N = n;
         this.R = r;
         this.W = w;
-        this.Q = Math.max(this.R, this.W);
         this.storagePath = storagePath;
+        this.logLevel = logLevel;
 
         assert W + R > N;
 
         // Now have to initialize current NodeUtilities.Ring class to manage Peers.
         ring = new Ring();
 
+        // by default, one storage shard for each core
+        Config config = getContext().system().settings().config();
+        this.shardCount = config.getInt("dynamo.storage.shards");
+        if (this.shardCount <= 0) {
+            this.shardCount = Runtime.getRuntime().availableProcessors();
+        }
+        this.compression = new Compression(config.getBoolean("dynamo.compression.enabled"),
+                config.getInt("dynamo.compression.threshold"), metrics);
+        this.recoveryMargin = config.getLong("dynamo.recovery.margin");
+        this.loadSamples = config.getInt("dynamo.rebalance.samples");
+
         if (logLevel.equals("INFO")) {
             this.nodeActorLogger.setLevel(DynamoLogger.LOG_LEVEL.INFO);
         } else if (logLevel.equals("DEBUG")) {
@@ -84,6 +144,74 @@ public class NodeActor extends UntypedActor{
         }
     }
 
+    /**
+     * Starts the metrics reporters and the periodic sampling of the metrics
+     */
+    @Override
+    public void preStart() throws Exception {
+        this.coordinator = getContext().actorOf(Props.create(CoordinatorActor.class,
+                this.N, this.R, this.W, this.metrics, this.logLevel), "coordinator");
+        this.queue = PriorityMailbox.queueOf(getSelf());
+        PriorityMailbox.PriorityMessageQueue.recordQueueTimes(getContext(), this.metrics, "mailbox");
+
+        Config config = getContext().system().settings().config();
+        long sampleInterval = config.getLong("dynamo.metrics.sample-interval");
+        this.metricsSampleCancellable = getContext().system().scheduler().schedule(
+                Duration.create(sampleInterval, TimeUnit.MILLISECONDS),
+                Duration.create(sampleInterval, TimeUnit.MILLISECONDS),
+                getSelf(), new MetricsSampleMessage(), getContext().system().dispatcher(), getSelf());
+        long snapshotInterval = config.getLong("dynamo.logger.snapshot-interval");
+        if (snapshotInterval > 0) {
+            this.logSnapshotCancellable = getContext().system().scheduler().schedule(
+                    Duration.create(snapshotInterval, TimeUnit.MILLISECONDS),
+                    Duration.create(snapshotInterval, TimeUnit.MILLISECONDS),
+                    getSelf(), new LogSnapshotMessage(), getContext().system().dispatcher(), getSelf());
+        }
+
+        // the nodes on the same host are told apart by the port of their actor system
+        String port = config.getString("akka.remote.netty.tcp.port");
+        if (config.getBoolean("dynamo.metrics.jmx.enabled")) {
+            try {
+                this.jmxReporter = new JmxReporter(metrics);
+                this.jmxReporter.start("dynamo:type=Node,port=" + port);
+            } catch (Exception e) {
+                this.jmxReporter = null;
+                nodeActorLogger.error("Cannot register the metrics MBean: {}", e.getMessage());
+            }
+        }
+        if (config.getBoolean("dynamo.metrics.http.enabled")) {
+            try {
+                this.httpReporter = new HttpReporter(metrics);
+                this.httpReporter.start(config.getString("dynamo.metrics.http.host"),
+                        config.getInt("dynamo.metrics.http.port"));
+                nodeActorLogger.info("Metrics available at http://{}:{}/metrics",
+                        config.getString("dynamo.metrics.http.host"), this.httpReporter.getPort());
+            } catch (Exception e) {
+                this.httpReporter = null;
+                nodeActorLogger.error("Cannot start the metrics endpoint: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Stops the metrics reporters and the periodic sampling of the metrics
+     */
+    @Override
+    public void postStop() throws Exception {
+        if (this.metricsSampleCancellable != null) {
+            this.metricsSampleCancellable.cancel();
+        }
+        if (this.logSnapshotCancellable != null) {
+            this.logSnapshotCancellable.cancel();
+        }
+        if (this.jmxReporter != null) {
+            this.jmxReporter.stop();
+        }
+        if (this.httpReporter != null) {
+            this.httpReporter.stop();
+        }
+    }
+
     /**
      *
      * Broadcast a message to every Peer in the system, save the local node
@@ -105,102 +233,187 @@ public class NodeActor extends UntypedActor{
     }
 
     /**
-     * Send a message to the replicas responsible for
-     * data item with a certain key
-     * @param message the message to be sent (must implement Serializable interface)
-     * @param itemKey the key of the data item
+     * Creates the storage shards, once the key of the node is known
+     * @param recover true if the shards have to load their items from the Storage files
+     */
+    private void startShards(boolean recover) {
+        if (this.storageKey == null) {
+            this.storageKey = this.idKey;
+        }
+        if (recover) {
+            // every shard reloads only its own files: they must be split as before the crash
+            int recovered = recoveredShardCount();
+            if (recovered != this.shardCount) {
+                nodeActorLogger.info("Recovering with the {} shards the Storage files were written by, instead of {}",
+                        recovered, this.shardCount);
+                this.shardCount = recovered;
+            }
+        }
+        saveShardCount();
+        this.shards = new ActorRef[this.shardCount];
+        for (int i = 0; i < this.shardCount; i++) {
+            this.shards[i] = getContext().actorOf(Props.create(StorageShardActor.class, this.storageKey, this.N, i,
+                    this.shardCount, this.storagePath, recover, this.metrics, this.logLevel)
+                    .withMailbox("dynamo-counting-mailbox"), "shard-" + i);
+        }
+    }
+
+    /**
+     * Sends a copy of the ring to the coordinator and to the shards, must be called
+     * at every membership change
+     * @param removeItemsOutOfResponsibility true if the shards have to remove the items
+     *                                       the node is not responsible for anymore
      */
-    private void sendMessageToReplicas(Object message, Integer itemKey) {
-        for (Peer p : ring.getReplicasFromKey(this.N, itemKey)){
-            p.getRemoteSelection().tell(message, getSelf());
-            // getContext().actorSelection(p.getRemotePath()).tell(message, getSelf());
-            nodeActorLogger.debug("Sent message {} to Node {} ({})",
-                    message.toString(), p.getKey(), p.getRemotePath());
+    private void publishRing(boolean removeItemsOutOfResponsibility) {
+        this.coordinator.tell(new RingUpdateMessage(ring.copyPeers(), ring.getEpoch(), this.idKey, false), getSelf());
+        if (this.shards != null) {
+            for (ActorRef shard : this.shards) {
+                shard.tell(new RingUpdateMessage(ring.copyPeers(), ring.getEpoch(), this.idKey,
+                        removeItemsOutOfResponsibility), getSelf());
+            }
         }
     }
 
     /**
-     * Sends a read request for a certain item to all of the N next nodes
-     * @param itemKey the item's key to retrieve
+     * Sends items to the shards owning them
+     * @param items the items to be stored
      */
-    private void handleClientReadRequest(Integer itemKey) {
-        nodeActorLogger.debug("handleClientReadRequest: itemKey {}", itemKey);
-        OperationMessage readRequest = new OperationMessage(false, true, true, itemKey, null);
-        // send a retrieve message to each one of the replicas (check if one of these is SELF)
-        waitingQuorum = true;
-        sendMessageToReplicas(readRequest, itemKey);
+    private void storeItems(ArrayList<Item> items) {
+        storeItems(items, false);
     }
 
     /**
-     * Returns the item with newer version number from the responses from the replicas
-     *
-     * @return an Item object with value, key and version number
+     * Sends items to the shards owning them
+     * @param items the items to be stored
+     * @param newerOnly true if an item must be stored only if newer than the local one
      */
-    private Item getLatestVersionItemFromResponses() {
-        nodeActorLogger.debug("getLatestVersionItemFromResponses");
-        OperationMessage max = readResponseMessages.get(0);
-        for (OperationMessage msg : readResponseMessages){
-            if (msg.getVersion() > max.getVersion()){
-                max = msg;
+    private void storeItems(ArrayList<Item> items, boolean newerOnly) {
+        ArrayList<ArrayList<Item>> slices = new ArrayList<>();
+        for (int i = 0; i < this.shardCount; i++) {
+            slices.add(new ArrayList<>());
+        }
+        for (Item item : items) {
+            slices.get(StorageShardActor.shardOf(item.getKey(), this.shardCount)).add(item);
+        }
+        for (int i = 0; i < this.shardCount; i++) {
+            if (!slices.get(i).isEmpty()) {
+                this.shards[i].tell(new StoreItemsMessage(slices.get(i), newerOnly), getSelf());
             }
         }
-        return new Item(max.getKey(), max.getValue(), max.getVersion());
     }
 
     /**
-     * Decides what Item to send back to the client between the ones received by the replicas in the system, and then sends it.
+     * Asks every shard for its items
+     * @param newNodeKey the key of the new node the items are for (see Storage.getItemsForNewNode),
+     *                   null to collect all of them
+     * @return a future completed with the items of all the shards
      */
-    private void handleReadResponseToClient() {
-        Item latest = getLatestVersionItemFromResponses();
-        // Send response to client
-        OperationMessage response = new OperationMessage(
-                false,
-                false,
-                true,
-                latest.getKey(),
-                latest.getValue(),
-                latest.getVersion());
-        nodeActorLogger.debug("handleReadResponseToClient: message {} sent to client",
-                response.toString());
-        clientReferenceRequest.tell(response, getSelf());
+    private CompletableFuture<ArrayList<Item>> collectItems(Integer newNodeKey) {
+        return askItems(new CollectItemsMessage(true, newNodeKey));
     }
 
     /**
-     * Sends success message to client and then tell the replicas to update their data item with the new value and latest version number.
-     *
-     * @param item the Item to be updated
-     */
-    private void issueUpdateToReplicas(Item item){
-        if (item == null) {
-            item = getLatestVersionItemFromResponses();
-        }
-
-        // send success response to client
-        OperationMessage clientResponse = new OperationMessage(
-                false,
-                false,
-                true,
-                null,
-                "success",
-                null);
-        clientReferenceRequest.tell(clientResponse, getSelf());
-        nodeActorLogger.debug("issueUpdateToReplicas: message {} sent to client",
-                clientResponse.toString());
-        // issue update to replicas
-        Integer newVersion = item.getVersion() + 1;
-        OperationMessage issueUpdate = new OperationMessage(
-                false,
-                true,
-                false,
-                item.getKey(),
-                this.newValue,
-                newVersion);
-        // send update message to replicas
-        nodeActorLogger.debug("issueUpdateToReplicas: call sendMessageToReplicas with message {}",
-                issueUpdate.toString());
-        sendMessageToReplicas(issueUpdate, item.getKey());
+     * Asks every shard for its items in a range of keys
+     * @param from the start of the range, excluded
+     * @param to the end of the range, included (see Ring.isBetween)
+     * @return a future completed with the items of all the shards
+     */
+    private CompletableFuture<ArrayList<Item>> collectItems(Integer from, Integer to) {
+        return askItems(new CollectItemsMessage(from, to));
+    }
+
+    /**
+     * Asks every shard for some of its items
+     * @param request the CollectItemsMessage telling which items
+     * @return a future completed with the items of all the shards
+     */
+    private CompletableFuture<ArrayList<Item>> askItems(CollectItemsMessage request) {
+        final Timeout timeout = new Timeout(Duration.create(5, "seconds"));
+        ArrayList<CompletableFuture<Object>> replies = new ArrayList<>();
+        if (this.shards != null) {
+            for (ActorRef shard : this.shards) {
+                replies.add(PatternsCS.ask(shard, request, timeout)
+                        .toCompletableFuture());
+            }
+        }
+        return CompletableFuture.allOf(replies.toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+            ArrayList<Item> items = new ArrayList<>();
+            for (CompletableFuture<Object> reply : replies) {
+                items.addAll(((CollectItemsMessage) reply.join()).getItems());
+            }
+            return items;
+        });
     }
 
+    /**
+     * Asks every shard for the high-water marks of its ranges (see ChangeLog)
+     * @return a future completed with the lowest mark of each range among the shards
+     */
+    private CompletableFuture<HashMap<Integer, Long>> collectMarks() {
+        final Timeout timeout = new Timeout(Duration.create(5, "seconds"));
+        ArrayList<CompletableFuture<Object>> replies = new ArrayList<>();
+        for (ActorRef shard : this.shards) {
+            replies.add(PatternsCS.ask(shard, new RecoveryMarksMessage(true, null), timeout).toCompletableFuture());
+        }
+        return CompletableFuture.allOf(replies.toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+            HashMap<Integer, Long> marks = new HashMap<>();
+            for (CompletableFuture<Object> reply : replies) {
+                for (Map.Entry<Integer, Long> mark : ((RecoveryMarksMessage) reply.join()).getMarks().entrySet()) {
+                    marks.merge(mark.getKey(), mark.getValue(), Math::min);
+                }
+            }
+            return marks;
+        });
+    }
+
+    /**
+     * Asks the other replicas of each range of the node for the items changed since its
+     * high-water mark, all of them in parallel: the replicas of a range send the same
+     * changes, the shards keep the latest version of each item
+     * @param marks the high-water marks of the node, by range
+     */
+    private void requestDeltas(HashMap<Integer, Long> marks) {
+        HashMap<Integer, HashMap<Integer, Long>> requests = new HashMap<>();
+        int fullRanges = 0;
+        ArrayList<Integer> ranges = this.ring.getRangesOfNode(this.N, this.idKey);
+        for (Integer rangeKey : ranges) {
+            Long mark = marks.get(rangeKey);
+            // without a mark, all the items of the range are needed
+            long since = mark == null ? Long.MIN_VALUE : mark - this.recoveryMargin;
+            if (mark == null) {
+                fullRanges++;
+            }
+            for (Peer replica : this.ring.getReplicasFromKey(this.N, rangeKey)) {
+                if (!replica.getKey().equals(this.idKey)) {
+                    requests.computeIfAbsent(replica.getKey(), k -> new HashMap<>()).put(rangeKey, since);
+                }
+            }
+        }
+        this.recoveringFrom = new HashMap<>();
+        this.recoveryStart = System.nanoTime();
+        this.recoveredItems = 0;
+        for (Map.Entry<Integer, HashMap<Integer, Long>> request : requests.entrySet()) {
+            this.recoveringFrom.put(request.getKey(), -1);
+            this.ring.getPeer(request.getKey()).getRemoteSelection()
+                    .tell(new RequestDeltasMessage(request.getValue()), getSelf());
+        }
+        metrics.increment("recovery.ranges.full.count", fullRanges);
+        nodeActorLogger.info("Recovery: asked {} replicas for the changes of {} ranges ({} without high-water mark)",
+                requests.size(), ranges.size(), fullRanges);
+        if (this.recoveringFrom.isEmpty()) {
+            this.completeRecovery();
+        }
+    }
+
+    /**
+     * Accounts the end of the incremental recovery, when every replica sent its changes
+     */
+    private void completeRecovery() {
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.recoveryStart);
+        metrics.setGauge("recovery.duration.ms", millis);
+        nodeActorLogger.info("Recovery: received {} changed items in {} ms", this.recoveredItems, millis);
+        this.recoveringFrom = null;
+    }
 
     /**
      * Request to a remote actor it list of peers to have knowledge of the network
@@ -229,6 +442,7 @@ public class NodeActor extends UntypedActor{
         assert !msg.isRequest();
 
         ring.addPeers(msg.getPeers());
+        ring.setEpoch(msg.getEpoch(), msg.getEpochOrigin());
 
         nodeActorLogger.debug("requestPeersToRemote: initialized Ring with {} peers",
                 this.ring.getNumberOfPeers());
@@ -240,29 +454,306 @@ public class NodeActor extends UntypedActor{
     private void announceSelfToSystem() {
         // send a hello message to everyone.
         HelloMatesMessage message = new HelloMatesMessage(getContext().actorSelection(self().path()),
-                this.idKey, this.remotePath);
+                this.idKey, this.remotePath, this.ring.getEpoch());
         String logMessage = "announceSelfToSystem: sent HelloMatesMessage to remote Node with key " + this.idKey;
         this.broadcastToPeers(message, logMessage);
     }
 
     /**
-     * Send a message to every one in the network (except to self) to account we are leaving the system.
+     * Send a message to every one in the network (except to self) to account we are leaving the system,
+     * with all the items of the node. Then replies to the requester and shuts the node down.
+     * @param requester who asked the node to leave
      */
-    private void leaveSystem(){
-        // send a leave message to everyone
-        ByeMatesMessage message = new ByeMatesMessage(this.idKey, this.storage.getStorage());
-        String logMessage = "leaveSystem: send ByematesMessage to remote Node with key " + this.idKey;
-        this.broadcastToPeers(message, logMessage);
+    private void leaveSystem(ActorRef requester){
+        // the items are collected asynchronously: everything the callback needs is copied now
+        final ArrayList<ActorSelection> mates = new ArrayList<>();
+        for (Map.Entry<Integer, Peer> entry : ring.getPeers().entrySet()) {
+            if (!this.idKey.equals(entry.getKey())) {
+                mates.add(entry.getValue().getRemoteSelection());
+            }
+        }
+        final Integer key = this.idKey;
+        // the epoch of the ring without this node
+        final long epoch = this.ring.getEpoch() + 1;
+        final ActorRef self = getSelf();
+        final ActorSystem system = getContext().system();
+        final Compression compression = this.compression;
+        collectItems(null).whenComplete((items, error) -> {
+            // send a leave message to everyone
+            ByeMatesMessage message = new ByeMatesMessage(key,
+                    compression.pack(items != null ? items : new ArrayList<>()), epoch);
+            for (ActorSelection mate : mates) {
+                mate.tell(message, self);
+            }
+            // send response to client and shutdown system
+            requester.tell(new LeaveMessage(), self);
+            system.terminate();
+        });
     }
 
-    private void resetVariables() {
-        // stop the quorum operation
-        this.quorum = 0;
-        this.quorumThreshold = 0;
-        this.waitingQuorum = false;
-        this.readResponseMessages.clear();
-        this.clientReferenceRequest = null;
-        this.newValue = null;
+    /**
+     * Asks every shard for its part of the load of the range of the node (see LoadReportMessage)
+     * @return a future completed with the load of the node
+     */
+    private CompletableFuture<LoadReportMessage> collectLoad() {
+        final Timeout timeout = new Timeout(Duration.create(5, "seconds"));
+        ArrayList<CompletableFuture<Object>> replies = new ArrayList<>();
+        for (ActorRef shard : this.shards) {
+            replies.add(PatternsCS.ask(shard, new LoadReportMessage(), timeout).toCompletableFuture());
+        }
+        final Integer key = this.idKey;
+        final long rangeSize = this.ring.getRangeSize(key);
+        final int previous = this.ring.getPreviousPeer(key).getKey();
+        final int samples = this.loadSamples;
+        final Double rate = metrics.getGauge("load.range.requests.rate");
+        return CompletableFuture.allOf(replies.toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+            long items = 0;
+            ArrayList<List<Integer>> sampleKeys = new ArrayList<>();
+            ArrayList<Long> counts = new ArrayList<>();
+            for (CompletableFuture<Object> reply : replies) {
+                LoadReportMessage load = (LoadReportMessage) reply.join();
+                items += load.getItems();
+                sampleKeys.add(load.getSampleKeys());
+                counts.add(load.getItems());
+            }
+            return new LoadReportMessage(key, rangeSize, items, rate == null ? 0 : rate,
+                    TokenBalancer.mergeSamples(sampleKeys, counts, previous, samples));
+        });
+    }
+
+    /**
+     * Starts moving the node to another key, between its previous and its next Peer.
+     * Moving forward, the node becomes a replica of the keys between the old and the new one:
+     * their items are asked to the next Peer. Moving backward, the Peer N positions ahead
+     * becomes a replica of the keys left: their items are collected, to be handed over.
+     * The move is completed (see completeMove) once the items are received.
+     * @param newKey the new key
+     * @param requester who asked for the move, told when it is done
+     */
+    private void moveToken(Integer newKey, ActorRef requester) {
+        if (this.shards == null || this.ring.getNumberOfPeers() < 2 || this.ring.keyExists(newKey)
+                || !Ring.isBetween(newKey, this.ring.getPreviousPeer(this.idKey).getKey(),
+                        this.ring.getNextPeer(this.idKey).getKey())) {
+            nodeActorLogger.error("Cannot move from key {} to key {}", this.idKey, newKey);
+            requester.tell(new MoveTokenMessage(newKey, false), getSelf());
+            return;
+        }
+        this.moveTarget = newKey;
+        this.moveRequester = requester;
+        if (this.ring.getNumberOfPeers() <= this.N) {
+            // every node stores all the items already
+            completeMove(null);
+        } else if (Ring.isBetween(newKey, this.idKey, this.ring.getNextPeer(this.idKey).getKey())) {
+            this.ring.getNextPeer(this.idKey).getRemoteSelection().tell(new RangeItemsMessage(this.idKey, newKey), getSelf());
+        } else {
+            final Integer oldKey = this.idKey;
+            final ActorRef self = getSelf();
+            final Compression compression = this.compression;
+            this.collectItems(newKey, oldKey).thenAccept(items ->
+                    self.tell(new RangeItemsMessage(newKey, oldKey, compression.pack(items)), self));
+        }
+    }
+
+    /**
+     * Completes the move in progress: the node takes its new key and announces it to the others
+     * @param handedOver the items of the keys left, for the Peer becoming a replica of them
+     *                   (null if the node moved forward)
+     */
+    private void completeMove(ArrayList<Item> handedOver) {
+        Integer oldKey = this.idKey;
+        Integer newKey = this.moveTarget;
+        // the Peer N positions ahead, which becomes a replica of the keys left
+        Integer receiver = oldKey;
+        for (int i = 0; i < this.N; i++) {
+            receiver = this.ring.getNextPeer(receiver).getKey();
+        }
+
+        // both changes are made by the node with its new key (see TokenMovedMessage)
+        this.ring.removePeer(oldKey);
+        this.ring.nextEpoch(oldKey, newKey);
+        this.idKey = newKey;
+        this.ring.addPeer(new Peer(this.remotePath, context().actorSelection(self().path()), newKey));
+        this.ring.nextEpoch(newKey, newKey);
+        this.saveToken();
+        this.publishRing(true);
+        nodeActorLogger.info(ring::toString);
+
+        TokenMovedMessage moved = new TokenMovedMessage(oldKey, newKey, null, this.ring.getEpoch());
+        TokenMovedMessage withItems = handedOver == null ? moved
+                : new TokenMovedMessage(oldKey, newKey, compression.pack(handedOver), this.ring.getEpoch());
+        for (Peer peer : this.ring.getPeers().values()) {
+            if (!peer.getKey().equals(newKey)) {
+                peer.getRemoteSelection().tell(peer.getKey().equals(receiver) ? withItems : moved, getSelf());
+            }
+        }
+        metrics.increment("rebalance.moves.count");
+        this.moveRequester.tell(new MoveTokenMessage(newKey, true), getSelf());
+        this.moveTarget = null;
+        this.moveRequester = null;
+    }
+
+    /**
+     * @return the path of the file where the number of shards of the node is saved
+     */
+    private String getShardCountPathname() {
+        return this.storagePath + "/dynamo_storage_node" + this.storageKey + ".shards";
+    }
+
+    /**
+     * Saves the number of shards of the node, so that it recovers with the same
+     */
+    private void saveShardCount() {
+        String pathname = getShardCountPathname();
+        try {
+            Files.write(Paths.get(pathname + ".tmp"), String.valueOf(this.shardCount).getBytes(StandardCharsets.UTF_8));
+            Files.move(Paths.get(pathname + ".tmp"), Paths.get(pathname), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            nodeActorLogger.error("Cannot save the number of shards of the node: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * @return the number of shards the Storage files of the node were written by: the saved one,
+     * or else the one of the files found (saved before the number was), or else the configured one
+     */
+    private int recoveredShardCount() {
+        try {
+            return Integer.parseInt(new String(Files.readAllBytes(Paths.get(getShardCountPathname())),
+                    StandardCharsets.UTF_8).trim());
+        } catch (NoSuchFileException e) {
+            // the files are named <prefix><index> followed by the extension of the engine
+            String prefix = "dynamo_storage_node" + this.storageKey + "_shard";
+            int found = 0;
+            String[] names = new File(this.storagePath).list();
+            for (String name : names == null ? new String[0] : names) {
+                if (name.startsWith(prefix)) {
+                    int end = prefix.length();
+                    while (end < name.length() && Character.isDigit(name.charAt(end))) {
+                        end++;
+                    }
+                    if (end > prefix.length()) {
+                        found = Math.max(found, Integer.parseInt(name.substring(prefix.length(), end)) + 1);
+                    }
+                }
+            }
+            return found > 0 ? found : this.shardCount;
+        } catch (IOException | NumberFormatException e) {
+            nodeActorLogger.error("Cannot load the number of shards of the node: {}", e.getMessage());
+            return this.shardCount;
+        }
+    }
+
+    /**
+     * Reads, on the I/O dispatcher, the single Storage file written before the node had shards, if any:
+     * its items are sent back to the node (see LoadStorageMessage) and the file is renamed, so that
+     * it is migrated once
+     */
+    private void migrateUnshardedStorage() {
+        final Path pathname = Paths.get(this.storagePath, "dynamo_storage_node" + this.storageKey + ".dynamo");
+        if (!Files.exists(pathname)) {
+            return;
+        }
+        final ActorRef self = getSelf();
+        Executor io = getContext().system().dispatchers().lookup("dynamo.storage.io-dispatcher");
+        CompletableFuture.runAsync(() -> {
+            try {
+                ArrayList<Item> items = Storage.readItems(pathname.toString());
+                Files.move(pathname, Paths.get(pathname + ".migrated"), StandardCopyOption.REPLACE_EXISTING);
+                self.tell(new LoadStorageMessage(false, items, null), self);
+            } catch (Exception e) {
+                self.tell(new LoadStorageMessage(false, null, e.getMessage()), self);
+            }
+        }, io);
+    }
+
+    /**
+     * @return the path of the file where the current key of the node is saved
+     */
+    private String getTokenPathname() {
+        return this.storagePath + "/dynamo_storage_node" + this.storageKey + ".token";
+    }
+
+    /**
+     * Saves the current key of the node, so that it gets it back when it recovers
+     */
+    private void saveToken() {
+        String pathname = getTokenPathname();
+        try {
+            Files.write(Paths.get(pathname + ".tmp"), String.valueOf(this.idKey).getBytes(StandardCharsets.UTF_8));
+            Files.move(Paths.get(pathname + ".tmp"), Paths.get(pathname), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            nodeActorLogger.error("Cannot save the key of the node: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * @return the key saved by the last move of the node, or the key of its Storage files if it never moved
+     */
+    private Integer loadToken() {
+        try {
+            return Integer.parseInt(new String(Files.readAllBytes(Paths.get(getTokenPathname())),
+                    StandardCharsets.UTF_8).trim());
+        } catch (NoSuchFileException e) {
+            return this.storageKey;
+        } catch (IOException | NumberFormatException e) {
+            nodeActorLogger.error("Cannot load the key of the node: {}", e.getMessage());
+            return this.storageKey;
+        }
+    }
+
+    /**
+     * Adopts the epoch of a membership change announced by the node which made it, once applied
+     * to the local ring. If some changes before it were missed, they are asked to the announcer;
+     * if it was made concurrently with another change, the whole ring is asked to it
+     * @param key the key of the Peer that changed
+     * @param epoch the epoch of the ring of the announcer after the change
+     * @param origin the key of the node which made the change
+     * @param announcer the node announcing the change (null if it cannot be asked, e.g. because it left)
+     */
+    private void advanceEpoch(Integer key, long epoch, Integer origin, ActorRef announcer) {
+        Ring.Adoption adoption = ring.adoptChange(epoch, origin, key);
+        if (adoption == Ring.Adoption.MISSING && announcer != null) {
+            checkEpoch(epoch, announcer);
+        } else if (adoption == Ring.Adoption.CONFLICT) {
+            metrics.increment("ring.conflict.count");
+            nodeActorLogger.debug("advanceEpoch: change {} of node {} concurrent with the ring at epoch {}",
+                    epoch, origin, ring.getEpoch());
+            if (announcer != null) {
+                announcer.tell(new PeersListMessage(true, null, 0), getSelf());
+            }
+        }
+    }
+
+    /**
+     * Compares the epoch of the ring of another node with the local one: if the other is newer,
+     * the changes missed are asked to it (at most once every CATCH_UP_INTERVAL)
+     * @param epoch the epoch of the other node
+     * @param other the other node
+     */
+    private void checkEpoch(long epoch, ActorRef other) {
+        if (epoch <= ring.getEpoch() || other == null || ring.getNumberOfPeers() == 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (now - lastCatchUp < CATCH_UP_INTERVAL) {
+            return;
+        }
+        lastCatchUp = now;
+        metrics.increment("ring.catch-up.count");
+        nodeActorLogger.debug("checkEpoch: asking the changes since epoch {} to a node at epoch {}",
+                ring.getEpoch(), epoch);
+        other.tell(new PeersListMessage(true, null, ring.getEpoch(), ring.getEpochOrigin()), getSelf());
+    }
+
+    /**
+     * @param message a ReplicaReadMessage or a ReplicaWriteMessage
+     * @return the epoch of the coordinator which sent it
+     */
+    private static long epochOf(Serializable message) {
+        return message instanceof ReplicaReadMessage ? ((ReplicaReadMessage) message).getEpoch()
+                : ((ReplicaWriteMessage) message).getEpoch();
     }
 
     /**
@@ -272,7 +763,7 @@ public class NodeActor extends UntypedActor{
      * @param init tells if this is a timeout regarding the initialization of the node
      *             or messages exchange for an operation
      */
-    private void scheduleTimeout(Integer time, TimeUnit unit, boolean init) {
+    private void scheduleTimeout(long time, TimeUnit unit, boolean init) {
         this.scheduledTimeoutMessageCancellable = getContext().system().scheduler().scheduleOnce(
                 Duration.create(time, unit),
                 getSelf(), new TimeoutMessage(init), getContext().system().dispatcher(), getSelf());
@@ -280,371 +771,476 @@ public class NodeActor extends UntypedActor{
                 time, unit.toString());
     }
 
+    /**
+     * Routes an operation message: the requests of the clients and the replies of the replicas
+     * are for the coordinator, the replica requests for the shard owning the item
+     * @param message the message
+     * @param key the key of the item (of all the items, for the batches)
+     * @param toCoordinator true if the message is for the coordinator
+     */
+    private void routeOperation(Object message, int key, boolean toCoordinator) {
+        if (this.N > this.ring.getNumberOfPeers()){
+            this.nodeActorLogger.error("N is greater than the number of active nodes.");
+        } else if (toCoordinator) {
+            this.coordinator.tell(message, getSender());
+        } else if (this.shards == null) {
+            this.nodeActorLogger.error("Received {} before the storage was initialized.", message);
+        } else {
+            // a read/update for a replica we own: the shard owning the item replies directly
+            this.shards[StorageShardActor.shardOf(key, this.shardCount)].tell(message, getSender());
+        }
+    }
+
+    /**
+     * Splits a batch of replica requests among the shards owning their items
+     * @param batch the batch
+     */
+    private void routeBatch(ReplicaBatchMessage batch) {
+        if (this.N > this.ring.getNumberOfPeers() || this.shards == null || this.shardCount == 1) {
+            // routed (or refused) as a whole
+            routeOperation(batch, 0, false);
+            return;
+        }
+        ArrayList<ArrayList<Serializable>> slices = new ArrayList<>();
+        for (int i = 0; i < this.shardCount; i++) {
+            slices.add(new ArrayList<>());
+        }
+        for (Serializable operation : batch.getMessages()) {
+            int key = operation instanceof ReplicaReadMessage ? ((ReplicaReadMessage) operation).getKey()
+                    : ((ReplicaWriteMessage) operation).getKey();
+            slices.get(StorageShardActor.shardOf(key, this.shardCount)).add(operation);
+        }
+        for (int i = 0; i < this.shardCount; i++) {
+            if (!slices.get(i).isEmpty()) {
+                this.shards[i].tell(new ReplicaBatchMessage(slices.get(i)), getSender());
+            }
+        }
+    }
+
+    /**
+     * Dispatches the messages by type. The operation messages come first, since they are
+     * the vast majority of them: they are just routed to the children, without building
+     * any string unless the debug messages are printed.
+     */
     public void onReceive(Object message) throws Exception {
-        nodeActorLogger.debug("Received Message {}", message.toString());
+        if (nodeActorLogger.isDebugEnabled()) {
+            nodeActorLogger.debug("Received Message {}", message);
+        }
 
-        // class name is represented as dynamo.messages.className, so split and take last element.
-        switch (message.getClass().getName().split("[.]")[2]) {
-            case "StartJoinMessage": // from actor system, request to join network
-                /*
-                if Node is the first one, initialize the storage and generate a new key
-                Also add self to the Ring. In the case we have to wait for the Peers
-                to decide for the new key (else branch) we have to wait adding this new node
-                to the ring (because it needs the new key).
-                 */
-                if(((StartJoinMessage) message).getRemoteIp() == null) {
-                    // first node in the system, generate the id
-                    if (this.idKey == null) {
-                        // if the ID was not set manually by the client
+        if (message instanceof ReplicaReadMessage) {
+            checkEpoch(((ReplicaReadMessage) message).getEpoch(), getSender());
+            routeOperation(message, ((ReplicaReadMessage) message).getKey(), false);
+        } else if (message instanceof ReplicaWriteMessage) {
+            checkEpoch(((ReplicaWriteMessage) message).getEpoch(), getSender());
+            routeOperation(message, ((ReplicaWriteMessage) message).getKey(), false);
+        } else if (message instanceof ReplicaReadReplyMessage) {
+            checkEpoch(((ReplicaReadReplyMessage) message).getEpoch(), getSender());
+            routeOperation(message, ((ReplicaReadReplyMessage) message).getKey(), true);
+        } else if (message instanceof ReplicaBatchMessage) {
+            // the operations of a batch come from the same coordinator
+            checkEpoch(epochOf(((ReplicaBatchMessage) message).getMessages().get(0)), getSender());
+            routeBatch((ReplicaBatchMessage) message);
+        } else if (message instanceof ReplicaReplyBatchMessage) {
+            checkEpoch(((ReplicaReplyBatchMessage) message).getReplies().get(0).getEpoch(), getSender());
+            routeOperation(message, 0, true);
+        } else if (message instanceof ClientReadMessage) {
+            routeOperation(message, ((ClientReadMessage) message).getKey(), true);
+        } else if (message instanceof ClientWriteMessage) {
+            routeOperation(message, ((ClientWriteMessage) message).getKey(), true);
+        } else if (message instanceof StartJoinMessage) { // from actor system, request to join network
+            /*
+            if Node is the first one, initialize the storage and generate a new key
+            Also add self to the Ring. In the case we have to wait for the Peers
+            to decide for the new key (else branch) we have to wait adding this new node
+            to the ring (because it needs the new key).
+             */
+            if(((StartJoinMessage) message).getRemoteIp() == null) {
+                // first node in the system, generate the id
+                if (this.idKey == null) {
+                    // if the ID was not set manually by the client
+                    this.idKey = ThreadLocalRandom.current().nextInt(1, 100);
+                }
+                ring.addPeer(new Peer(this.remotePath, context().actorSelection(self().path()),  this.idKey));
+                ring.nextEpoch(this.idKey, this.idKey);
+                System.out.println("Node started and waiting for messages (" + DynamoLogger.ANSI_GREEN + "id : " + this.idKey + DynamoLogger.ANSI_RESET + ")");
+                // initialize local storage
+                this.startShards(false);
+                this.publishRing(false);
+            } else {
+                // otherwise, ask for peers
+                String remotePath = "akka.tcp://dynamo@"+
+                        ((StartJoinMessage) message).getRemoteIp() + ":" +
+                        ((StartJoinMessage) message).getRemotePort() + "/user/node";
+
+                requestPeersToRemote(remotePath);
+                // once we have the list of peers if the client did not specify an ID
+                // we can generate this node's key checking it does not collide with an existing one
+                if (this.idKey == null) {
+                    // if the ID was not set automatically by the client
+                    do {
                         this.idKey = ThreadLocalRandom.current().nextInt(1, 100);
-                    }
-                    ring.addPeer(new Peer(this.remotePath, context().actorSelection(self().path()),  this.idKey));
-                    System.out.println("Node started and waiting for messages (" + DynamoLogger.ANSI_GREEN + "id : " + this.idKey + DynamoLogger.ANSI_RESET + ")");
-                    storagePath = storagePath + "/dynamo_storage_node" + this.idKey + ".dynamo";
-                    // initialize local storage
-                    this.storage = new Storage(this.storagePath);
-                } else {
-                    // otherwise, ask for peers
-                    String remotePath = "akka.tcp://dynamo@"+
-                            ((StartJoinMessage) message).getRemoteIp() + ":" +
-                            ((StartJoinMessage) message).getRemotePort() + "/user/node";
-
-                    requestPeersToRemote(remotePath);
-                    // once we have the list of peers if the client did not specify an ID
-                    // we can generate this node's key checking it does not collide with an existing one
-                    if (this.idKey == null) {
-                        // if the ID was not set automatically by the client
-                        do {
-                            this.idKey = ThreadLocalRandom.current().nextInt(1, 100);
-                        } while(this.ring.keyExists(this.idKey));
-                    }else {
-                        if (this.ring.keyExists(this.idKey)){
-                            this.nodeActorLogger.error("Key already exists in the system");
+                    } while(this.ring.keyExists(this.idKey));
+                }else {
+                    if (this.ring.keyExists(this.idKey)){
+                        this.nodeActorLogger.error("Key already exists in the system");
 //                            throw new Exception("Key already exists in the system");
-                            context().system().terminate();
-                            break;
-                        }
+                        context().system().terminate();
+                        return;
                     }
-                    // add self to the ring
-                    ring.addPeer(new Peer(this.remotePath, context().actorSelection(self().path()),  this.idKey));
-                    // Print current state of ring
-                    nodeActorLogger.info(ring.toString());
-                    storagePath = storagePath + "/dynamo_storage_node" + this.idKey + ".dynamo";
-                    // initialize local storage
-                    this.storage = new Storage(this.storagePath);
-                    // Here we request the items we are responsible for to the
-                    // next node in the ring. We schedule a time, so if the next perr
-                    // does not respond we can terminate the process
-                    this.scheduleTimeout(2, TimeUnit.SECONDS, true);
-                    this.ring.getNextPeer(this.idKey).getRemoteSelection().tell(
-                            new RequestInitItemsMessage(true, this.idKey),
-                            getSelf()
-                    );
                 }
-                // nodeActorLogger.info("Initialized node unique key (key: {})", this.idKey);
-                break;
-            case "HelloMatesMessage":
-                // Here the nodes registers the info about the new peer and
-                // deletes items from its storage if necessary
-                Peer peer = new Peer(
-                        ((HelloMatesMessage) message).getRemotePath(),
-                        ((HelloMatesMessage) message).getRemoteSelection(),
-                        ((HelloMatesMessage) message).getKey());
-                ring.addPeer(peer);
-                nodeActorLogger.debug("Added {} to local ring", peer.toString());
+                // add self to the ring
+                ring.addPeer(new Peer(this.remotePath, context().actorSelection(self().path()),  this.idKey));
+                ring.nextEpoch(this.idKey, this.idKey);
                 // Print current state of ring
-                nodeActorLogger.info(ring.toString());
+                nodeActorLogger.info(ring::toString);
+                // initialize local storage
+                this.startShards(false);
+                this.publishRing(false);
+                // Here we request the items we are responsible for to the
+                // next node in the ring. We schedule a time, so if the next perr
+                // does not respond we can terminate the process
+                this.scheduleTimeout(2, TimeUnit.SECONDS, true);
+                this.ring.getNextPeer(this.idKey).getRemoteSelection().tell(
+                        new RequestInitItemsMessage(true, this.idKey),
+                        getSelf()
+                );
+            }
+            // nodeActorLogger.info("Initialized node unique key (key: {})", this.idKey);
+        } else if (message instanceof HelloMatesMessage) {
+            // Here the nodes registers the info about the new peer and
+            // deletes items from its storage if necessary
+            Peer peer = new Peer(
+                    ((HelloMatesMessage) message).getRemotePath(),
+                    ((HelloMatesMessage) message).getRemoteSelection(),
+                    ((HelloMatesMessage) message).getKey());
+            // the announcement may come after the change was learnt from another node
+            if (ring.addPeer(peer)) {
+                this.advanceEpoch(peer.getKey(), ((HelloMatesMessage) message).getEpoch(), peer.getKey(), getSender());
+            }
+            nodeActorLogger.debug("Added {} to local ring", peer);
+            // Print current state of ring
+            nodeActorLogger.info(ring::toString);
 
-                if (this.ring.getNumberOfPeers() > this.N){
-                    this.storage.removeItemsOutOfResponsibility(this.idKey, this.ring, this.N);
+            // the shards delete the items the node is not responsible for anymore
+            this.publishRing(this.ring.getNumberOfPeers() > this.N);
+        } else if (message instanceof LeaveMessage) {
+            // send message to everyone that we are leaving. Send also local storage alongside
+            // interested peers will pick it up.
+            // The response to the client is sent once the items are collected from the shards.
+            this.leaveSystem(getSender());
+        } else if (message instanceof ByeMatesMessage) {
+            /*
+                So one node in the network told us it is leaving.
+                The leaving node sent this message to all other Nodes so we have
+                to check if we are among the next N clockwise ones, in such
+                case we have to take care of the data it has passed, otherwise we just
+                remove it from our topology
+             */
+            Integer senderKey = ((ByeMatesMessage) message).getKey();
+            ArrayList<Item> senderStorage = compression.unpack(((ByeMatesMessage) message).getItems());
+            boolean removed = ring.removePeer(senderKey);
+
+            if (removed) {
+                // the leaving node cannot be asked for the changes it knew
+                this.advanceEpoch(senderKey, ((ByeMatesMessage) message).getEpoch(), senderKey, null);
+                this.publishRing(false);
+                nodeActorLogger.info(ring::toString);
+            } else {
+                // the change was learnt from another node already, the items are still to be taken
+                this.nodeActorLogger.debug("Ring did not contain a Peer with key {}", senderKey);
+            }
+
+            /*
+            Just the next N clockwise peers should check for the incoming storage
+            Indeed all the others do not care about the storage of this leaving node.
+            Moreover, if we have less/equal than N (before removing the leaving peer -
+            that's why we use > N - 1) nodes in the system we just skip all this
+             */
+            if (this.ring.getNumberOfPeers() > (N - 1)  &&
+                    this.ring.selfIsNextNClockwise(senderKey, this.N, this.idKey)){
+                ArrayList<Item> handedOver = new ArrayList<>();
+                for(Item item: senderStorage) {
+                    /*
+                    If a node is the Nth clockwise node from the leaving one, then it will
+                    insert a new item in its storage, fine. In the case this node is 'nearer'
+                    to the leaving one, then it will update its current item in case the leaving node
+                    has one with a newer version number. This thing was not required in the assignment
+                    but it comes easy with our code and indeed it seem a reasonable thing to do.
+                     */
+                    if(this.ring.isNodeWithinRangeFromItem(item.getKey(), this.idKey, this.N)){
+                        handedOver.add(item);
+                    }
                 }
-                nodeActorLogger.info(this.storage.toString());
-                break;
-            case "LeaveMessage":
-                // send message to everyone that we are leaving. Send also local storage alongside
-                // interested peers will pick it up.
-                this.leaveSystem();
-                // send response to client and shutdown system
-                getSender().tell(new LeaveMessage(), getSelf());
-                context().system().terminate();
-                break;
-            case "ByeMatesMessage":
-                /*
-                    So one node in the network told us it is leaving.
-                    The leaving node sent this message to all other Nodes so we have
-                    to check if we are among the next N clockwise ones, in such
-                    case we have to take care of the data it has passed, otherwise we just
-                    remove it from our topology
-                 */
-                Integer senderKey = ((ByeMatesMessage) message).getKey();
-                ArrayList<Item> senderStorage = ((ByeMatesMessage) message).getItems();
-                boolean removed = ring.removePeer(senderKey);
-
-                if (!removed){
-                    this.nodeActorLogger.error("Ring did not contain a Peer with key " + senderKey);
-//                    throw new Exception("Ring did not contain a Peer with key " + senderKey);
-                    break;
+                // each shard stores its items
+                this.storeItems(handedOver);
+            }
+        } else if (message instanceof PeersListMessage) {
+            PeersListMessage msg = (PeersListMessage) message;
+            if (msg.isRequest()) {
+                // just the changes missed by the requester, if they are still known
+                ArrayList<RingChange> changes = msg.getEpoch() > 0
+                        ? this.ring.getChangesSince(msg.getEpoch(), msg.getEpochOrigin()) : null;
+                if (changes != null) {
+                    getSender().tell(new RingDeltaMessage(changes, this.ring.getEpoch()), getSelf());
+                } else {
+                    getSender().tell(new PeersListMessage(false, this.ring.getPeers(), this.ring.getEpoch(),
+                            this.ring.getEpochOrigin()), getSelf());
                 }
+            } else if (Ring.compareVersions(msg.getEpoch(), msg.getEpochOrigin(),
+                    this.ring.getEpoch(), this.ring.getEpochOrigin()) > 0) {
+                // the whole ring, in reply to a catch-up the changes were not known for,
+                // or after a conflict: the newest version wins
+                this.ring.setPeers(msg.getPeers());
+                this.ring.setEpoch(msg.getEpoch(), msg.getEpochOrigin());
+                this.publishRing(this.ring.getNumberOfPeers() > this.N);
+                nodeActorLogger.info(ring::toString);
+            }
+        } else if (message instanceof RingDeltaMessage) {
+            RingDeltaMessage delta = (RingDeltaMessage) message;
+            long epoch = this.ring.getEpoch();
+            if (!this.ring.applyChanges(delta.getChanges())) {
+                // the ring changed in between, concurrently with the changes: all the Peers are needed
+                nodeActorLogger.debug("RingDeltaMessage: changes conflicting after epoch {}", this.ring.getEpoch());
+                getSender().tell(new PeersListMessage(true, null, 0), getSelf());
+            }
+            if (this.ring.getEpoch() != epoch) {
+                this.publishRing(this.ring.getNumberOfPeers() > this.N);
+                nodeActorLogger.info(ring::toString);
+            }
+        } else if (message instanceof RequestInitItemsMessage) {
+            RequestInitItemsMessage msg = ((RequestInitItemsMessage)message);
 
-                nodeActorLogger.info(this.ring.toString());
-
+            if (msg.isRequest()){
                 /*
-                Just the next N clockwise peers should check for the incoming storage
-                Indeed all the others do not care about the storage of this leaving node.
-                Moreover, if we have less/equal than N (before removing the leaving peer -
-                that's why we use > N - 1) nodes in the system we just skip all this
+                Here a new node is requesting the items it is responsible for.
+                In case the number of nodes is less (not equal, because with the new one
+                 we have N + 1 node) than N, then the new node will need ALL the local items.
+                In case there are already >= N nodes, then the new one will need all the nodes
+                this one stores, EXCEPT the items with key GREATER than the new node's key and
+                LESS OR EQUAL than the current node. This is because this node has to loose management
+                of the 'local' items with key less than the new node and it has also to pass ALL the replicas
+                it contains from the other Peers. Indeed, if this node has a replica, then it is obvious
+                that the previous node will have that replica too.
                  */
-                if (this.ring.getNumberOfPeers() > (N - 1)  &&
-                        this.ring.selfIsNextNClockwise(senderKey, this.N, this.idKey)){
-                    for(Item item: senderStorage) {
-                        /*
-                        If a node is the Nth clockwise node from the leaving one, then it will
-                        insert a new item in its storage, fine. In the case this node is 'nearer'
-                        to the leaving one, then it will update its current item in case the leaving node
-                        has one with a newer version number. This thing was not required in the assignment
-                        but it comes easy with our code and indeed it seem a reasonable thing to do.
-                         */
-                        if(this.ring.isNodeWithinRangeFromItem(item.getKey(), this.idKey, this.N)){
-                            storage.update(item.getKey(), item.getValue(), item.getVersion());
-                        }
-                    }
-                }
-                nodeActorLogger.info(this.storage.toString());
-                break;
-            case "PeersListMessage":
-                PeersListMessage reply = new PeersListMessage(false, this.ring.getPeers());
-                getSender().tell(reply, getSelf());
-                break;
-            case "RequestInitItemsMessage":
-                RequestInitItemsMessage msg = ((RequestInitItemsMessage)message);
-
-                if (msg.isRequest()){
+                Integer newNodeKey;
+                if (this.ring.getNumberOfPeers() < N) {
+                    newNodeKey = null;
+                } else {
                     /*
-                    Here a new node is requesting the items it is responsible for.
-                    In case the number of nodes is less (not equal, because with the new one
-                     we have N + 1 node) than N, then the new node will need ALL the local items.
-                    In case there are already >= N nodes, then the new one will need all the nodes
-                    this one stores, EXCEPT the items with key GREATER than the new node's key and
-                    LESS OR EQUAL than the current node. This is because this node has to loose management
-                    of the 'local' items with key less than the new node and it has also to pass ALL the replicas
-                    it contains from the other Peers. Indeed, if this node has a replica, then it is obvious
-                    that the previous node will have that replica too.
+                    Here we need to get all the items of this node EXCEPT the ones with key in range
+                    between the new node's key and the current node key.
                      */
-                    ArrayList<Item> responseItems;
-                    if (this.ring.getNumberOfPeers() < N) {
-                         responseItems = this.storage.getStorage();
-                    } else {
-                        /*
-                        Here we need to get all the items of this node EXCEPT the ones with key in range
-                        between the new node's key and the current node key.
-                         */
-                        responseItems = this.storage.getItemsForNewNode(msg.getSenderKey(), this.idKey);
+                    newNodeKey = msg.getSenderKey();
+                }
+                // the items are collected from the shards, then sent to the new node
+                final ActorRef newNode = getSender();
+                final ActorRef self = getSelf();
+                final Compression compression = this.compression;
+                this.collectItems(newNodeKey).thenAccept(responseItems ->
+                        newNode.tell(new RequestInitItemsMessage(false, compression.pack(responseItems)), self));
+
+                // When the new node will receive its data, it will announce itself to the system
+                // At that time every other node will check what item should be deleted from the storage.
+                // So for now this node does not do anything on its storage yet, it will once the new node
+                // officially announces itself to the system.
+
+            } else { // isResponse (from the next clockwise node)
+                // since the next node has answered, we delete the timeout.
+                this.scheduledTimeoutMessageCancellable.cancel();
+                // Here we receive the data sent from the next node, this is all the data present in the system
+                // that we are responsible for.
+                this.storeItems(compression.unpack(((RequestInitItemsMessage) message).getItems()));
+
+                // Now that we have initialized the storage, we can announce this new node to the system
+                announceSelfToSystem();
+            }
+        } else if (message instanceof LoadReportMessage) {
+            if (this.shards == null) {
+                getSender().tell(new LoadReportMessage(this.idKey, 0, 0, 0, new ArrayList<>()), getSelf());
+            } else {
+                final ActorRef requester = getSender();
+                final ActorRef self = getSelf();
+                this.collectLoad().thenAccept(load -> requester.tell(load, self));
+            }
+        } else if (message instanceof MoveTokenMessage) {
+            this.moveToken(((MoveTokenMessage) message).getKey(), getSender());
+        } else if (message instanceof RangeItemsMessage) {
+            RangeItemsMessage range = (RangeItemsMessage) message;
+            if (range.isRequest()) {
+                // a previous Peer moving forward, for the items of the keys it becomes a replica of
+                final ActorRef requester = getSender();
+                final ActorRef self = getSelf();
+                final Compression compression = this.compression;
+                this.collectItems(range.getFrom(), range.getTo()).thenAccept(items ->
+                        requester.tell(new RangeItemsMessage(range.getFrom(), range.getTo(), compression.pack(items)), self));
+            } else if (this.moveTarget != null && range.getFrom().equals(this.idKey)
+                    && range.getTo().equals(this.moveTarget)) {
+                // moving forward: the items of the keys the node becomes a replica of
+                this.storeItems(compression.unpack(range.getItems()), true);
+                this.completeMove(null);
+            } else if (this.moveTarget != null && range.getFrom().equals(this.moveTarget)
+                    && range.getTo().equals(this.idKey)) {
+                // moving backward: the items of the keys left, collected from the shards
+                this.completeMove(compression.unpack(range.getItems()));
+            }
+        } else if (message instanceof TokenMovedMessage) {
+            TokenMovedMessage moved = (TokenMovedMessage) message;
+            Peer old = this.ring.getPeer(moved.getOldKey());
+            // the announcement may come after the change was learnt from another node
+            if (old != null && this.ring.removePeer(moved.getOldKey())) {
+                // two changes, both made by the node with its new key
+                this.advanceEpoch(moved.getOldKey(), moved.getEpoch() - 1, moved.getNewKey(), getSender());
+                this.ring.addPeer(new Peer(old.getRemotePath(), old.getRemoteSelection(), moved.getNewKey()));
+                this.advanceEpoch(moved.getNewKey(), moved.getEpoch(), moved.getNewKey(), getSender());
+                nodeActorLogger.info(ring::toString);
+                if (moved.getItems() != null) {
+                    // the node became a replica of the keys left by the Peer
+                    this.storeItems(compression.unpack(moved.getItems()), true);
+                }
+                // the Peer N positions after the new key is not a replica of the keys it took anymore
+                this.publishRing(true);
+            } else if (moved.getItems() != null) {
+                this.storeItems(compression.unpack(moved.getItems()), true);
+            }
+        } else if (message instanceof LoadStorageMessage) {
+            // the items of the Storage file written before the node had shards (see migrateUnshardedStorage)
+            LoadStorageMessage loaded = (LoadStorageMessage) message;
+            if (loaded.getItems() == null) {
+                nodeActorLogger.error("Cannot migrate the unsharded Storage file: {}", loaded.getError());
+            } else {
+                ArrayList<Item> items = new ArrayList<>();
+                for (Item item : loaded.getItems()) {
+                    if (this.ring.isNodeWithinRangeFromItem(item.getKey(), this.idKey, this.N)) {
+                        items.add(item);
                     }
-                    RequestInitItemsMessage response = new RequestInitItemsMessage(false, responseItems);
-                    getSender().tell(response, getSelf());
-
-                    // When the new node will receive its data, it will announce itself to the system
-                    // At that time every other node will check what item should be deleted from the storage.
-                    // So for now this node does not do anything on its storage yet, it will once the new node
-                    // officially announces itself to the system.
-
-                } else { // isResponse (from the next clockwise node)
-                    // since the next node has answered, we delete the timeout.
-                    this.scheduledTimeoutMessageCancellable.cancel();
-                    // Here we receive the data sent from the next node, this is all the data present in the system
-                    // that we are responsible for.
-                    this.storage.initializeStorage(((RequestInitItemsMessage) message).getItems());
-                    nodeActorLogger.info(this.storage.toString());
-
-                    // Now that we have initialized the storage, we can announce this new node to the system
-                    announceSelfToSystem();
                 }
-                break;
-            case "OperationMessage":
-                if (this.N > this.ring.getNumberOfPeers()){
-                    this.nodeActorLogger.error("N is greater than the number of active nodes.");
-                    break;
-//                    throw new Exception("N is greater than the number of active nodes.");
+                this.storeItems(items, true);
+                nodeActorLogger.info("Migrated {} items from the unsharded Storage file", items.size());
+            }
+        } else if (message instanceof RecoveryMarksMessage) {
+            // the high-water marks of the shards, collected at recovery
+            this.requestDeltas(((RecoveryMarksMessage) message).getMarks());
+        } else if (message instanceof RequestDeltasMessage) {
+            if (this.shards == null) {
+                // nothing to send
+                getSender().tell(new DeltaItemsMessage(this.idKey, 0, 1, new ArrayList<>(), true), getSelf());
+            } else {
+                // each shard sends the changes of its items
+                for (ActorRef shard : this.shards) {
+                    shard.tell(message, getSender());
                 }
-                OperationMessage opMessage = (OperationMessage) message;
-                if (opMessage.isClient()){
-                    // if the message is coming from the client it must be a request
-                    assert opMessage.isRequest();
-                    /*
-                     So we have received a read/write operation from the client.
-                     So we have to contact the nodes responsible for the specified item
-                     to retrieve the data.
-                    */
-                    // save a reference to the client to be used to respond later
-                    this.clientReferenceRequest = getSender();
-                    if (opMessage.isRead()){
-                        this.readOperation = true;
-                        this.quorumThreshold = this.R;
-                    } else{
-                        this.quorumThreshold = this.Q;
-                        this.readOperation = false;
-                        this.newValue = opMessage.getValue();
+            }
+        } else if (message instanceof DeltaItemsMessage) {
+            DeltaItemsMessage delta = (DeltaItemsMessage) message;
+            this.storeItems(delta.getItems(), true);
+            Integer remaining = this.recoveringFrom == null ? null : this.recoveringFrom.get(delta.getSenderKey());
+            if (remaining != null) {
+                this.recoveredItems += delta.getItems().size();
+                metrics.increment("recovery.items.count", delta.getItems().size());
+                if (delta.isLast()) {
+                    remaining = (remaining < 0 ? delta.getShards() : remaining) - 1;
+                    if (remaining == 0) {
+                        this.recoveringFrom.remove(delta.getSenderKey());
+                    } else {
+                        this.recoveringFrom.put(delta.getSenderKey(), remaining);
                     }
-                    this.scheduleTimeout(2, TimeUnit.SECONDS, false);
-                    this.handleClientReadRequest(opMessage.getKey());
-                } else{ // isNode
-                    if (opMessage.isRequest()){
-                        if (opMessage.isRead()){
-                            // A node is requiring a data item
-                            Item item = storage.getItem(opMessage.getKey());
-                             // In case there is no item with this key, return the message with null
-                            // version number. In this way the coordinator can issue an update
-                            // to all replicas with version number 1 and the item will be created.
-                            if (item == null) {
-                                nodeActorLogger.debug("Respond with item=null");
-                                getSender().tell(new OperationMessage(false, false,
-                                        true, opMessage.getKey(), null, null),
-                                        getSelf());
-                            } else {
-                                nodeActorLogger.debug("Respond with {}", item.toString());
-                                getSender().tell(new OperationMessage(false, false,
-                                        true, item.getKey(), item.getValue(), item.getVersion()),
-                                        getSelf());
-                            }
-                        } else{ // isUpdate
-                            this.storage.update(opMessage.getKey(), opMessage.getValue(), opMessage.getVersion());
-                            nodeActorLogger.info(this.storage.toString());
-                        }
-                    } else{
-                        // we can have responses just from read requests, not from update requests
-                        assert opMessage.isRead();
-                        /*
-                         waitingQuorum is true in case this Node sent a
-                         ReadMessage to other nodes. So it is waiting
-                         to have at least R replies before sending the response back to
-                         the client
-                        */
-                        if (this.waitingQuorum){
-                            OperationMessage response = (OperationMessage) message;
-                            if (response.getVersion() == null && readOperation){
-                                nodeActorLogger.debug("{} node does not have this item", getSender());
-                            } else {
-                                this.quorum++;
-                                this.readResponseMessages.add((OperationMessage) message);
-                                /*
-                                 if we have reached the read quorum, send response
-                                 to client and reset variables. Here clearly we assume that
-                                 a Node can handle just one read request from a client at a time.
-                                */
-                                if (quorum.equals(this.quorumThreshold)){
-                                    if (this.readOperation){
-                                        // respond to the client with the proper item
-                                        this.handleReadResponseToClient();
-                                    } else{
-                                        // Q nodes have sent a response. Now we have to check if ALL of these responses
-                                        // are null (which means that no replica has this element yet > do an insert), otherwise
-                                        // we just send the update with the latest received item
-
-                                        // check for null responses
-                                        boolean isNull = true;
-                                        for (OperationMessage m : readResponseMessages){
-                                            if (m.getVersion() != null){
-                                                isNull = false;
-                                            }
-                                        }
-                                        // in case all the messages were null, we just sent the new item (insert operation)
-                                        // to all replicas
-                                        if (isNull){
-                                            Item newItem = new Item(response.getKey(),
-                                                    null, 0); // the version will become 1 before sending to replicas
-                                            // send to replicas the new element.
-                                            this.issueUpdateToReplicas(newItem);
-                                        } else { // otherwise we send the update with the latest version
-                                            this.issueUpdateToReplicas(null);
-                                        }
-                                    }
-                                    resetVariables();
-                                    this.scheduledTimeoutMessageCancellable.cancel();
-                                }
-                            }
-                        }else {
-                            // do nothing for now. Wait for other responses.
-                            this.nodeActorLogger.debug("Received an {} with waitingQuorum=false. Message Ignored.", opMessage.toString());
-                        }
+                    if (this.recoveringFrom.isEmpty()) {
+                        this.completeRecovery();
                     }
                 }
-                break;
-            case "TimeoutMessage":
-                // if this timeout is produced by the next peer not responding
-                // during the join procedure
-                if (((TimeoutMessage)message).isInit()) {
-                    nodeActorLogger.error("The next peer in the ring is not responding. Terminating.");
-                    context().system().terminate();
-
-                } else{
-                    // if we are still waiting for some nodes to respond but too much time has passed
-                    if (this.waitingQuorum) {
-                        // delete the upcoming scheduled Timeout
-                        this.scheduledTimeoutMessageCancellable = null;
-                        OperationMessage clientResponse = new OperationMessage(
-                                false,
-                                false,
-                                true,
-                                null,
-                                "failure",
-                                null);
-                        this.clientReferenceRequest.tell(clientResponse, getSelf());
-                        resetVariables();
-                    }else {
-                        if (this.clientReferenceRequest != null) {
-                            this.clientReferenceRequest.tell(new TimeoutMessage(false), getSelf());
-                        }
-                        resetVariables();
-                    }
+            }
+        } else if (message instanceof TimeoutMessage) {
+            // this timeout is produced by the next peer not responding
+            // during the join procedure (the ones of the operations go to the coordinator)
+            if (((TimeoutMessage)message).isInit()) {
+                nodeActorLogger.error("The next peer in the ring is not responding. Terminating.");
+                context().system().terminate();
+            }
+        } else if (message instanceof MetricsSampleMessage) {
+            if (this.queue != null) {
+                metrics.setGauge("mailbox.depth", this.queue.numberOfMessages());
+            }
+            if (this.shards != null && this.ring.keyExists(this.idKey)) {
+                // the shards publish their rates as they get the same message: the last ones are summed
+                double rate = 0;
+                for (int i = 0; i < this.shardCount; i++) {
+                    Double shardRate = metrics.getGauge("storage.shard-" + i + ".range.requests.rate");
+                    rate += shardRate == null ? 0 : shardRate;
                 }
+                metrics.setGauge("load.range.requests.rate", rate);
+                metrics.setGauge("load.range.size", this.ring.getRangeSize(this.idKey));
+            }
+            // the children sample their own
+            this.coordinator.tell(message, getSelf());
+            if (this.shards != null) {
+                for (ActorRef shard : this.shards) {
+                    shard.tell(message, getSelf());
+                }
+            }
+        } else if (message instanceof LogSnapshotMessage) {
+            // the ring is logged at every change already, the shards log their items
+            if (this.shards != null) {
+                for (ActorRef shard : this.shards) {
+                    shard.tell(message, getSelf());
+                }
+            }
+        } else if (message instanceof RecoveryMessage) {
+            RecoveryMessage recMessage = ((RecoveryMessage)message);
 
-                break;
-            case "RecoveryMessage":
-                RecoveryMessage recMessage = ((RecoveryMessage)message);
-
-                // if I received a recovery request from User interface
-                if (recMessage.getRemoteIp() != null) {
-
-                    String remotePath = "akka.tcp://dynamo@"+
-                            recMessage.getRemoteIp() + ":" +
-                            recMessage.getRemotePort() + "/user/node";
+            // if I received a recovery request from User interface
+            if (recMessage.getRemoteIp() != null) {
 
-                    this.requestPeersToRemote(remotePath);
-                    // add self to ring
-                    this.ring.addPeer(new Peer(this.remotePath, context().actorSelection(self().path()),  this.idKey), true);
+                String remotePath = "akka.tcp://dynamo@"+
+                        recMessage.getRemoteIp() + ":" +
+                        recMessage.getRemotePort() + "/user/node";
 
-                    String logMessage = "announce changing parameters: sent RecoveryMessage to remote Node with key " + this.idKey;
-                    recMessage = new RecoveryMessage(this.remotePath, context().actorSelection(self().path()), recMessage.getRequesterId());
-                    this.broadcastToPeers(recMessage, logMessage);
+                this.requestPeersToRemote(remotePath);
+                // the node may have moved along the ring since it first started
+                this.storageKey = this.idKey;
+                this.idKey = this.loadToken();
+                // add self to ring
+                this.ring.addPeer(new Peer(this.remotePath, context().actorSelection(self().path()),  this.idKey), true);
+                this.ring.nextEpoch(this.idKey, this.idKey);
 
-                    // Print current state of ring
-                    this.nodeActorLogger.info(ring.toString());
-                    this.storagePath = storagePath + "/dynamo_storage_node" + this.idKey + ".dynamo";
+                String logMessage = "announce changing parameters: sent RecoveryMessage to remote Node with key " + this.idKey;
+                recMessage = new RecoveryMessage(this.remotePath, context().actorSelection(self().path()),
+                        this.idKey, this.ring.getEpoch());
+                this.broadcastToPeers(recMessage, logMessage);
 
-                    // initialize local storage
-                    this.storage = new Storage(this.storagePath);
-                    boolean load = storage.loadItems();
+                // Print current state of ring
+                this.nodeActorLogger.info(ring::toString);
 
-                    if(!load) {
-                        this.nodeActorLogger.error("Cannot load the Items from the local Storage");
-//                        throw new Exception("Cannot load the Items from the local Storage");
-                        break;
-                    } else {
-                        System.out.println("Items correctly loaded from local Storage");
-                    }
+                // initialize local storage: the shards load their items, then
+                // delete the ones the node is not responsible for anymore
+                this.startShards(true);
+                this.publishRing(true);
+                this.migrateUnshardedStorage();
 
-                    this.storage.removeItemsOutOfResponsibility(this.idKey, this.ring, this.N);
-                    this.nodeActorLogger.info(this.storage.toString());
-                } else { // if I received a recovery request from the Node
-                    this.ring.getPeer(recMessage.getRequesterId()).setRemotePath(recMessage.getRemotePath());
-                    this.ring.getPeer(recMessage.getRequesterId()).setRemoteSelection(recMessage.getActorSelection());
-                    // log the state of the ring
-                    this.nodeActorLogger.info(ring.toString());
+                // then the items missed while down are asked to the other replicas
+                final ActorRef self = getSelf();
+                this.collectMarks().thenAccept(marks -> self.tell(new RecoveryMarksMessage(false, marks), self));
+            } else { // if I received a recovery request from the Node
+                Peer recovered = this.ring.getPeer(recMessage.getRequesterId());
+                boolean added = false;
+                if (recovered == null) {
+                    // a node this one does not know of (e.g. its join was missed): added as it announced itself
+                    added = this.ring.addPeer(new Peer(recMessage.getRemotePath(), recMessage.getActorSelection(),
+                            recMessage.getRequesterId()));
+                } else if (!recMessage.getActorSelection().equals(recovered.getRemoteSelection())) {
+                    recovered.setRemotePath(recMessage.getRemotePath());
+                    recovered.setRemoteSelection(recMessage.getActorSelection());
                 }
-                break;
-            default:
-                unhandled(message);
-                break;
+                // the recovered node changed the ring even if it restarted at the same address; the
+                // change is just known if the announcement comes after it was learnt from another node
+                this.advanceEpoch(recMessage.getRequesterId(), recMessage.getEpoch(),
+                        recMessage.getRequesterId(), getSender());
+                // the shards delete the items the node is not responsible for anymore
+                this.publishRing(added && this.ring.getNumberOfPeers() > this.N);
+                // log the state of the ring
+                this.nodeActorLogger.info(ring::toString);
+            }
+        } else {
+            unhandled(message);
         }
     }
 }
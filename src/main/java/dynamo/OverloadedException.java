@@ -0,0 +1,12 @@
+package dynamo;
+
+/**
+ * The failure of an operation refused by its coordinator because it was overloaded:
+ * unlike a timeout, the operation was not executed at all, and it can be retried later
+ */
+public class OverloadedException extends Exception {
+
+    public OverloadedException(String message) {
+        super(message);
+    }
+}
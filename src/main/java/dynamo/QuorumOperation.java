@@ -0,0 +1,94 @@
+package dynamo;
+
+import akka.actor.ActorRef;
+import akka.actor.Cancellable;
+import dynamo.messages.ReplicaReadReplyMessage;
+import dynamo.nodeutilities.Peer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * The state of a read/write request from a client, while the coordinator
+ * waits for the replicas to reach the quorum. The CoordinatorActor keeps one of these
+ * for each operation in progress, so it can coordinate many of them at a time.
+ */
+class QuorumOperation {
+
+    // unique (per coordinator) identifier, echoed back by the replicas
+    final long id;
+    // the reference of the client to respond to after the quorum operation
+    final ActorRef client;
+    // the clients whose reads of the same key were attached to this one (see CoordinatorActor)
+    ArrayList<ActorRef> coalescedClients = null;
+    // read or write operation
+    final boolean read;
+    // the key of the item
+    final Integer itemKey;
+    // the new value to be updated (null for reads)
+    final String newValue;
+    // the quorum that has to be reached (it changes based on read or write)
+    final int quorumThreshold;
+    // System.nanoTime() when the operation started
+    final long startTime = System.nanoTime();
+
+    // partial quorum counter
+    int quorum = 0;
+    // contains the read responses from the issued nodes
+    ArrayList<ReplicaReadReplyMessage> responses = new ArrayList<>();
+    // the replicas that did not respond yet, with the timestamp (System.nanoTime())
+    // of the request sent to them
+    HashMap<Integer, Long> pendingReplicas = new HashMap<>();
+    // the replicas that were not contacted yet
+    ArrayList<Peer> remainingReplicas = new ArrayList<>();
+
+    // let us cancel the scheduled TimeoutMessage and FallbackMessage/HedgeMessage
+    Cancellable timeout;
+    Cancellable fallback;
+
+    QuorumOperation(long id, ActorRef client, boolean read, Integer itemKey, String newValue, int quorumThreshold) {
+        this.id = id;
+        this.client = client;
+        this.read = read;
+        this.itemKey = itemKey;
+        this.newValue = newValue;
+        this.quorumThreshold = quorumThreshold;
+    }
+
+    /**
+     * Attaches the read of another client to this operation, which will be answered with the same result
+     * @param other the other client
+     */
+    void coalesce(ActorRef other) {
+        if (coalescedClients == null) {
+            coalescedClients = new ArrayList<>();
+        }
+        coalescedClients.add(other);
+    }
+
+    /**
+     * Replies to the client of the operation, and to the ones attached to it
+     * @param reply the reply
+     * @param sender the sender of the reply
+     */
+    void reply(Object reply, ActorRef sender) {
+        client.tell(reply, sender);
+        if (coalescedClients != null) {
+            for (ActorRef other : coalescedClients) {
+                other.tell(reply, sender);
+            }
+        }
+    }
+
+    /**
+     * Cancels the messages scheduled for this operation
+     */
+    void cancelScheduled() {
+        if (timeout != null) {
+            timeout.cancel();
+        }
+        if (fallback != null) {
+            fallback.cancel();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package dynamo;
+
+import akka.actor.UntypedActor;
+import dynamo.messages.LoadStorageMessage;
+import dynamo.messages.SaveStorageMessage;
+import dynamo.metrics.MetricsRegistry;
+import dynamo.nodeutilities.Item;
+import dynamo.nodeutilities.Storage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * A child of a StorageShardActor doing the blocking file I/O of its Storage. It runs on the
+ * dynamo.storage.io-dispatcher, a bounded thread pool of its own, so that slow disks
+ * do not hold the threads of the actors handling the network. Every operation is
+ * answered with a message to the shard.
+ */
+public class StorageIOActor extends UntypedActor {
+
+    private String pathname;
+    private MetricsRegistry metrics;
+    private String metricsPrefix;
+
+    public StorageIOActor(String pathname, MetricsRegistry metrics, String metricsPrefix) {
+        this.pathname = pathname;
+        this.metrics = metrics;
+        this.metricsPrefix = metricsPrefix;
+    }
+
+    public void onReceive(Object message) throws Exception {
+        if (message instanceof SaveStorageMessage) {
+            boolean success = true;
+            try {
+                Storage.write(pathname, ((SaveStorageMessage) message).getContent(), metrics, metricsPrefix);
+            } catch (IOException e) {
+                e.printStackTrace();
+                metrics.increment(metricsPrefix + ".save.errors");
+                success = false;
+            }
+            getSender().tell(new SaveStorageMessage(false, success), getSelf());
+        } else if (message instanceof LoadStorageMessage) {
+            ArrayList<Item> items = null;
+            String error = null;
+            try {
+                items = Storage.readItems(pathname);
+                if (items == null) {
+                    error = "no file " + pathname;
+                }
+            } catch (Exception e) {
+                error = e.getMessage();
+            }
+            getSender().tell(new LoadStorageMessage(false, items, error), getSelf());
+        } else {
+            unhandled(message);
+        }
+    }
+}
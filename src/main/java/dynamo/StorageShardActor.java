@@ -0,0 +1,556 @@
+package dynamo;
+
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import akka.actor.UntypedActorWithStash;
+import com.typesafe.config.Config;
+import dynamo.messages.*;
+import dynamo.metrics.MetricsRegistry;
+import dynamo.nodeutilities.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A child of the NodeActor that owns a slice of the items of the node (the ones whose key,
+ * modulo the number of shards, is its index) with its own StorageEngine (selected by
+ * dynamo.storage.engine). It serves the replica reads and updates of its items, so that
+ * the shards of a node work in parallel.
+ * The replica writes are applied in batches: the ones waiting in the mailbox are collected,
+ * keeping the latest version of each key, and applied (and saved) together before anything
+ * else is processed, so that the reads always see them.
+ * If the engine needs snapshots, they are written by a StorageIOActor on a dedicated
+ * dispatcher: the shard keeps serving requests while a snapshot is being saved, and changes
+ * made in the meantime are saved together by the next one.
+ * The shard keeps a ChangeLog of the changes it applies: it serves the items changed since a
+ * given time to a recovering peer, and its high-water marks (saved once the changes are
+ * persisted) tell this node what to ask the other replicas for after a crash.
+ */
+public class StorageShardActor extends UntypedActorWithStash {
+
+    // the time the actor system waits, at termination, for the final snapshot of the shard
+    private static final long FINAL_SAVE_TIMEOUT = 30000;
+
+    private DynamoLogger shardLogger = new DynamoLogger();
+
+    private Integer idKey;
+    private Integer N;
+    private Integer index;
+    private Integer shards;
+    // true if the items have to be loaded from the Storage file (recovery after a crash)
+    private boolean recover;
+    // true while the items are being loaded: the other messages are stashed until then
+    private boolean loading = false;
+    // true while a snapshot is being saved by the I/O actor
+    private boolean saving = false;
+
+    // a copy of the ring of the node, updated at every membership change
+    private Ring ring = new Ring();
+    private StorageEngine storage;
+    // the storage, if its snapshots are persisted by this shard; null if it persists its items itself
+    private SnapshotStorageEngine snapshots;
+    // does the blocking I/O on the Storage file (null if the engine persists its items itself)
+    private ActorRef io;
+    private MetricsRegistry metrics;
+    // true if the items changed since they were last logged (see LogSnapshotMessage)
+    private boolean changedSinceSnapshot = false;
+    // the replica writes received and not applied yet, the latest version of each key
+    private HashMap<Integer, Item> pendingWrites = new HashMap<>();
+    private String writeBatchMetric;
+    private String writesCoalescedMetric;
+    private String writeErrorsMetric;
+    private String readErrorsMetric;
+    private String mailboxDepthMetric;
+    // the queue of the mailbox, which counts its messages (null if it is not a PriorityMailbox)
+    private PriorityMailbox.PriorityMessageQueue queue;
+
+    // the recent changes and the high-water marks of the ranges (see ChangeLog)
+    private ChangeLog changes;
+    private String marksPathname;
+    // the marks as of the snapshot being saved, persisted once it is saved
+    private HashMap<Integer, Long> snapshotMarks = null;
+    // the engines persisting their items themselves have their marks saved at most this often
+    private long markInterval;
+    private long lastMarksSave = 0;
+    // the items sent to a recovering peer in a message, at most
+    private int chunkSize;
+
+    // the requests for the items of the range of the node (see LoadReportMessage) since the last
+    // sample, the rate is published as a gauge
+    private long rangeRequests = 0;
+    private long lastRangeSample = System.nanoTime();
+    private String rangeRequestsMetric;
+    // the keys of its items a shard reports, at most
+    private int loadSamples;
+
+    public StorageShardActor(Integer idKey, Integer n, Integer index, Integer shards, String storagePath,
+                             Boolean recover, MetricsRegistry metrics, String logLevel) throws IOException {
+        // the files are named after the key the node had when it first started: it may move
+        // along the ring later (see RingUpdateMessage)
+        this.idKey = idKey;
+        this.N = n;
+        this.index = index;
+        this.shards = shards;
+        this.recover = recover;
+        this.metrics = metrics;
+        this.mailboxDepthMetric = "mailbox.depth.shard-" + index;
+        this.queue = PriorityMailbox.queueOf(getSelf());
+        this.writeBatchMetric = "storage.shard-" + index + ".write.batch.size";
+        this.writesCoalescedMetric = "storage.shard-" + index + ".write.coalesced";
+        this.writeErrorsMetric = "storage.shard-" + index + ".write.errors";
+        this.readErrorsMetric = "storage.shard-" + index + ".read.errors";
+        this.rangeRequestsMetric = "storage.shard-" + index + ".range.requests.rate";
+
+        Config config = getContext().system().settings().config();
+        this.storage = StorageEngines.create(config,
+                getStoragePathname(storagePath, idKey, index), recover, shards, metrics, "storage.shard-" + index);
+        if (this.storage instanceof SnapshotStorageEngine) {
+            this.snapshots = (SnapshotStorageEngine) this.storage;
+            this.io = getContext().actorOf(Props.create(StorageIOActor.class, this.storage.getPathname(),
+                    metrics, "storage.shard-" + index).withDispatcher("dynamo.storage.io-dispatcher"), "io");
+        } else {
+            // the engine has already reopened the files left by the previous run
+            this.recover = false;
+        }
+
+        this.changes = new ChangeLog(config.getInt("dynamo.recovery.log-size"));
+        this.markInterval = config.getLong("dynamo.recovery.mark-interval");
+        this.chunkSize = config.getInt("dynamo.recovery.chunk-size");
+        this.loadSamples = config.getInt("dynamo.rebalance.samples");
+        this.marksPathname = getStoragePathname(storagePath, idKey, index) + ".marks";
+        if (recover) {
+            try {
+                this.changes.setMarks(ChangeLog.readMarks(marksPathname));
+            } catch (IOException e) {
+                // without marks the other replicas send all the items of the ranges
+                shardLogger.error("Cannot load the high-water marks of shard {}: {}", index, e.getMessage());
+            }
+        }
+
+        if (logLevel.equals("INFO")) {
+            this.shardLogger.setLevel(DynamoLogger.LOG_LEVEL.INFO);
+        } else if (logLevel.equals("DEBUG")) {
+            this.shardLogger.setLevel(DynamoLogger.LOG_LEVEL.DEBUG);
+        }
+    }
+
+    /**
+     * @param key the key of an item
+     * @param shards the number of shards of the node
+     * @return the index of the shard owning the item
+     */
+    public static int shardOf(int key, int shards) {
+        return Math.floorMod(key, shards);
+    }
+
+    /**
+     * @param storagePath the directory of the Storage files
+     * @param idKey the key of the node
+     * @param index the index of the shard
+     * @return the path of the files of a shard, without the extension added by the engine
+     */
+    public static String getStoragePathname(String storagePath, Integer idKey, Integer index) {
+        return storagePath + "/dynamo_storage_node" + idKey + "_shard" + index;
+    }
+
+    /**
+     * Asks the I/O actor to load the items from the Storage file, if recovering
+     */
+    @Override
+    public void preStart() {
+        if (recover) {
+            this.loading = true;
+            this.io.tell(new LoadStorageMessage(true), getSelf());
+        }
+    }
+
+    /**
+     * Saves the last changes, if any, before stopping (e.g. when the node leaves): the I/O
+     * actor is already stopped, so a snapshot that was being saved may have been lost
+     */
+    @Override
+    public void postStop() {
+        applyPendingWrites();
+        // the I/O actor is stopped already (and done with its last save, if any):
+        // the final snapshot is written on its dispatcher, the actor system waits for it
+        final String snapshot = snapshots != null && (snapshots.isDirty() || saving)
+                ? snapshots.takeSnapshot() : null;
+        final HashMap<Integer, Long> marks = changes.copyMarks();
+        final StorageEngine engine = storage;
+        Executor dispatcher = getContext().system().dispatchers().lookup("dynamo.storage.io-dispatcher");
+        CompletableFuture<Void> saved = CompletableFuture.runAsync(() -> {
+            try {
+                engine.close();
+            } catch (UncheckedIOException e) {
+                shardLogger.error("Cannot close the Storage of shard {}: {}", index, e.getMessage());
+            }
+            try {
+                if (snapshot != null) {
+                    Storage.write(engine.getPathname(), snapshot, metrics, "storage.shard-" + index);
+                }
+                ChangeLog.writeMarks(marksPathname, marks);
+            } catch (IOException e) {
+                shardLogger.error("Cannot save the Items of shard {} to the local Storage: {}", index, e.getMessage());
+            }
+        }, dispatcher);
+        getContext().system().registerOnTermination(() -> {
+            try {
+                saved.get(FINAL_SAVE_TIMEOUT, TimeUnit.MILLISECONDS);
+            } catch (Exception e) {
+                shardLogger.error("The Items of shard {} may not be saved: {}", index, e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Saves the high-water marks of the ranges. They must never be ahead of the items
+     * persisted, or the next recovery would miss some changes.
+     * @param marks the marks by range
+     */
+    private void saveMarks(HashMap<Integer, Long> marks) {
+        try {
+            ChangeLog.writeMarks(marksPathname, marks);
+            lastMarksSave = System.currentTimeMillis();
+        } catch (IOException e) {
+            shardLogger.error("Cannot save the high-water marks of shard {}: {}", index, e.getMessage());
+        }
+    }
+
+    /**
+     * Sends a snapshot of the Storage to the I/O actor if it changed, unless another one is
+     * being saved: in that case it is sent when the I/O actor is done, with all the changes
+     * made in the meantime. The high-water marks are saved once the snapshot is.
+     */
+    private void persist() {
+        if (snapshots == null) {
+            // the items are persisted already
+            if (System.currentTimeMillis() - lastMarksSave >= markInterval) {
+                saveMarks(changes.copyMarks());
+            }
+        } else if (snapshots.isDirty() && !saving) {
+            saving = true;
+            snapshotMarks = changes.copyMarks();
+            io.tell(new SaveStorageMessage(true, snapshots.takeSnapshot()), getSelf());
+        }
+    }
+
+    /**
+     * Reads an item for a coordinator
+     * @param read the request of the coordinator
+     * @return the reply to the coordinator, null if the item cannot be read: no reply is
+     * sent then, since a reply without the item could make a quorum read miss it
+     */
+    private ReplicaReadReplyMessage read(ReplicaReadMessage read) {
+        countRequest(read.getKey());
+        Item item;
+        try {
+            item = storage.getItem(read.getKey());
+        } catch (UncheckedIOException e) {
+            metrics.increment(readErrorsMetric);
+            shardLogger.error("Cannot read the Item {} of shard {}: {}", read.getKey(), index, e.getMessage());
+            return null;
+        }
+        // In case there is no item with this key, return the message with no
+        // version number. In this way the coordinator can issue an update
+        // to all replicas with version number 1 and the item will be created.
+        if (item == null) {
+            return new ReplicaReadReplyMessage(read.getKey(), null, ReplicaReadReplyMessage.NO_VERSION,
+                    this.idKey, read.getTimestamp(), read.getOperationId(), ring.getEpoch());
+        }
+        return new ReplicaReadReplyMessage(item.getKey(), item.getValue(), item.getVersion(),
+                this.idKey, read.getTimestamp(), read.getOperationId(), ring.getEpoch());
+    }
+
+    /**
+     * Counts a request, if for an item of the range of the node
+     * @param key the key of the item
+     */
+    private void countRequest(int key) {
+        if (ring.getNumberOfPeers() > 0 && ring.getRangeKey(key).equals(this.idKey)) {
+            rangeRequests++;
+        }
+    }
+
+    /**
+     * @return the load of the range of the node in this shard: how many of its items the shard
+     * stores, and some of their keys, evenly spaced among them
+     */
+    private LoadReportMessage reportLoad() {
+        Integer previous = ring.getPreviousPeer(this.idKey).getKey();
+        long count = storage.items().filter(item -> Ring.isBetween(item.getKey(), previous, this.idKey)).count();
+        ArrayList<Integer> sampleKeys = new ArrayList<>();
+        if (count > 0) {
+            long step = Math.max(1, count / loadSamples);
+            long[] position = {0};
+            storage.items().filter(item -> Ring.isBetween(item.getKey(), previous, this.idKey)).forEach(item -> {
+                if (++position[0] % step == 0) {
+                    sampleKeys.add(item.getKey());
+                }
+            });
+        }
+        return new LoadReportMessage(this.idKey, ring.getRangeSize(this.idKey), count, 0, sampleKeys);
+    }
+
+    /**
+     * Adds a replica write to the batch of the pending ones, and makes sure the batch is applied
+     * once the messages already in the mailbox are processed
+     * @param write the replica write
+     */
+    private void addPendingWrite(ReplicaWriteMessage write) {
+        countRequest(write.getKey());
+        if (pendingWrites.isEmpty()) {
+            getSelf().tell(new ApplyWritesMessage(), getSelf());
+        }
+        Item pending = pendingWrites.get(write.getKey());
+        if (pending == null) {
+            pendingWrites.put(write.getKey(), new Item(write.getKey(), write.getValue(), write.getVersion()));
+        } else {
+            // another write of the same key in the batch: only the latest version is applied
+            metrics.increment(writesCoalescedMetric);
+            if (write.getVersion() >= pending.getVersion()) {
+                pending.setValue(write.getValue());
+                pending.setVersion(write.getVersion());
+            }
+        }
+    }
+
+    /**
+     * Applies the pending replica writes, if any, and saves them once
+     */
+    private void applyPendingWrites() {
+        if (!pendingWrites.isEmpty()) {
+            metrics.record(writeBatchMetric, pendingWrites.size());
+            this.store(pendingWrites.values(), true);
+            pendingWrites.clear();
+        }
+    }
+
+    /**
+     * Adds (or updates) some items in the storage and records them in the ChangeLog. If the
+     * engine fails to persist them, the writes after the failure are lost: the items stored
+     * are recorded without advancing the high-water marks, so that the next recovery fetches
+     * the lost ones from the other replicas
+     * @param items the items
+     * @param writes true if they were written by coordinators (see recordChanges)
+     */
+    private void store(Collection<Item> items, boolean writes) {
+        try {
+            this.storage.initializeStorage(items);
+            this.recordChanges(items, writes);
+        } catch (UncheckedIOException e) {
+            metrics.increment(writeErrorsMetric);
+            shardLogger.error("Cannot store the Items of shard {}: {}", index, e.getMessage());
+            this.recordChanges(items.stream().filter(item -> {
+                Item stored = this.storage.getItem(item.getKey());
+                return stored != null && stored.getVersion() == item.getVersion();
+            }).collect(Collectors.toList()), false);
+        }
+        this.changed();
+    }
+
+    /**
+     * Records the items just changed in the ChangeLog
+     * @param items the items
+     * @param writes true if they were written by coordinators, which advances the high-water marks
+     *               of their ranges (the items handed over or recovered from other nodes do not)
+     */
+    private void recordChanges(Iterable<Item> items, boolean writes) {
+        long now = System.currentTimeMillis();
+        boolean ranges = writes && ring.getNumberOfPeers() > 0;
+        for (Item item : items) {
+            changes.record(item.getKey(), now);
+            if (ranges) {
+                changes.advanceMark(ring.getRangeKey(item.getKey()), now);
+            }
+        }
+    }
+
+    /**
+     * Sends a recovering node the items of some ranges changed since the given times, all
+     * the items of a range if the ChangeLog does not go back enough, in chunks
+     * @param request the request of the recovering node
+     */
+    private void sendDeltas(RequestDeltasMessage request) {
+        ArrayList<Item> items = new ArrayList<>();
+        for (Map.Entry<Integer, Long> range : request.getSince().entrySet()) {
+            Integer rangeKey = range.getKey();
+            HashSet<Integer> changed = range.getValue() == Long.MIN_VALUE ? null
+                    : changes.keysChangedSince(range.getValue());
+            if (changed == null) {
+                metrics.increment("recovery.served.full.count");
+                items.addAll(copyItems(storage.items().filter(item -> rangeKey.equals(ring.getRangeKey(item.getKey())))));
+            } else {
+                items.addAll(copyItems(changed.stream().filter(key -> rangeKey.equals(ring.getRangeKey(key)))
+                        .map(storage::getItem).filter(item -> item != null)));
+            }
+        }
+        metrics.increment("recovery.served.items", items.size());
+        // the reply comes from the node, as all the messages between nodes
+        int from = 0;
+        do {
+            int to = Math.min(items.size(), from + chunkSize);
+            getSender().tell(new DeltaItemsMessage(this.idKey, this.index, this.shards,
+                    new ArrayList<>(items.subList(from, to)), to == items.size()), getContext().parent());
+            from = to;
+        } while (from < items.size());
+    }
+
+    /**
+     * To be called at every change of the items: saves them and, when the level is DEBUG,
+     * logs them (otherwise they are logged by the periodic LogSnapshotMessage, if enabled)
+     */
+    private void changed() {
+        this.changedSinceSnapshot = true;
+        shardLogger.debug(storage::toString);
+        this.persist();
+    }
+
+    /**
+     * @param items some items
+     * @return a copy of the items, which can be handed to another actor
+     */
+    private static ArrayList<Item> copyItems(Stream<Item> items) {
+        return items.map(item -> new Item(item.getKey(), item.getValue(), item.getVersion()))
+                .collect(Collectors.toCollection(ArrayList::new));
+    }
+
+    /**
+     * Dispatches the messages by type, the replica reads and writes first since they are
+     * the vast majority of them
+     */
+    public void onReceive(Object message) throws Exception {
+        if (shardLogger.isDebugEnabled()) {
+            shardLogger.debug("Shard {} received Message {}", index, message);
+        }
+
+        // until the items are loaded, the requests would see an incomplete storage
+        if (loading && !(message instanceof LoadStorageMessage)) {
+            stash();
+            return;
+        }
+
+        if (message instanceof ReplicaWriteMessage) {
+            addPendingWrite((ReplicaWriteMessage) message);
+            return;
+        }
+        // anything else sees the writes received before it
+        applyPendingWrites();
+
+        if (message instanceof ReplicaReadMessage) {
+            // the reply comes from the node, as all the messages between nodes
+            ReplicaReadReplyMessage reply = read((ReplicaReadMessage) message);
+            if (reply != null) {
+                getSender().tell(reply, getContext().parent());
+            }
+        } else if (message instanceof ReplicaBatchMessage) {
+            ArrayList<ReplicaReadReplyMessage> replies = new ArrayList<>();
+            for (Object operation : ((ReplicaBatchMessage) message).getMessages()) {
+                if (operation instanceof ReplicaWriteMessage) {
+                    addPendingWrite((ReplicaWriteMessage) operation);
+                } else {
+                    // the reads see the writes before them in the batch
+                    applyPendingWrites();
+                    ReplicaReadReplyMessage reply = read((ReplicaReadMessage) operation);
+                    if (reply != null) {
+                        replies.add(reply);
+                    }
+                }
+            }
+            if (!replies.isEmpty()) {
+                getSender().tell(new ReplicaReplyBatchMessage(replies), getContext().parent());
+            }
+        } else if (message instanceof ApplyWritesMessage) {
+            // the writes were applied above
+        } else if (message instanceof RingUpdateMessage) {
+            RingUpdateMessage update = (RingUpdateMessage) message;
+            this.ring.setPeers(update.getPeers());
+            this.ring.setEpoch(update.getEpoch());
+            this.idKey = update.getSelfKey();
+            if (update.isRemoveItemsOutOfResponsibility()) {
+                try {
+                    this.storage.removeItemsOutOfResponsibility(this.idKey, this.ring, this.N);
+                } catch (UncheckedIOException e) {
+                    metrics.increment(writeErrorsMetric);
+                    shardLogger.error("Cannot remove the Items out of the responsibility of shard {}: {}",
+                            index, e.getMessage());
+                }
+                this.changed();
+            }
+        } else if (message instanceof CollectItemsMessage) {
+            CollectItemsMessage collect = (CollectItemsMessage) message;
+            ArrayList<Item> items;
+            if (collect.getTo() != null) {
+                items = copyItems(this.storage.items().filter(
+                        item -> Ring.isBetween(item.getKey(), collect.getFrom(), collect.getTo())));
+            } else if (collect.getNewNodeKey() == null) {
+                items = copyItems(this.storage.items());
+            } else {
+                // all the items except the ones in the range between the new node and this one
+                items = copyItems(this.storage.itemsForNewNode(collect.getNewNodeKey(), this.idKey));
+            }
+            getSender().tell(new CollectItemsMessage(false, items), getSelf());
+        } else if (message instanceof StoreItemsMessage) {
+            StoreItemsMessage store = (StoreItemsMessage) message;
+            ArrayList<Item> items = store.getItems();
+            if (store.isNewerOnly()) {
+                items = items.stream().filter(item -> {
+                    Item local = this.storage.getItem(item.getKey());
+                    return local == null || local.getVersion() < item.getVersion();
+                }).collect(Collectors.toCollection(ArrayList::new));
+            }
+            this.store(items, false);
+        } else if (message instanceof RequestDeltasMessage) {
+            sendDeltas((RequestDeltasMessage) message);
+        } else if (message instanceof RecoveryMarksMessage) {
+            getSender().tell(new RecoveryMarksMessage(false, changes.copyMarks()), getSelf());
+        } else if (message instanceof SaveStorageMessage) {
+            // the I/O actor is done, save the changes made in the meantime
+            if (!((SaveStorageMessage) message).isSuccess()) {
+                shardLogger.error("Cannot save the Items of shard {} to the local Storage", index);
+            } else if (snapshotMarks != null) {
+                saveMarks(snapshotMarks);
+            }
+            snapshotMarks = null;
+            this.saving = false;
+            this.persist();
+        } else if (message instanceof LoadStorageMessage) {
+            LoadStorageMessage loaded = (LoadStorageMessage) message;
+            if (loaded.getItems() == null) {
+                shardLogger.error("Cannot load the Items of shard {} from the local Storage: {}",
+                        index, loaded.getError());
+            } else {
+                this.storage.initializeStorage(loaded.getItems());
+                shardLogger.info("Items of shard {} correctly loaded from local Storage", index);
+            }
+            this.loading = false;
+            unstashAll();
+        } else if (message instanceof LogSnapshotMessage) {
+            if (this.changedSinceSnapshot) {
+                shardLogger.info(storage::toString);
+                this.changedSinceSnapshot = false;
+            }
+        } else if (message instanceof LoadReportMessage) {
+            getSender().tell(reportLoad(), getSelf());
+        } else if (message instanceof MetricsSampleMessage) {
+            if (this.queue != null) {
+                metrics.setGauge(mailboxDepthMetric, this.queue.numberOfMessages());
+            }
+            long now = System.nanoTime();
+            metrics.setGauge(rangeRequestsMetric, rangeRequests * 1e9 / Math.max(1, now - lastRangeSample));
+            rangeRequests = 0;
+            lastRangeSample = now;
+        } else {
+            unhandled(message);
+        }
+    }
+}
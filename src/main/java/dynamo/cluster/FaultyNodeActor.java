@@ -0,0 +1,53 @@
+package dynamo.cluster;
+
+import akka.actor.ActorRef;
+import dynamo.NodeActor;
+import scala.concurrent.duration.Duration;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A NodeActor whose incoming messages go through an unreliable network, as described by
+ * its NetworkConditions. Only the messages coming from other actors (nodes and clients)
+ * are affected: the ones a node schedules to itself, e.g. its timeouts, are delivered as usual.
+ */
+public class FaultyNodeActor extends NodeActor {
+
+    private NetworkConditions network;
+    // the delayed messages, which must be processed when they come back
+    // (compared by identity, since they are the same local objects)
+    private Set<Object> delayed = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    public FaultyNodeActor(NetworkConditions network, Integer id, Integer n, Integer r, Integer w,
+                           String storagePath, String logLevel) {
+        super(id, n, r, w, storagePath, logLevel);
+        this.network = network;
+    }
+
+    @Override
+    public void onReceive(Object message) throws Exception {
+        if (delayed.remove(message)) {
+            super.onReceive(message);
+            return;
+        }
+        ActorRef sender = getSender();
+        if (sender == null || sender.equals(getSelf()) || sender.equals(getContext().system().deadLetters())) {
+            super.onReceive(message);
+            return;
+        }
+        if (network.isLost()) {
+            return;
+        }
+        long delay = network.nextDelayMillis();
+        if (delay == 0) {
+            super.onReceive(message);
+        } else {
+            delayed.add(message);
+            getContext().system().scheduler().scheduleOnce(Duration.create(delay, TimeUnit.MILLISECONDS),
+                    getSelf(), message, getContext().system().dispatcher(), sender);
+        }
+    }
+}
@@ -0,0 +1,428 @@
+package dynamo.cluster;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.pattern.PatternsCS;
+import akka.util.Timeout;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import dynamo.DynamoClient;
+import dynamo.loadgen.LoadGenerator;
+import dynamo.messages.LeaveMessage;
+import dynamo.messages.PeersListMessage;
+import dynamo.messages.RecoveryMessage;
+import dynamo.messages.StartJoinMessage;
+import dynamo.nodeutilities.DynamoLogger;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a whole Dynamo system inside one JVM: every node has its own ActorSystem bound to
+ * 127.0.0.1, on the port dynamo.cluster.base-port + its key, so runs are repeatable.
+ * Nodes can join, leave, crash and recover at any time, and the network towards each
+ * of them can be made slow or lossy (see NetworkConditions).
+ *
+ * The cluster can be driven from code or by a script, one command per line:
+ *      start id                    starts the first node of the system
+ *      join id                     a new node joins the system through a random live node
+ *      leave id                    a node leaves the system, handing over its items
+ *      crash id                    a node stops without telling anyone
+ *      recover id                  a crashed node recovers from its storage
+ *      network delay jitter loss [id]
+ *                                  sets the network conditions towards a node, or all of them
+ *      await                       waits until every live node agrees on the membership
+ *      sleep ms                    waits for some time
+ *      load [parameter=value ...]  starts the LoadGenerator in background against a random live node
+ *      wait                        waits for the background loads to end
+ * Empty lines and lines starting with # are ignored.
+ */
+public class LocalCluster {
+
+    private static final String HOST = "127.0.0.1";
+
+    private Config config;
+    private int basePort;
+    private String storageLocation;
+    private Integer N, R, W;
+    private String logLevel;
+    private Timeout timeout;
+
+    // the running nodes, by key
+    private TreeMap<Integer, LocalNode> nodes = new TreeMap<>();
+    // the nodes in the system, i.e. started and not left (crashed ones included)
+    private TreeSet<Integer> members = new TreeSet<>();
+    // network conditions by node key, kept across crashes
+    private HashMap<Integer, NetworkConditions> network = new HashMap<>();
+    // conditions of the nodes without specific ones
+    private long defaultDelay = 0, defaultJitter = 0;
+    private double defaultLoss = 0;
+
+    // the actor system of the clients, created when the first one is needed
+    private ActorSystem clientSystem = null;
+    private ArrayList<Thread> loads = new ArrayList<>();
+
+    /**
+     * A running node
+     */
+    private static class LocalNode {
+        final ActorSystem system;
+        final ActorRef actor;
+
+        LocalNode(ActorSystem system, ActorRef actor) {
+            this.system = system;
+            this.actor = actor;
+        }
+    }
+
+    /**
+     * Creates an empty cluster. The items of the nodes are stored in a new temporary directory.
+     * @param config the configuration of the nodes (replication, timeouts...) and of the cluster
+     * @throws IOException if the storage directory cannot be created
+     */
+    public LocalCluster(Config config) throws IOException {
+        this.config = config;
+        this.basePort = config.getInt("dynamo.cluster.base-port");
+        this.storageLocation = Files.createTempDirectory("dynamo_cluster").toString();
+        this.N = config.getInt("dynamo.replication.N");
+        this.R = config.getInt("dynamo.replication.R");
+        this.W = config.getInt("dynamo.replication.W");
+        this.logLevel = config.getString("dynamo.logger.level");
+        this.timeout = new Timeout(Duration.create(config.getLong("dynamo.cluster.timeout"), TimeUnit.MILLISECONDS));
+
+        if (R + W <= N) {
+            throw new IllegalArgumentException("R + W must be greater than N.");
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 1) {
+            System.out.println("Usage: java dynamo.cluster.LocalCluster [script_file]");
+            System.exit(-1);
+        }
+        LocalCluster cluster = new LocalCluster(ConfigFactory.load("application"));
+        try (BufferedReader script = new BufferedReader(args.length == 1
+                ? new FileReader(args[0]) : new InputStreamReader(System.in))) {
+            cluster.run(script);
+        } finally {
+            cluster.shutdown();
+        }
+        System.exit(0);
+    }
+
+    /**
+     * @param key the key of a node
+     * @return the port of its actor system
+     */
+    public int getPort(int key) {
+        return basePort + key;
+    }
+
+    /**
+     * @return the keys of the running nodes
+     */
+    public synchronized Set<Integer> getLiveNodes() {
+        return new TreeSet<>(nodes.keySet());
+    }
+
+    /**
+     * Starts the first node of the system
+     * @param key the key of the node
+     */
+    public synchronized void start(int key) {
+        if (!members.isEmpty()) {
+            throw new IllegalStateException("The system has already been started");
+        }
+        LocalNode node = startNode(key);
+        node.actor.tell(new StartJoinMessage(null, null), null);
+        members.add(key);
+    }
+
+    /**
+     * Adds a new node to the system, which joins through a random live node
+     * @param key the key of the node
+     */
+    public synchronized void join(int key) {
+        if (members.contains(key)) {
+            throw new IllegalStateException("Node " + key + " is already in the system");
+        }
+        int contact = randomLiveNode();
+        LocalNode node = startNode(key);
+        node.actor.tell(new StartJoinMessage(HOST, String.valueOf(getPort(contact))), null);
+        members.add(key);
+    }
+
+    /**
+     * Makes a node leave the system, it hands its items over to the other nodes
+     * @param key the key of the node
+     * @throws Exception if the node does not leave in time
+     */
+    public synchronized void leave(int key) throws Exception {
+        LocalNode node = getNode(key);
+        PatternsCS.ask(node.actor, new LeaveMessage(), timeout).toCompletableFuture().get();
+        Await.result(node.system.whenTerminated(), timeout.duration());
+        nodes.remove(key);
+        members.remove(key);
+    }
+
+    /**
+     * Stops a node abruptly: the others are not told and its storage is left on disk
+     * @param key the key of the node
+     * @throws Exception if the node does not stop in time
+     */
+    public synchronized void crash(int key) throws Exception {
+        LocalNode node = getNode(key);
+        Await.result(node.system.terminate(), timeout.duration());
+        nodes.remove(key);
+    }
+
+    /**
+     * Restarts a crashed node, which recovers its items from the storage
+     * @param key the key of the node
+     */
+    public synchronized void recover(int key) {
+        if (!members.contains(key) || nodes.containsKey(key)) {
+            throw new IllegalStateException("Node " + key + " has not crashed");
+        }
+        int contact = randomLiveNode();
+        LocalNode node = startNode(key);
+        node.actor.tell(new RecoveryMessage(HOST, String.valueOf(getPort(contact)), key), null);
+    }
+
+    /**
+     * Sets the conditions of the network towards every node, present and future
+     * @param delayMillis the delay added to every message
+     * @param jitterMillis the maximum random delay added to every message
+     * @param lossProbability the probability of losing a message
+     */
+    public synchronized void setNetworkConditions(long delayMillis, long jitterMillis, double lossProbability) {
+        this.defaultDelay = delayMillis;
+        this.defaultJitter = jitterMillis;
+        this.defaultLoss = lossProbability;
+        for (NetworkConditions conditions : network.values()) {
+            conditions.set(delayMillis, jitterMillis, lossProbability);
+        }
+    }
+
+    /**
+     * Sets the conditions of the network towards a node
+     * @param key the key of the node
+     * @param delayMillis the delay added to every message
+     * @param jitterMillis the maximum random delay added to every message
+     * @param lossProbability the probability of losing a message
+     */
+    public synchronized void setNetworkConditions(int key, long delayMillis, long jitterMillis, double lossProbability) {
+        getNetworkConditions(key).set(delayMillis, jitterMillis, lossProbability);
+    }
+
+    /**
+     * Waits until every live node has all and only the members of the system in its ring
+     * @param timeoutMillis how long to wait at most
+     * @return true if the membership converged in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitMembership(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (System.currentTimeMillis() < deadline) {
+            if (membershipConverged()) {
+                return true;
+            }
+            Thread.sleep(100);
+        }
+        return false;
+    }
+
+    /**
+     * @return a new client of the system, connected to a random live node
+     */
+    public synchronized DynamoClient newClient() {
+        if (clientSystem == null) {
+            Config custom = ConfigFactory.parseString("akka.remote.netty.tcp.hostname = " + HOST
+                    + ", akka.remote.netty.tcp.port = 0");
+            clientSystem = ActorSystem.create("dynamo", custom.withFallback(config));
+        }
+        return new DynamoClient(clientSystem, HOST, String.valueOf(getPort(randomLiveNode())));
+    }
+
+    /**
+     * Stops every node and client
+     * @throws Exception if they do not stop in time
+     */
+    public synchronized void shutdown() throws Exception {
+        for (LocalNode node : nodes.values()) {
+            Await.result(node.system.terminate(), timeout.duration());
+        }
+        nodes.clear();
+        members.clear();
+        if (clientSystem != null) {
+            Await.result(clientSystem.terminate(), timeout.duration());
+            clientSystem = null;
+        }
+    }
+
+    /**
+     * Runs a script (see the description of the class)
+     * @param script the commands, one per line
+     * @throws Exception if a command is not valid or fails
+     */
+    public void run(BufferedReader script) throws Exception {
+        String line;
+        while ((line = script.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            System.out.println(DynamoLogger.ANSI_WHITE + "> " + line + DynamoLogger.ANSI_RESET);
+            String[] command = line.split("\\s+");
+            switch (command[0]) {
+                case "start":
+                    start(Integer.parseInt(command[1]));
+                    break;
+                case "join":
+                    join(Integer.parseInt(command[1]));
+                    break;
+                case "leave":
+                    leave(Integer.parseInt(command[1]));
+                    break;
+                case "crash":
+                    crash(Integer.parseInt(command[1]));
+                    break;
+                case "recover":
+                    recover(Integer.parseInt(command[1]));
+                    break;
+                case "network":
+                    if (command.length == 5) {
+                        setNetworkConditions(Integer.parseInt(command[4]), Long.parseLong(command[1]),
+                                Long.parseLong(command[2]), Double.parseDouble(command[3]));
+                    } else {
+                        setNetworkConditions(Long.parseLong(command[1]), Long.parseLong(command[2]),
+                                Double.parseDouble(command[3]));
+                    }
+                    break;
+                case "await":
+                    if (!awaitMembership(config.getLong("dynamo.cluster.await-timeout"))) {
+                        throw new IllegalStateException("The membership did not converge in time");
+                    }
+                    break;
+                case "sleep":
+                    Thread.sleep(Long.parseLong(command[1]));
+                    break;
+                case "load":
+                    startLoad(Arrays.asList(command).subList(1, command.length));
+                    break;
+                case "wait":
+                    for (Thread load : loads) {
+                        load.join();
+                    }
+                    loads.clear();
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown command: " + line);
+            }
+        }
+    }
+
+    /**
+     * Starts the LoadGenerator in background, with its own client
+     * @param parameters key=value pairs overriding the dynamo.loadgen configuration
+     */
+    private void startLoad(List<String> parameters) {
+        LoadGenerator generator = new LoadGenerator(newClient(), LoadGenerator.withOverrides(config, parameters));
+        Thread load = new Thread(() -> {
+            try {
+                generator.run();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "dynamo-cluster-load");
+        load.start();
+        loads.add(load);
+    }
+
+    /**
+     * Creates the actor system and the actor of a node
+     * @param key the key of the node
+     * @return the new node
+     */
+    private LocalNode startNode(int key) {
+        if (key < 1 || key > 65535 - basePort) {
+            throw new IllegalArgumentException("Invalid node key: " + key);
+        }
+        Config custom = ConfigFactory.parseString("akka.remote.netty.tcp.hostname = " + HOST
+                + ", akka.remote.netty.tcp.port = " + getPort(key));
+        ActorSystem system = ActorSystem.create("dynamo", custom.withFallback(config));
+        ActorRef actor = system.actorOf(Props.create(FaultyNodeActor.class, getNetworkConditions(key),
+                key, N, R, W, storageLocation, logLevel), "node");
+        LocalNode node = new LocalNode(system, actor);
+        nodes.put(key, node);
+        return node;
+    }
+
+    /**
+     * @param key the key of a node
+     * @return the network conditions towards the node, created with the default ones if needed
+     */
+    private NetworkConditions getNetworkConditions(int key) {
+        NetworkConditions conditions = network.get(key);
+        if (conditions == null) {
+            conditions = new NetworkConditions();
+            conditions.set(defaultDelay, defaultJitter, defaultLoss);
+            network.put(key, conditions);
+        }
+        return conditions;
+    }
+
+    /**
+     * @param key the key of a node
+     * @return the node, if running
+     */
+    private LocalNode getNode(int key) {
+        LocalNode node = nodes.get(key);
+        if (node == null) {
+            throw new IllegalStateException("Node " + key + " is not running");
+        }
+        return node;
+    }
+
+    /**
+     * @return the key of a random running node
+     */
+    private int randomLiveNode() {
+        if (nodes.isEmpty()) {
+            throw new IllegalStateException("No node is running");
+        }
+        ArrayList<Integer> keys = new ArrayList<>(nodes.keySet());
+        return keys.get(ThreadLocalRandom.current().nextInt(keys.size()));
+    }
+
+    /**
+     * @return true if every live node has all and only the members in its ring
+     */
+    private boolean membershipConverged() {
+        ArrayList<LocalNode> running;
+        TreeSet<Integer> expected;
+        synchronized (this) {
+            running = new ArrayList<>(nodes.values());
+            expected = new TreeSet<>(members);
+        }
+        for (LocalNode node : running) {
+            try {
+                PeersListMessage reply = (PeersListMessage) PatternsCS.ask(node.actor,
+                        new PeersListMessage(true, null), timeout).toCompletableFuture().get();
+                if (!reply.getPeers().keySet().equals(expected)) {
+                    return false;
+                }
+            } catch (Exception e) {
+                // not answering (yet), or the request was lost
+                return false;
+            }
+        }
+        return true;
+    }
+}
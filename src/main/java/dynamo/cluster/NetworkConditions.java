@@ -0,0 +1,54 @@
+package dynamo.cluster;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The conditions of the network links towards a node of a LocalCluster:
+ * every message from another actor is delayed (with some optional jitter)
+ * and may be lost. Conditions can be changed at any time from any thread.
+ */
+public class NetworkConditions {
+
+    private volatile long delayMillis = 0;
+    private volatile long jitterMillis = 0;
+    private volatile double lossProbability = 0;
+
+    /**
+     * @param delayMillis the delay added to every message, in milliseconds
+     * @param jitterMillis a random delay up to this value is added too (messages may be reordered)
+     * @param lossProbability the probability of losing a message, between 0 and 1
+     */
+    public void set(long delayMillis, long jitterMillis, double lossProbability) {
+        if (delayMillis < 0 || jitterMillis < 0 || lossProbability < 0 || lossProbability > 1) {
+            throw new IllegalArgumentException("Invalid network conditions");
+        }
+        this.delayMillis = delayMillis;
+        this.jitterMillis = jitterMillis;
+        this.lossProbability = lossProbability;
+    }
+
+    /**
+     * @return true if the next message has to be dropped
+     */
+    boolean isLost() {
+        double loss = lossProbability;
+        return loss > 0 && ThreadLocalRandom.current().nextDouble() < loss;
+    }
+
+    /**
+     * @return the delay of the next message, in milliseconds
+     */
+    long nextDelayMillis() {
+        long jitter = jitterMillis;
+        return jitter > 0 ? delayMillis + ThreadLocalRandom.current().nextLong(jitter + 1) : delayMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "NetworkConditions{" +
+                "delayMillis=" + delayMillis +
+                ", jitterMillis=" + jitterMillis +
+                ", lossProbability=" + lossProbability +
+                '}';
+    }
+}
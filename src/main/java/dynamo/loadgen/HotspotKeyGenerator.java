@@ -0,0 +1,34 @@
+package dynamo.loadgen;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A fraction of the operations goes to a small set of hot keys, the rest
+ * is spread uniformly over the other keys
+ */
+public class HotspotKeyGenerator implements KeyGenerator {
+
+    private int keys;
+    private int hotKeys;
+    private double hotOperations;
+
+    /**
+     * @param keys the number of keys
+     * @param hotFraction the fraction of the keys which are hot (e.g. 0.2)
+     * @param hotOperations the fraction of the operations going to the hot keys (e.g. 0.8)
+     */
+    public HotspotKeyGenerator(int keys, double hotFraction, double hotOperations) {
+        this.keys = keys;
+        this.hotKeys = Math.max(1, (int) (keys * hotFraction));
+        this.hotOperations = hotOperations;
+    }
+
+    @Override
+    public int nextKey() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (hotKeys >= keys || random.nextDouble() < hotOperations) {
+            return random.nextInt(hotKeys);
+        }
+        return hotKeys + random.nextInt(keys - hotKeys);
+    }
+}
@@ -0,0 +1,12 @@
+package dynamo.loadgen;
+
+/**
+ * Chooses the key of the next operation issued by the LoadGenerator
+ */
+public interface KeyGenerator {
+
+    /**
+     * @return the key of the next operation, between 0 (included) and the number of keys (excluded)
+     */
+    int nextKey();
+}
@@ -0,0 +1,225 @@
+package dynamo.loadgen;
+
+import akka.actor.ActorSystem;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import dynamo.DynamoClient;
+import dynamo.OverloadedException;
+import dynamo.metrics.Histogram;
+import dynamo.nodeutilities.DynamoLogger;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A YCSB-style load generator: issues reads and updates to a running Dynamo system
+ * through a DynamoClient, with a configurable mix, key distribution, value size,
+ * target rate and concurrency. It prints the throughput and latency percentiles every
+ * reporting interval, and the full latency histograms at the end.
+ *
+ * The parameters are read from dynamo.loadgen in the configuration file and can be
+ * overridden from CLI as key=value pairs, e.g.
+ *      java dynamo.loadgen.LoadGenerator 127.0.0.1 10042 rate=5000 distribution=zipfian
+ * Keys containing a dot are taken as full configuration paths (e.g. dynamo.client.mode=direct).
+ *
+ * When a target rate is given, latencies are measured from the time each operation should have
+ * been issued, so that a slow system is not hidden by the generator waiting for it
+ * (coordinated omission).
+ */
+public class LoadGenerator {
+
+    private static final String CHARACTERS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+
+    private DynamoClient client;
+    private KeyGenerator keyGenerator;
+    private double readProportion;
+    private int valueSize;
+    private long rate;
+    private int concurrency;
+    private long duration;
+    private long reportInterval;
+
+    // latencies in microseconds, for the whole run and for the current reporting interval
+    private Histogram readTotal = new Histogram();
+    private Histogram updateTotal = new Histogram();
+    private AtomicReference<Histogram> readInterval = new AtomicReference<>(new Histogram());
+    private AtomicReference<Histogram> updateInterval = new AtomicReference<>(new Histogram());
+    private AtomicLong errors = new AtomicLong();
+    // the requests refused by overloaded coordinators (not counted as errors)
+    private AtomicLong overloaded = new AtomicLong();
+
+    public LoadGenerator(DynamoClient client, Config config) {
+        this.client = client;
+        Config c = config.getConfig("dynamo.loadgen");
+        int keys = c.getInt("keys");
+        String distribution = c.getString("distribution");
+        if (distribution.equals("uniform")) {
+            this.keyGenerator = new UniformKeyGenerator(keys);
+        } else if (distribution.equals("zipfian")) {
+            this.keyGenerator = new ZipfianKeyGenerator(keys, c.getDouble("zipfian-theta"));
+        } else if (distribution.equals("hotspot")) {
+            this.keyGenerator = new HotspotKeyGenerator(keys, c.getDouble("hotspot-fraction"),
+                    c.getDouble("hotspot-operations"));
+        } else {
+            throw new IllegalArgumentException("Unknown key distribution: " + distribution);
+        }
+        this.readProportion = c.getDouble("read-proportion");
+        this.valueSize = c.getInt("value-size");
+        this.rate = c.getLong("rate");
+        this.concurrency = c.getInt("concurrency");
+        this.duration = c.getLong("duration");
+        this.reportInterval = c.getLong("report-interval");
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Usage: java dynamo.loadgen.LoadGenerator remote_ip remote_port [parameter=value ...]");
+            System.exit(-1);
+        }
+
+        // parameters from CLI override the ones in the configuration file
+        Config config = withOverrides(ConfigFactory.load("application"),
+                Arrays.asList(args).subList(2, args.length));
+        Config custom = ConfigFactory.parseString("akka.remote.netty.tcp.hostname = localhost, akka.remote.netty.tcp.port = 0");
+        ActorSystem system = ActorSystem.create("dynamo", custom.withFallback(config));
+
+        DynamoClient client = new DynamoClient(system, args[0], args[1]);
+        new LoadGenerator(client, config).run();
+        system.terminate();
+        System.exit(0);
+    }
+
+    /**
+     * Overrides some parameters of a configuration
+     * @param config the configuration
+     * @param parameters key=value pairs, keys without a dot refer to dynamo.loadgen
+     * @return the new configuration
+     */
+    public static Config withOverrides(Config config, List<String> parameters) {
+        StringBuilder overrides = new StringBuilder();
+        for (String parameter : parameters) {
+            String[] pair = parameter.split("=", 2);
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("Parameters must be given as key=value: " + parameter);
+            }
+            String path = pair[0].contains(".") ? pair[0] : "dynamo.loadgen." + pair[0];
+            overrides.append(path).append(" = \"").append(pair[1]).append("\"\n");
+        }
+        return ConfigFactory.parseString(overrides.toString()).withFallback(config);
+    }
+
+    /**
+     * Runs the load for the configured duration, then prints the results
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void run() throws InterruptedException {
+        System.out.println(DynamoLogger.ANSI_WHITE + "Running load for " + duration + "s (rate: "
+                + (rate > 0 ? rate + " ops/s" : "unlimited") + ", concurrency: " + concurrency + ")"
+                + DynamoLogger.ANSI_RESET);
+
+        final long start = System.nanoTime();
+        final long end = start + TimeUnit.SECONDS.toNanos(duration);
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+        reporter.scheduleAtFixedRate(() -> report(start), reportInterval, reportInterval, TimeUnit.SECONDS);
+
+        Semaphore outstanding = new Semaphore(concurrency);
+        long interval = rate > 0 ? TimeUnit.SECONDS.toNanos(1) / rate : 0;
+        long next = start;
+        long issued = 0;
+
+        while (System.nanoTime() < end) {
+            long intended;
+            if (rate > 0) {
+                long wait = next - System.nanoTime();
+                if (wait > 0) {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                }
+                intended = next;
+                next += interval;
+            } else {
+                intended = System.nanoTime();
+            }
+            outstanding.acquire();
+            issue(intended, outstanding);
+            issued++;
+        }
+        // wait for the outstanding requests
+        outstanding.acquire(concurrency);
+        reporter.shutdownNow();
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println();
+        System.out.println(DynamoLogger.ANSI_WHITE + "Summary" + DynamoLogger.ANSI_RESET);
+        System.out.println(String.format("\tissued: %d, errors: %d, overloaded: %d, throughput: %.1f ops/s",
+                issued, errors.get(), overloaded.get(), (readTotal.getCount() + updateTotal.getCount()) / seconds));
+        System.out.println(DynamoLogger.ANSI_WHITE + "Read latency (ms)" + DynamoLogger.ANSI_RESET);
+        readTotal.outputPercentileDistribution(System.out, 1000.0);
+        System.out.println(DynamoLogger.ANSI_WHITE + "Update latency (ms)" + DynamoLogger.ANSI_RESET);
+        updateTotal.outputPercentileDistribution(System.out, 1000.0);
+    }
+
+    /**
+     * Issues a single operation
+     * @param intended System.nanoTime() when the operation should have been issued
+     * @param outstanding released when the operation completes
+     */
+    private void issue(final long intended, final Semaphore outstanding) {
+        int key = keyGenerator.nextKey();
+        final boolean read = ThreadLocalRandom.current().nextDouble() < readProportion;
+        CompletableFuture<?> future = read ? client.get(key) : client.update(key, randomValue());
+        future.whenComplete((result, error) -> {
+            long micros = (System.nanoTime() - intended) / 1000;
+            if (error != null && error.getCause() instanceof OverloadedException) {
+                overloaded.incrementAndGet();
+            } else if (error != null) {
+                errors.incrementAndGet();
+            } else if (read) {
+                readTotal.record(micros);
+                readInterval.get().record(micros);
+            } else {
+                updateTotal.record(micros);
+                updateInterval.get().record(micros);
+            }
+            outstanding.release();
+        });
+    }
+
+    /**
+     * @return a random alphanumeric value of the configured size
+     */
+    private String randomValue() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        StringBuilder sb = new StringBuilder(valueSize);
+        for (int i = 0; i < valueSize; i++) {
+            sb.append(CHARACTERS.charAt(random.nextInt(CHARACTERS.length())));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Prints throughput and latencies of the last reporting interval
+     * @param start System.nanoTime() when the run started
+     */
+    private void report(long start) {
+        Histogram reads = readInterval.getAndSet(new Histogram());
+        Histogram updates = updateInterval.getAndSet(new Histogram());
+        long elapsed = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start);
+        double throughput = (double) (reads.getCount() + updates.getCount()) / reportInterval;
+        System.out.println(String.format("[%5ds] %9.1f ops/s | read p50 %8.3f p99 %8.3f max %8.3f ms"
+                        + " | update p50 %8.3f p99 %8.3f max %8.3f ms | errors %d | overloaded %d",
+                elapsed, throughput,
+                reads.getValueAtPercentile(50) / 1000.0, reads.getValueAtPercentile(99) / 1000.0,
+                reads.getMax() / 1000.0,
+                updates.getValueAtPercentile(50) / 1000.0, updates.getValueAtPercentile(99) / 1000.0,
+                updates.getMax() / 1000.0,
+                errors.get(), overloaded.get()));
+    }
+}
@@ -0,0 +1,20 @@
+package dynamo.loadgen;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Every key has the same probability of being chosen
+ */
+public class UniformKeyGenerator implements KeyGenerator {
+
+    private int keys;
+
+    public UniformKeyGenerator(int keys) {
+        this.keys = keys;
+    }
+
+    @Override
+    public int nextKey() {
+        return ThreadLocalRandom.current().nextInt(keys);
+    }
+}
@@ -0,0 +1,66 @@
+package dynamo.loadgen;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Keys are chosen with a Zipfian distribution (a few keys are very popular, most of them are rarely
+ * chosen), using the algorithm from Gray et al., "Quickly Generating Billion-Record Synthetic
+ * Databases", as done by YCSB. The popular keys are scattered over the key space with a hash,
+ * otherwise they would all be stored by the same few nodes of the ring.
+ */
+public class ZipfianKeyGenerator implements KeyGenerator {
+
+    private int keys;
+    private double theta;
+    private double alpha;
+    private double zetan;
+    private double eta;
+
+    /**
+     * @param keys the number of keys
+     * @param theta the skew of the distribution (YCSB uses 0.99)
+     */
+    public ZipfianKeyGenerator(int keys, double theta) {
+        this.keys = keys;
+        this.theta = theta;
+        this.alpha = 1.0 / (1.0 - theta);
+        this.zetan = zeta(keys, theta);
+        double zeta2 = zeta(2, theta);
+        this.eta = (1 - Math.pow(2.0 / keys, 1 - theta)) / (1 - zeta2 / zetan);
+    }
+
+    private static double zeta(long n, double theta) {
+        double sum = 0;
+        for (long i = 1; i <= n; i++) {
+            sum += 1 / Math.pow(i, theta);
+        }
+        return sum;
+    }
+
+    /**
+     * @return the rank of the chosen key (0 is the most popular)
+     */
+    private int nextRank() {
+        double u = ThreadLocalRandom.current().nextDouble();
+        double uz = u * zetan;
+        if (uz < 1.0) {
+            return 0;
+        }
+        if (uz < 1.0 + Math.pow(0.5, theta)) {
+            return 1;
+        }
+        return (int) Math.min(keys - 1, (long) (keys * Math.pow(eta * u - eta + 1, alpha)));
+    }
+
+    @Override
+    public int nextKey() {
+        // FNV-1a hash of the rank, to scatter the popular keys
+        long hash = 0xCBF29CE484222325L;
+        int rank = nextRank();
+        for (int i = 0; i < 4; i++) {
+            hash ^= (rank >>> (i * 8)) & 0xFF;
+            hash *= 0x100000001B3L;
+        }
+        return (int) Math.floorMod(hash, (long) keys);
+    }
+}
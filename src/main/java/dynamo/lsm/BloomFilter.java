@@ -0,0 +1,82 @@
+package dynamo.lsm;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A bloom filter over the keys of a SortedTable: a negative answer means the key is not
+ * in the table, so point lookups skip the tables that cannot contain it without any I/O.
+ */
+class BloomFilter {
+
+    private long[] bits;
+    private int hashes;
+
+    /**
+     * @param keys the number of keys that will be added
+     * @param bitsPerKey bits of the filter per key (10 gives about 1% of false positives)
+     */
+    BloomFilter(int keys, int bitsPerKey) {
+        long size = Math.max(64, (long) keys * bitsPerKey);
+        this.bits = new long[(int) ((size + 63) / 64)];
+        // the optimal number of hash functions is ln(2) * bits per key
+        this.hashes = Math.max(1, Math.min(30, (int) Math.round(bitsPerKey * 0.69)));
+    }
+
+    private BloomFilter(long[] bits, int hashes) {
+        this.bits = bits;
+        this.hashes = hashes;
+    }
+
+    void add(int key) {
+        long hash = mix(key);
+        long size = (long) bits.length * 64;
+        for (int i = 0; i < hashes; i++) {
+            long bit = ((hash + i * (hash >>> 32)) & Long.MAX_VALUE) % size;
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    boolean mightContain(int key) {
+        long hash = mix(key);
+        long size = (long) bits.length * 64;
+        for (int i = 0; i < hashes; i++) {
+            long bit = ((hash + i * (hash >>> 32)) & Long.MAX_VALUE) % size;
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * the finalizer of MurmurHash3, so that close keys are spread over the whole filter
+     */
+    private static long mix(int key) {
+        long h = key;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeInt(hashes);
+        out.writeInt(bits.length);
+        for (long word : bits) {
+            out.writeLong(word);
+        }
+    }
+
+    static BloomFilter read(DataInput in) throws IOException {
+        int hashes = in.readInt();
+        long[] bits = new long[in.readInt()];
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] = in.readLong();
+        }
+        return new BloomFilter(bits, hashes);
+    }
+}
@@ -0,0 +1,72 @@
+package dynamo.lsm;
+
+/**
+ * Estimates how often every key has been accessed recently (a count-min sketch of 4-bit
+ * counters), for the admission policy of the HotSetCache. The counters are halved
+ * periodically, so that keys which were hot long ago are forgotten.
+ */
+class FrequencySketch {
+
+    private static final int DEPTH = 4;
+    private static final int MAX_COUNT = 15;
+    private static final long[] SEEDS = {0x97cb3127L, 0xb492b66fL, 0x9ae16a3bL, 0xc3a5c85cL};
+
+    private byte[][] counters;
+    private int mask;
+    // number of increments before the counters are halved
+    private int sampleSize;
+    private int increments = 0;
+
+    /**
+     * @param expectedKeys the number of keys expected to be tracked
+     */
+    FrequencySketch(int expectedKeys) {
+        int width = Integer.highestOneBit(Math.max(64, Math.min(expectedKeys, 1 << 24)) - 1) << 1;
+        this.counters = new byte[DEPTH][width];
+        this.mask = width - 1;
+        this.sampleSize = 10 * width;
+    }
+
+    private int index(int key, int row) {
+        long h = (key + SEEDS[row]) * 0x9e3779b97f4a7c15L;
+        h ^= h >>> 32;
+        return (int) h & mask;
+    }
+
+    /**
+     * Records an access to a key
+     */
+    void increment(int key) {
+        boolean incremented = false;
+        for (int row = 0; row < DEPTH; row++) {
+            int i = index(key, row);
+            if (counters[row][i] < MAX_COUNT) {
+                counters[row][i]++;
+                incremented = true;
+            }
+        }
+        if (incremented && ++increments >= sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * @return the estimated number of recent accesses to a key
+     */
+    int frequency(int key) {
+        int frequency = MAX_COUNT;
+        for (int row = 0; row < DEPTH; row++) {
+            frequency = Math.min(frequency, counters[row][index(key, row)]);
+        }
+        return frequency;
+    }
+
+    private void reset() {
+        for (byte[] row : counters) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] >>= 1;
+            }
+        }
+        increments /= 2;
+    }
+}
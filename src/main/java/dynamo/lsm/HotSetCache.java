@@ -0,0 +1,263 @@
+package dynamo.lsm;
+
+import dynamo.metrics.MetricsRegistry;
+import dynamo.nodeutilities.Item;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntPredicate;
+
+/**
+ * Keeps the hot items in memory, within a budget of heap bytes. It is a segmented LRU:
+ * new items enter the probation segment and are promoted to the protected one (up to 80%
+ * of the budget) when read again, so that items read once do not push out the hot ones.
+ * When the cache is full, a new item is admitted only if it has been accessed more often
+ * (according to a FrequencySketch) than each item it would evict (TinyLFU): a burst of
+ * reads of cold keys does not flush the hot set.
+ *
+ * Not thread-safe: it is used by the thread of the owning actor only.
+ */
+class HotSetCache {
+
+    private static final double PROTECTED_FRACTION = 0.8;
+    // the hit ratio gauge is computed over this many lookups
+    private static final int HIT_RATIO_WINDOW = 1024;
+
+    private long maxBytes;
+    // both in access order: the first entry is the least recently used
+    private LinkedHashMap<Integer, Item> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private LinkedHashMap<Integer, Item> protectedSegment = new LinkedHashMap<>(16, 0.75f, true);
+    private long probationBytes = 0;
+    private long protectedBytes = 0;
+    private FrequencySketch sketch;
+
+    private MetricsRegistry metrics;
+    private String hitsMetric;
+    private String missesMetric;
+    private String evictionsMetric;
+    private String rejectionsMetric;
+    private String hitRatioMetric;
+    private String bytesMetric;
+    private String itemsMetric;
+    private int windowLookups = 0;
+    private int windowHits = 0;
+
+    /**
+     * @param maxBytes the heap budget of the cache
+     * @param metrics where the hits, misses, evictions and size are published
+     * @param metricsPrefix the prefix of the names of the metrics
+     */
+    HotSetCache(long maxBytes, MetricsRegistry metrics, String metricsPrefix) {
+        this.maxBytes = maxBytes;
+        // a rough guess of the number of items fitting in the budget
+        this.sketch = new FrequencySketch((int) Math.min(Integer.MAX_VALUE, maxBytes / 128));
+        this.metrics = metrics;
+        this.hitsMetric = metricsPrefix + ".cache.hits";
+        this.missesMetric = metricsPrefix + ".cache.misses";
+        this.evictionsMetric = metricsPrefix + ".cache.evictions";
+        this.rejectionsMetric = metricsPrefix + ".cache.rejections";
+        this.hitRatioMetric = metricsPrefix + ".cache.hit-ratio";
+        this.bytesMetric = metricsPrefix + ".cache.bytes";
+        this.itemsMetric = metricsPrefix + ".cache.items";
+    }
+
+    /**
+     * @return an estimate of the heap used by an item in the cache, entry included
+     */
+    static long heapBytes(Item item) {
+        return 120 + 2L * item.getValue().length();
+    }
+
+    /**
+     * Looks an item up, promoting it to the protected segment if it is in probation
+     * @param key the key of the item
+     * @return the item, or null if it is not in the cache
+     */
+    Item get(int key) {
+        sketch.increment(key);
+        Item item = protectedSegment.get(key);
+        if (item == null) {
+            item = probation.remove(key);
+            if (item != null) {
+                long size = heapBytes(item);
+                probationBytes -= size;
+                protectedSegment.put(key, item);
+                protectedBytes += size;
+                demote();
+            }
+        }
+        lookup(item != null);
+        return item;
+    }
+
+    /**
+     * Offers an item read from disk to the cache, which admits it if there is room for it or
+     * if it is more frequently accessed than every item it would evict: nothing is evicted
+     * unless the item is admitted
+     * @param item the item
+     */
+    void admit(Item item) {
+        long size = heapBytes(item);
+        if (size > maxBytes) {
+            metrics.increment(rejectionsMetric);
+            return;
+        }
+        int frequency = sketch.frequency(item.getKey());
+        ArrayList<Integer> victims = victims(probationBytes + protectedBytes + size - maxBytes, item.getKey());
+        for (Integer victim : victims) {
+            if (frequency <= sketch.frequency(victim)) {
+                metrics.increment(rejectionsMetric);
+                return;
+            }
+        }
+        evict(victims);
+        probation.put(item.getKey(), item);
+        probationBytes += size;
+        publishSize();
+    }
+
+    /**
+     * Replaces an item in place, if it is in the cache (the writes are served by the memtable,
+     * so they do not bring items into the cache). If the new version is larger, the least
+     * recently used items are evicted to make room for it
+     * @param item the new version of the item
+     */
+    void updateIfPresent(Item item) {
+        sketch.increment(item.getKey());
+        long size = heapBytes(item);
+        Item old = protectedSegment.get(item.getKey());
+        if (old != null) {
+            protectedSegment.put(item.getKey(), item);
+            protectedBytes += size - heapBytes(old);
+        } else {
+            old = probation.get(item.getKey());
+            if (old == null) {
+                return;
+            }
+            probation.put(item.getKey(), item);
+            probationBytes += size - heapBytes(old);
+        }
+        if (size > maxBytes) {
+            remove(item.getKey());
+        } else {
+            evict(victims(probationBytes + protectedBytes - maxBytes, item.getKey()));
+            demote();
+        }
+        publishSize();
+    }
+
+    /**
+     * @return the segments, the probation one first
+     */
+    private List<LinkedHashMap<Integer, Item>> segments() {
+        return Arrays.asList(probation, protectedSegment);
+    }
+
+    /**
+     * @param bytes the bytes to be freed
+     * @param excluded the key of the item that must not be evicted
+     * @return the keys of the items to be evicted to free the bytes, least recently used first:
+     * the probation segment, then the protected one
+     */
+    private ArrayList<Integer> victims(long bytes, int excluded) {
+        ArrayList<Integer> victims = new ArrayList<>();
+        for (LinkedHashMap<Integer, Item> segment : segments()) {
+            // iterating does not change the access order
+            for (Map.Entry<Integer, Item> entry : segment.entrySet()) {
+                if (bytes <= 0) {
+                    return victims;
+                }
+                if (entry.getKey() != excluded) {
+                    victims.add(entry.getKey());
+                    bytes -= heapBytes(entry.getValue());
+                }
+            }
+        }
+        return victims;
+    }
+
+    private void evict(List<Integer> victims) {
+        for (Integer victim : victims) {
+            remove(victim);
+            metrics.increment(evictionsMetric);
+        }
+    }
+
+    /**
+     * Removes the items whose key matches a condition
+     * @param condition the condition
+     */
+    void removeIf(IntPredicate condition) {
+        for (LinkedHashMap<Integer, Item> segment : segments()) {
+            Iterator<Map.Entry<Integer, Item>> entries = segment.entrySet().iterator();
+            while (entries.hasNext()) {
+                Map.Entry<Integer, Item> entry = entries.next();
+                if (condition.test(entry.getKey())) {
+                    if (segment == probation) {
+                        probationBytes -= heapBytes(entry.getValue());
+                    } else {
+                        protectedBytes -= heapBytes(entry.getValue());
+                    }
+                    entries.remove();
+                }
+            }
+        }
+        publishSize();
+    }
+
+    private void remove(int key) {
+        Item item = probation.remove(key);
+        if (item != null) {
+            probationBytes -= heapBytes(item);
+            return;
+        }
+        item = protectedSegment.remove(key);
+        if (item != null) {
+            protectedBytes -= heapBytes(item);
+        }
+    }
+
+    /**
+     * Moves the least recently used protected items back to probation, while the protected
+     * segment is over its share of the budget
+     */
+    private void demote() {
+        while (protectedBytes > maxBytes * PROTECTED_FRACTION && protectedSegment.size() > 1) {
+            Iterator<Map.Entry<Integer, Item>> eldest = protectedSegment.entrySet().iterator();
+            Item item = eldest.next().getValue();
+            eldest.remove();
+            long size = heapBytes(item);
+            protectedBytes -= size;
+            probation.put(item.getKey(), item);
+            probationBytes += size;
+        }
+    }
+
+    private void lookup(boolean hit) {
+        metrics.increment(hit ? hitsMetric : missesMetric);
+        windowLookups++;
+        if (hit) {
+            windowHits++;
+        }
+        if (windowLookups == HIT_RATIO_WINDOW) {
+            metrics.setGauge(hitRatioMetric, (double) windowHits / windowLookups);
+            windowLookups = 0;
+            windowHits = 0;
+        }
+    }
+
+    private void publishSize() {
+        metrics.setGauge(bytesMetric, probationBytes + protectedBytes);
+        metrics.setGauge(itemsMetric, probation.size() + protectedSegment.size());
+    }
+
+    @Override
+    public String toString() {
+        return "cache: " + (probation.size() + protectedSegment.size()) + " items, "
+                + (probationBytes + protectedBytes) + "/" + maxBytes + " bytes";
+    }
+}
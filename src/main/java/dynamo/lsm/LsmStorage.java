@@ -0,0 +1,634 @@
+package dynamo.lsm;
+
+import dynamo.metrics.MetricsRegistry;
+import dynamo.nodeutilities.Compression;
+import dynamo.nodeutilities.DynamoLogger;
+import dynamo.nodeutilities.Item;
+import dynamo.nodeutilities.Ring;
+import dynamo.nodeutilities.StorageEngine;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+
+/**
+ * A log-structured merge StorageEngine, for datasets larger than memory. Updates go to an
+ * in-memory memtable (and to a write-ahead log, so that they survive a crash); when the
+ * memtable is full it is flushed in background to an immutable SortedTable, and when there
+ * are too many tables they are compacted into one. Point lookups check the memtables and
+ * then the tables from the newest, skipping the ones whose bloom filter excludes the key.
+ *
+ * All the files are in a directory of their own: the tables, the write-ahead logs and a
+ * MANIFEST listing the live tables and the last log already flushed to them.
+ * The methods of the StorageEngine are called by a single thread (the owning actor), while
+ * flushes and compactions run on a background thread.
+ */
+public class LsmStorage implements StorageEngine {
+
+    private static final String MANIFEST = "MANIFEST";
+
+    private File directory;
+    private int memtableItems;
+    // the estimated heap of the memtable triggering a flush, 0 for no limit
+    private long memtableBytes = 0;
+    private int compactionThreshold;
+    private int bitsPerKey;
+    private int indexInterval;
+    // encodes the values on disk
+    private Compression compression;
+
+    private volatile ConcurrentSkipListMap<Integer, Record> memtable = new ConcurrentSkipListMap<>();
+    // estimated heap used by the records of the memtable
+    private long memtableHeap = 0;
+    // full memtables being flushed, from the newest
+    private volatile List<ConcurrentSkipListMap<Integer, Record>> flushing = new ArrayList<>();
+    // the tables, from the newest. Only the background thread changes them
+    private volatile List<SortedTable> tables = new ArrayList<>();
+    // held while reading the tables, so that compacted tables are not closed in the meantime
+    private ReentrantReadWriteLock tablesLock = new ReentrantReadWriteLock();
+    // flushes and compactions
+    private ExecutorService background = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "lsm-compaction");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // write-ahead log of the current memtable
+    private DataOutputStream log;
+    private long logSequence;
+    // sequence numbers of the files (tables and logs)
+    private long nextSequence = 1;
+
+    private MetricsRegistry metrics;
+    // names of the metrics, built once since some are updated at every lookup
+    private String bloomNegativesMetric;
+    private String bloomFalsePositivesMetric;
+    private String tablesMetric;
+    private String memtableMetric;
+    private String bytesMetric;
+    private String flushesMetric;
+    private String compactionsMetric;
+    private String compactionTimeMetric;
+    private String logErrorsMetric;
+    private String readErrorsMetric;
+    private String backgroundErrorsMetric;
+
+    // the flushes and the compactions have no caller to report their failures to
+    private DynamoLogger logger = new DynamoLogger();
+    // the last failure of a flush or of a compaction, reported by close
+    private volatile IOException backgroundError;
+
+    /**
+     * @param directory the directory of the files of the storage
+     * @param recover true to reopen the files left by a previous run (recovery after a crash),
+     *                false to start empty
+     * @param memtableItems the number of items in the memtable triggering a flush
+     * @param compactionThreshold the number of tables triggering a compaction
+     * @param bitsPerKey the bits of the bloom filters per key
+     * @param indexInterval the number of records between two keys of the sparse index of the tables
+     * @param compression encodes the values on disk
+     * @param metrics where the metrics of the storage are published
+     * @param metricsPrefix the prefix of the names of the metrics
+     * @throws IOException if the files cannot be read or written
+     */
+    public LsmStorage(String directory, boolean recover, int memtableItems, int compactionThreshold,
+                      int bitsPerKey, int indexInterval, Compression compression, MetricsRegistry metrics,
+                      String metricsPrefix) throws IOException {
+        this.directory = new File(directory);
+        this.memtableItems = memtableItems;
+        this.compactionThreshold = compactionThreshold;
+        this.bitsPerKey = bitsPerKey;
+        this.indexInterval = indexInterval;
+        this.compression = compression;
+        this.metrics = metrics;
+        this.bloomNegativesMetric = metricsPrefix + ".lsm.bloom.negatives";
+        this.bloomFalsePositivesMetric = metricsPrefix + ".lsm.bloom.false-positives";
+        this.tablesMetric = metricsPrefix + ".lsm.tables";
+        this.memtableMetric = metricsPrefix + ".lsm.memtable.items";
+        this.bytesMetric = metricsPrefix + ".bytes";
+        this.flushesMetric = metricsPrefix + ".lsm.flushes";
+        this.compactionsMetric = metricsPrefix + ".lsm.compactions";
+        this.compactionTimeMetric = metricsPrefix + ".lsm.compaction.us";
+        this.logErrorsMetric = metricsPrefix + ".lsm.log.errors";
+        this.readErrorsMetric = metricsPrefix + ".lsm.read.errors";
+        this.backgroundErrorsMetric = metricsPrefix + ".lsm.background.errors";
+
+        if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        if (recover) {
+            open();
+        } else {
+            for (File file : listFiles()) {
+                Files.delete(file.toPath());
+            }
+        }
+        this.logSequence = nextSequence();
+        this.log = openLog(logSequence);
+        publishMetrics();
+    }
+
+    /**
+     * Bounds the memtable by its estimated heap too, not only by its number of items
+     * @param memtableBytes the estimated heap of the memtable triggering a flush, 0 for no limit
+     */
+    public void setMemtableBytes(long memtableBytes) {
+        this.memtableBytes = memtableBytes;
+    }
+
+    /**
+     * Reopens the tables in the MANIFEST and moves the content of the write-ahead logs not
+     * flushed yet to a new table; the files left by an interrupted flush or compaction are deleted
+     */
+    private void open() throws IOException {
+        File manifest = new File(directory, MANIFEST);
+        long flushedLog = 0;
+        Set<String> live = new HashSet<>();
+        live.add(MANIFEST);
+        ArrayList<SortedTable> opened = new ArrayList<>();
+        if (manifest.exists()) {
+            try (BufferedReader in = new BufferedReader(new FileReader(manifest))) {
+                flushedLog = Long.parseLong(in.readLine());
+                String line;
+                while ((line = in.readLine()) != null) {
+                    long sequence = Long.parseLong(line);
+                    opened.add(SortedTable.open(tableFile(sequence), sequence, compression));
+                    live.add(tableFile(sequence).getName());
+                    nextSequence = Math.max(nextSequence, sequence + 1);
+                }
+            }
+        }
+        this.tables = opened;
+
+        // replay the logs, from the oldest
+        TreeMap<Long, File> logs = new TreeMap<>();
+        for (File file : listFiles()) {
+            if (file.getName().startsWith("log-")) {
+                long sequence = Long.parseLong(file.getName().substring(4, file.getName().length() - 4));
+                nextSequence = Math.max(nextSequence, sequence + 1);
+                if (sequence > flushedLog) {
+                    logs.put(sequence, file);
+                    continue;
+                }
+            }
+            if (!live.contains(file.getName())) {
+                Files.delete(file.toPath());
+            }
+        }
+        ConcurrentSkipListMap<Integer, Record> replayed = new ConcurrentSkipListMap<>();
+        for (File file : logs.values()) {
+            replay(file, replayed, compression);
+        }
+        if (!replayed.isEmpty()) {
+            long sequence = nextSequence();
+            SortedTable table = SortedTable.write(tableFile(sequence), sequence, replayed.entrySet().iterator(),
+                    replayed.size(), bitsPerKey, indexInterval, compression);
+            ArrayList<SortedTable> newTables = new ArrayList<>(tables);
+            newTables.add(0, table);
+            this.tables = newTables;
+        }
+        if (!logs.isEmpty()) {
+            writeManifest(logs.lastKey());
+            for (File file : logs.values()) {
+                Files.delete(file.toPath());
+            }
+        }
+    }
+
+    /**
+     * Reads a write-ahead log into a memtable, up to the last complete record
+     */
+    private static void replay(File file, Map<Integer, Record> memtable, Compression compression)
+            throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                int key = in.readInt();
+                memtable.put(key, Record.read(in, compression));
+            }
+        } catch (EOFException e) {
+            // the end of the log, possibly with a record truncated by the crash
+        }
+    }
+
+    /**
+     * @return a new sequence number for a file, from the thread of the owner or the background one
+     */
+    private synchronized long nextSequence() {
+        return nextSequence++;
+    }
+
+    private File[] listFiles() {
+        File[] files = directory.listFiles();
+        return files == null ? new File[0] : files;
+    }
+
+    private File tableFile(long sequence) {
+        return new File(directory, "table-" + sequence + ".sst");
+    }
+
+    private File logFile(long sequence) {
+        return new File(directory, "log-" + sequence + ".log");
+    }
+
+    private DataOutputStream openLog(long sequence) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(logFile(sequence))));
+    }
+
+    /**
+     * Atomically replaces the MANIFEST with the current tables
+     * @param flushedLog the sequence number of the last write-ahead log whose content is in the tables
+     */
+    private void writeManifest(long flushedLog) throws IOException {
+        File tmp = new File(directory, MANIFEST + ".tmp");
+        try (FileOutputStream stream = new FileOutputStream(tmp)) {
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(stream));
+            out.println(flushedLog);
+            for (SortedTable table : tables) {
+                out.println(table.getSequence());
+            }
+            out.flush();
+            stream.getFD().sync();
+        }
+        Files.move(tmp.toPath(), new File(directory, MANIFEST).toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public void update(int key, String value, int version) {
+        put(key, new Record(version, value), true);
+    }
+
+    /**
+     * Writes the items to the log with a single flush
+     */
+    @Override
+    public void initializeStorage(Iterable<Item> items) {
+        for (Item item : items) {
+            put(item.getKey(), new Record(item.getVersion(), item.getValue()), false);
+        }
+        flushLog();
+    }
+
+    /**
+     * Writes a record to the log and to the memtable, which is flushed if full
+     * @param flush true to flush the log, false if the caller flushes it after a batch of records
+     * @throws UncheckedIOException if the record cannot be written to the log: then it is not
+     * in the memtable either, the write failed
+     */
+    private void put(int key, Record record, boolean flush) {
+        try {
+            Record.write(log, key, record, compression);
+        } catch (IOException e) {
+            metrics.increment(logErrorsMetric);
+            throw new UncheckedIOException(e);
+        }
+        if (flush) {
+            flushLog();
+        }
+        Record replaced = memtable.put(key, record);
+        memtableHeap += record.heapBytes() - (replaced != null ? replaced.heapBytes() : 0);
+        if (memtable.size() >= memtableItems || (memtableBytes > 0 && memtableHeap >= memtableBytes)) {
+            freeze();
+        }
+        metrics.setGauge(memtableMetric, memtable.size());
+    }
+
+    /**
+     * Hands the records written to the log to the operating system, as the whole file of the other Storage
+     * @throws UncheckedIOException if the log cannot be written
+     */
+    private void flushLog() {
+        try {
+            log.flush();
+        } catch (IOException e) {
+            metrics.increment(logErrorsMetric);
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Replaces the memtable with an empty one and flushes it in background
+     * @throws UncheckedIOException if the log cannot be rotated. If the new log cannot be opened
+     * nothing changes (the next write tries again); if the old one cannot be closed, the memtable
+     * is flushed anyway, which makes the old log useless
+     */
+    private void freeze() {
+        final ConcurrentSkipListMap<Integer, Record> full = memtable;
+        final long fullLog = logSequence;
+        final long newLog = nextSequence();
+        DataOutputStream old = log;
+        try {
+            log = openLog(newLog);
+        } catch (IOException e) {
+            metrics.increment(logErrorsMetric);
+            throw new UncheckedIOException(e);
+        }
+        logSequence = newLog;
+        IOException closing = null;
+        try {
+            old.close();
+        } catch (IOException e) {
+            metrics.increment(logErrorsMetric);
+            closing = e;
+        }
+        synchronized (this) {
+            ArrayList<ConcurrentSkipListMap<Integer, Record>> newFlushing = new ArrayList<>(flushing);
+            newFlushing.add(0, full);
+            flushing = newFlushing;
+        }
+        memtable = new ConcurrentSkipListMap<>();
+        memtableHeap = 0;
+        final long sequence = nextSequence();
+        background.execute(() -> flush(full, fullLog, sequence));
+        if (closing != null) {
+            throw new UncheckedIOException(closing);
+        }
+    }
+
+    /**
+     * Writes a full memtable to a new table (on the background thread)
+     */
+    private void flush(ConcurrentSkipListMap<Integer, Record> full, long fullLog, long sequence) {
+        boolean compaction;
+        try {
+            SortedTable table = SortedTable.write(tableFile(sequence), sequence, full.entrySet().iterator(),
+                    full.size(), bitsPerKey, indexInterval, compression);
+            ArrayList<SortedTable> newTables = new ArrayList<>(tables);
+            newTables.add(0, table);
+            tables = newTables;
+            writeManifest(fullLog);
+            synchronized (this) {
+                ArrayList<ConcurrentSkipListMap<Integer, Record>> newFlushing = new ArrayList<>(flushing);
+                newFlushing.remove(full);
+                flushing = newFlushing;
+            }
+            Files.delete(logFile(fullLog).toPath());
+            metrics.increment(flushesMetric);
+            compaction = tables.size() >= compactionThreshold;
+        } catch (IOException e) {
+            // the memtable stays in memory (and its log on disk) until the next restart
+            backgroundFailed("flush a memtable", e);
+            return;
+        }
+        if (compaction) {
+            try {
+                compact(fullLog);
+            } catch (IOException e) {
+                // the tables stay as they are, the next flush compacts them again
+                backgroundFailed("compact the tables", e);
+            }
+        }
+        publishMetrics();
+    }
+
+    /**
+     * Records the failure of a flush or of a compaction: it is logged and counted
+     * right away, and reported by close
+     */
+    private void backgroundFailed(String operation, IOException e) {
+        metrics.increment(backgroundErrorsMetric);
+        logger.error("Cannot {} of the storage in {}: {}", operation, directory, e.getMessage());
+        backgroundError = e;
+    }
+
+    /**
+     * Merges all the tables into one (on the background thread). Since no older record
+     * remains, the tombstones are dropped.
+     */
+    private void compact(long flushedLog) throws IOException {
+        long start = System.nanoTime();
+        List<SortedTable> old = tables;
+        long sequence = nextSequence();
+        List<Iterator<Map.Entry<Integer, Record>>> sources = new ArrayList<>();
+        int expected = 0;
+        for (SortedTable table : old) {
+            sources.add(table.iterator());
+            expected += table.getCount();
+        }
+        Iterator<Map.Entry<Integer, Record>> merged = new MergeIterator(sources);
+        Iterator<Map.Entry<Integer, Record>> live = new Iterator<Map.Entry<Integer, Record>>() {
+            private Map.Entry<Integer, Record> next = advance();
+
+            private Map.Entry<Integer, Record> advance() {
+                while (merged.hasNext()) {
+                    Map.Entry<Integer, Record> record = merged.next();
+                    if (!record.getValue().isTombstone()) {
+                        return record;
+                    }
+                }
+                return null;
+            }
+
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            public Map.Entry<Integer, Record> next() {
+                Map.Entry<Integer, Record> current = next;
+                next = advance();
+                return current;
+            }
+        };
+        SortedTable table = SortedTable.write(tableFile(sequence), sequence, live, expected, bitsPerKey,
+                indexInterval, compression);
+
+        tablesLock.writeLock().lock();
+        IOException deleting = null;
+        try {
+            tables = table.getCount() > 0 ? Collections.singletonList(table) : new ArrayList<>();
+            writeManifest(flushedLog);
+            for (SortedTable compacted : old) {
+                try {
+                    compacted.delete();
+                } catch (IOException e) {
+                    deleting = e;
+                }
+            }
+        } finally {
+            tablesLock.writeLock().unlock();
+        }
+        if (table.getCount() == 0) {
+            table.delete();
+        }
+        metrics.increment(compactionsMetric);
+        metrics.record(compactionTimeMetric, (System.nanoTime() - start) / 1000);
+        if (deleting != null) {
+            // the tables are compacted, only their files are left behind
+            throw deleting;
+        }
+    }
+
+    private void publishMetrics() {
+        long bytes = 0;
+        for (SortedTable table : tables) {
+            bytes += table.getBytes();
+        }
+        metrics.setGauge(tablesMetric, tables.size());
+        metrics.setGauge(bytesMetric, bytes);
+    }
+
+    @Override
+    public Item getItem(int key) {
+        Record record = memtable.get(key);
+        if (record == null) {
+            for (ConcurrentSkipListMap<Integer, Record> full : flushing) {
+                record = full.get(key);
+                if (record != null) {
+                    break;
+                }
+            }
+        }
+        if (record == null) {
+            record = getFromTables(key);
+        }
+        if (record == null || record.isTombstone()) {
+            return null;
+        }
+        return new Item(key, record.getValue(), record.version);
+    }
+
+    /**
+     * @throws UncheckedIOException if a table cannot be read: the record may be there, so
+     * the lookup fails instead of telling that there is none
+     */
+    private Record getFromTables(int key) {
+        tablesLock.readLock().lock();
+        try {
+            for (SortedTable table : tables) {
+                if (!table.mightContain(key)) {
+                    metrics.increment(bloomNegativesMetric);
+                    continue;
+                }
+                Record record = table.get(key);
+                if (record != null) {
+                    return record;
+                }
+                metrics.increment(bloomFalsePositivesMetric);
+            }
+        } catch (IOException e) {
+            metrics.increment(readErrorsMetric);
+            throw new UncheckedIOException(e);
+        } finally {
+            tablesLock.readLock().unlock();
+        }
+        return null;
+    }
+
+    /**
+     * Merges the memtables and the tables, reading the tables sequentially. The files of the
+     * tables are opened right away, so the iteration goes on even if they are compacted
+     * (and deleted) in the meantime.
+     * @return the live items, sorted by key: they are copies, changing them does not change the storage
+     */
+    @Override
+    public Iterator<Item> iterator() {
+        List<Iterator<Map.Entry<Integer, Record>>> sources = new ArrayList<>();
+        sources.add(memtable.entrySet().iterator());
+        for (ConcurrentSkipListMap<Integer, Record> full : flushing) {
+            sources.add(full.entrySet().iterator());
+        }
+        tablesLock.readLock().lock();
+        try {
+            for (SortedTable table : tables) {
+                sources.add(table.iterator());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            tablesLock.readLock().unlock();
+        }
+
+        final Iterator<Map.Entry<Integer, Record>> merged = new MergeIterator(sources);
+        return new Iterator<Item>() {
+            private Item next = advance();
+
+            private Item advance() {
+                while (merged.hasNext()) {
+                    Map.Entry<Integer, Record> record = merged.next();
+                    if (!record.getValue().isTombstone()) {
+                        return new Item(record.getKey(), record.getValue().getValue(), record.getValue().version);
+                    }
+                }
+                return null;
+            }
+
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            public Item next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                Item current = next;
+                next = advance();
+                return current;
+            }
+        };
+    }
+
+    @Override
+    public void removeItemsOutOfResponsibility(Integer localNodeKey, Ring localNodeRing, Integer N) {
+        // the tombstones are written once the iteration is over
+        List<Item> removed = items()
+                .filter(item -> !localNodeRing.isNodeWithinRangeFromItem(item.getKey(), localNodeKey, N))
+                .collect(Collectors.toList());
+        for (Item item : removed) {
+            put(item.getKey(), new Record(item.getVersion(), null), false);
+        }
+        flushLog();
+    }
+
+    @Override
+    public String getPathname() {
+        return directory.getPath();
+    }
+
+    /**
+     * Waits for the pending flushes and compactions, then closes the files
+     * @throws UncheckedIOException if a file cannot be closed, or if a flush or a compaction
+     * failed: the memtables not flushed are recovered from their logs at the next start
+     */
+    @Override
+    public void close() {
+        background.shutdown();
+        try {
+            background.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        IOException error = backgroundError;
+        try {
+            log.close();
+        } catch (IOException e) {
+            metrics.increment(logErrorsMetric);
+            error = e;
+        }
+        for (SortedTable table : tables) {
+            try {
+                table.close();
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+        if (error != null) {
+            throw new UncheckedIOException(error);
+        }
+    }
+
+    /**
+     * A summary of the storage: printing every item would mean reading all the tables
+     */
+    @Override
+    public String toString() {
+        return DynamoLogger.ANSI_WHITE + "Storage: \n" + DynamoLogger.ANSI_RESET
+                + "\tmemtable: " + memtable.size() + " records, " + flushing.size() + " being flushed, "
+                + tables.size() + " tables";
+    }
+}
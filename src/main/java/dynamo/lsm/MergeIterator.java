@@ -0,0 +1,69 @@
+package dynamo.lsm;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Merges sorted sources of records (memtables and tables) into a single sorted sequence,
+ * with one record per key: the one of the newest source. Tombstones are returned as well,
+ * the caller decides whether they can be dropped.
+ */
+class MergeIterator implements Iterator<Map.Entry<Integer, Record>> {
+
+    /**
+     * The next record of a source
+     */
+    private static class Head {
+        final Map.Entry<Integer, Record> record;
+        // position of the source, 0 is the newest
+        final int age;
+        final Iterator<Map.Entry<Integer, Record>> source;
+
+        Head(Map.Entry<Integer, Record> record, int age, Iterator<Map.Entry<Integer, Record>> source) {
+            this.record = record;
+            this.age = age;
+            this.source = source;
+        }
+    }
+
+    private PriorityQueue<Head> heads = new PriorityQueue<>((a, b) -> {
+        int byKey = Integer.compare(a.record.getKey(), b.record.getKey());
+        return byKey != 0 ? byKey : Integer.compare(a.age, b.age);
+    });
+
+    /**
+     * @param sources the sources, sorted by key, from the newest to the oldest
+     */
+    MergeIterator(List<Iterator<Map.Entry<Integer, Record>>> sources) {
+        for (int age = 0; age < sources.size(); age++) {
+            advance(sources.get(age), age);
+        }
+    }
+
+    private void advance(Iterator<Map.Entry<Integer, Record>> source, int age) {
+        if (source.hasNext()) {
+            heads.add(new Head(source.next(), age, source));
+        }
+    }
+
+    public boolean hasNext() {
+        return !heads.isEmpty();
+    }
+
+    public Map.Entry<Integer, Record> next() {
+        if (heads.isEmpty()) {
+            throw new NoSuchElementException();
+        }
+        Head newest = heads.poll();
+        advance(newest.source, newest.age);
+        // skip the older records of the same key
+        while (!heads.isEmpty() && heads.peek().record.getKey().equals(newest.record.getKey())) {
+            Head older = heads.poll();
+            advance(older.source, older.age);
+        }
+        return newest.record;
+    }
+}
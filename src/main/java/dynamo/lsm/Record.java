@@ -0,0 +1,101 @@
+package dynamo.lsm;
+
+import dynamo.nodeutilities.Compression;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * The version and value stored for a key by the LsmStorage. A record without value is a
+ * tombstone: the item has been removed, hiding the older records of the same key.
+ *
+ * On disk the value is encoded by a Compression. The encoded bytes are kept along with the
+ * value, so that a value is compressed once (when logged) and decompressed only if read,
+ * not when its record is flushed or compacted.
+ */
+class Record {
+
+    private static final String KIND = "storage";
+
+    final int version;
+    private volatile String value;
+    private volatile byte[] encoded;
+    private Compression compression;
+
+    /**
+     * @param version the version of the item
+     * @param value the value of the item, null for a tombstone
+     */
+    Record(int version, String value) {
+        this.version = version;
+        this.value = value;
+    }
+
+    private Record(int version, byte[] encoded, Compression compression) {
+        this.version = version;
+        this.encoded = encoded;
+        this.compression = compression;
+    }
+
+    boolean isTombstone() {
+        return value == null && encoded == null;
+    }
+
+    /**
+     * @return the value, decoded if read from disk
+     */
+    String getValue() {
+        if (value == null && encoded != null) {
+            try {
+                value = compression.decompressString(encoded, KIND);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * @return an estimate of the heap used by the record in a memtable, entry included
+     */
+    long heapBytes() {
+        String value = this.value;
+        byte[] encoded = this.encoded;
+        return 96 + (value != null ? 40 + 2L * value.length() : 0) + (encoded != null ? 16 + encoded.length : 0);
+    }
+
+    /**
+     * Writes a record, as found in the tables and in the write-ahead logs
+     * @return the number of bytes written
+     */
+    static long write(DataOutput out, int key, Record record, Compression compression) throws IOException {
+        out.writeInt(key);
+        out.writeInt(record.version);
+        if (record.isTombstone()) {
+            out.writeInt(-1);
+            return 12;
+        }
+        if (record.encoded == null) {
+            record.encoded = compression.compressString(record.value, KIND);
+        }
+        out.writeInt(record.encoded.length);
+        out.write(record.encoded);
+        return 12 + record.encoded.length;
+    }
+
+    /**
+     * Reads the rest of a record, after its key. The value is decoded when needed.
+     */
+    static Record read(DataInput in, Compression compression) throws IOException {
+        int version = in.readInt();
+        int length = in.readInt();
+        if (length < 0) {
+            return new Record(version, null);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new Record(version, bytes, compression);
+    }
+}
@@ -0,0 +1,244 @@
+package dynamo.lsm;
+
+import dynamo.nodeutilities.Compression;
+
+import java.io.*;
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable file of records sorted by key, written when a memtable is flushed or when
+ * tables are compacted. Only its sparse index (one key every index-interval records) and
+ * its bloom filter are kept in memory: a lookup reads a single block of the file.
+ *
+ * Layout: the records, the sparse index, the bloom filter, then a footer with the offset
+ * of the index, the number of records and a magic number.
+ */
+class SortedTable {
+
+    private static final int MAGIC = 0x44594e54;
+    private static final int FOOTER = 16;
+
+    private File file;
+    private long sequence;
+    private int count;
+    // end of the records, i.e. start of the index
+    private long dataEnd;
+    private int[] indexKeys;
+    private long[] indexOffsets;
+    private BloomFilter bloom;
+    private RandomAccessFile in;
+    // decodes the values of the records
+    private Compression compression;
+
+    private SortedTable(File file, long sequence, Compression compression) {
+        this.file = file;
+        this.sequence = sequence;
+        this.compression = compression;
+    }
+
+    /**
+     * Writes a table (to a temporary file, renamed once complete) and opens it
+     * @param file the file of the table
+     * @param sequence the sequence number of the table
+     * @param records the records, sorted by key
+     * @param expected an upper bound of the number of records, to size the bloom filter
+     * @param bitsPerKey the bits of the bloom filter per key
+     * @param indexInterval the number of records between two keys of the sparse index
+     * @param compression encodes the values of the records
+     * @return the table
+     * @throws IOException if the file cannot be written
+     */
+    static SortedTable write(File file, long sequence, Iterator<Map.Entry<Integer, Record>> records,
+                             int expected, int bitsPerKey, int indexInterval, Compression compression)
+            throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        BloomFilter bloom = new BloomFilter(expected, bitsPerKey);
+        int count = 0;
+        long offset = 0;
+        int[] indexKeys = new int[expected / indexInterval + 1];
+        long[] indexOffsets = new long[indexKeys.length];
+        int indexSize = 0;
+
+        try (FileOutputStream stream = new FileOutputStream(tmp)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 64 * 1024));
+            while (records.hasNext()) {
+                Map.Entry<Integer, Record> record = records.next();
+                if (count % indexInterval == 0) {
+                    indexKeys[indexSize] = record.getKey();
+                    indexOffsets[indexSize] = offset;
+                    indexSize++;
+                }
+                bloom.add(record.getKey());
+                offset += Record.write(out, record.getKey(), record.getValue(), compression);
+                count++;
+            }
+            out.writeInt(indexSize);
+            for (int i = 0; i < indexSize; i++) {
+                out.writeInt(indexKeys[i]);
+                out.writeLong(indexOffsets[i]);
+            }
+            bloom.write(out);
+            out.writeLong(offset);
+            out.writeInt(count);
+            out.writeInt(MAGIC);
+            out.flush();
+            stream.getFD().sync();
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Cannot rename " + tmp + " to " + file);
+        }
+        return open(file, sequence, compression);
+    }
+
+    /**
+     * Opens a table, reading its index and bloom filter
+     * @param file the file of the table
+     * @param sequence the sequence number of the table
+     * @param compression decodes the values of the records
+     * @return the table
+     * @throws IOException if the file cannot be read or is corrupted
+     */
+    static SortedTable open(File file, long sequence, Compression compression) throws IOException {
+        SortedTable table = new SortedTable(file, sequence, compression);
+        table.in = new RandomAccessFile(file, "r");
+        RandomAccessFile in = table.in;
+
+        in.seek(in.length() - FOOTER);
+        table.dataEnd = in.readLong();
+        table.count = in.readInt();
+        if (in.readInt() != MAGIC) {
+            in.close();
+            throw new IOException("Corrupted table " + file);
+        }
+
+        try (DataInputStream meta = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file), 64 * 1024))) {
+            long skipped = 0;
+            while (skipped < table.dataEnd) {
+                skipped += meta.skip(table.dataEnd - skipped);
+            }
+            int indexSize = meta.readInt();
+            table.indexKeys = new int[indexSize];
+            table.indexOffsets = new long[indexSize];
+            for (int i = 0; i < indexSize; i++) {
+                table.indexKeys[i] = meta.readInt();
+                table.indexOffsets[i] = meta.readLong();
+            }
+            table.bloom = BloomFilter.read(meta);
+        }
+        return table;
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    long getBytes() {
+        return file.length();
+    }
+
+    boolean mightContain(int key) {
+        return bloom.mightContain(key);
+    }
+
+    /**
+     * Looks a key up, reading the block of the sparse index that may contain it
+     * @param key the key
+     * @return the record of the key, or null if it is not in the table
+     * @throws IOException if the file cannot be read
+     */
+    synchronized Record get(int key) throws IOException {
+        // the last indexed key not greater than the key
+        int low = 0;
+        int high = indexKeys.length - 1;
+        int block = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (indexKeys[mid] <= key) {
+                block = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (block < 0) {
+            return null;
+        }
+
+        long start = indexOffsets[block];
+        long end = block + 1 < indexOffsets.length ? indexOffsets[block + 1] : dataEnd;
+        byte[] bytes = new byte[(int) (end - start)];
+        in.seek(start);
+        in.readFully(bytes);
+
+        DataInputStream records = new DataInputStream(new ByteArrayInputStream(bytes));
+        while (records.available() > 0) {
+            int current = records.readInt();
+            Record record = Record.read(records, compression);
+            if (current == key) {
+                return record;
+            } else if (current > key) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the records of the table, sorted by key, read sequentially from the file
+     * @throws IOException if the file cannot be read
+     */
+    Iterator<Map.Entry<Integer, Record>> iterator() throws IOException {
+        final DataInputStream records = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file), 64 * 1024));
+        return new Iterator<Map.Entry<Integer, Record>>() {
+            private int read = 0;
+
+            public boolean hasNext() {
+                if (read < count) {
+                    return true;
+                }
+                try {
+                    records.close();
+                } catch (IOException ignored) {
+                }
+                return false;
+            }
+
+            public Map.Entry<Integer, Record> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                try {
+                    int key = records.readInt();
+                    read++;
+                    return new AbstractMap.SimpleImmutableEntry<>(key, Record.read(records, compression));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+    }
+
+    synchronized void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Closes the table and deletes its file, once it has been compacted
+     * @throws IOException if the file cannot be closed or deleted
+     */
+    void delete() throws IOException {
+        close();
+        if (!file.delete()) {
+            throw new IOException("Cannot delete " + file);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package dynamo.lsm;
+
+import dynamo.metrics.MetricsRegistry;
+import dynamo.nodeutilities.Item;
+import dynamo.nodeutilities.Ring;
+import dynamo.nodeutilities.StorageEngine;
+
+import java.io.UncheckedIOException;
+import java.util.HashSet;
+import java.util.Iterator;
+
+/**
+ * A StorageEngine bounded in heap (the "tiered" engine): all the items are kept on disk by
+ * an LsmStorage, whose memtable is bounded in bytes, and the hot ones are kept in memory by
+ * a HotSetCache. Together they stay within the memory budget of the shard, so that a node
+ * can hold more data than its heap.
+ *
+ * The bulk operations read the disk directly, so that they do not flush the hot set.
+ */
+public class TieredStorage implements StorageEngine {
+
+    private LsmStorage disk;
+    private HotSetCache cache;
+
+    /**
+     * @param disk the storage of all the items, already bounded in heap (see LsmStorage.setMemtableBytes)
+     * @param cacheBytes the heap budget of the cache of the hot items
+     * @param metrics where the metrics of the cache are published
+     * @param metricsPrefix the prefix of the names of the metrics
+     */
+    public TieredStorage(LsmStorage disk, long cacheBytes, MetricsRegistry metrics, String metricsPrefix) {
+        this.disk = disk;
+        this.cache = new HotSetCache(cacheBytes, metrics, metricsPrefix);
+    }
+
+    @Override
+    public void update(int key, String value, int version) {
+        disk.update(key, value, version);
+        cache.updateIfPresent(new Item(key, value, version));
+    }
+
+    @Override
+    public void initializeStorage(Iterable<Item> items) {
+        try {
+            disk.initializeStorage(items);
+        } catch (UncheckedIOException e) {
+            // some of the items may be stored: the cache must not keep their old versions
+            HashSet<Integer> keys = new HashSet<>();
+            for (Item item : items) {
+                keys.add(item.getKey());
+            }
+            cache.removeIf(keys::contains);
+            throw e;
+        }
+        for (Item item : items) {
+            cache.updateIfPresent(new Item(item.getKey(), item.getValue(), item.getVersion()));
+        }
+    }
+
+    @Override
+    public Item getItem(int key) {
+        Item item = cache.get(key);
+        if (item == null) {
+            item = disk.getItem(key);
+            if (item != null) {
+                cache.admit(item);
+            }
+        }
+        return item;
+    }
+
+    @Override
+    public void removeItemsOutOfResponsibility(Integer localNodeKey, Ring localNodeRing, Integer N) {
+        disk.removeItemsOutOfResponsibility(localNodeKey, localNodeRing, N);
+        cache.removeIf(key -> !localNodeRing.isNodeWithinRangeFromItem(key, localNodeKey, N));
+    }
+
+    @Override
+    public Iterator<Item> iterator() {
+        return disk.iterator();
+    }
+
+    @Override
+    public String getPathname() {
+        return disk.getPathname();
+    }
+
+    @Override
+    public void close() {
+        disk.close();
+    }
+
+    @Override
+    public String toString() {
+        return disk.toString() + ", " + cache.toString();
+    }
+}
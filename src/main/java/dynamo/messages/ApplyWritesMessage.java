@@ -0,0 +1,10 @@
+package dynamo.messages;
+
+import java.io.Serializable;
+
+/**
+ * Message sent by a storage shard to itself when it receives a replica write: by the time it is
+ * processed, the writes received in the meantime have been batched and can be applied together
+ */
+public class ApplyWritesMessage implements Serializable {
+}
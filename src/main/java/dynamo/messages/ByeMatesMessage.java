@@ -1,36 +1,44 @@
 package dynamo.messages;
 
-import dynamo.nodeutilities.Item;
+import akka.dispatch.ControlMessage;
+import dynamo.nodeutilities.CompressedItems;
 
 import java.io.Serializable;
-import java.util.ArrayList;
 
 /**
  * Message to announce everyone that a leaving operation is started, and to share own Storage
  */
-public class ByeMatesMessage implements Serializable {
+public class ByeMatesMessage implements Serializable, ControlMessage {
 
     private Integer key;
-    private ArrayList<Item> items;
+    private CompressedItems items;
+    // the membership epoch of the ring without the leaving Peer
+    private long epoch;
 
-    public ByeMatesMessage(Integer key, ArrayList<Item> items) {
+    public ByeMatesMessage(Integer key, CompressedItems items, long epoch) {
         this.key = key;
         this.items = items;
+        this.epoch = epoch;
     }
 
     public Integer getKey() {
         return key;
     }
 
-    public ArrayList<Item> getItems() {
+    public CompressedItems getItems() {
         return items;
     }
 
+    public long getEpoch() {
+        return epoch;
+    }
+
     @Override
     public String toString() {
         return "ByeMatesMessage{" +
                 "key=" + key +
                 ", items=" + items +
+                ", epoch=" + epoch +
                 '}';
     }
 }
@@ -0,0 +1,26 @@
+package dynamo.messages;
+
+import java.io.Serializable;
+
+/**
+ * Request of a client to read an item, sent to the node coordinating it
+ */
+public class ClientReadMessage implements Serializable {
+
+    private final int key;
+
+    public ClientReadMessage(int key) {
+        this.key = key;
+    }
+
+    public int getKey() {
+        return key;
+    }
+
+    @Override
+    public String toString() {
+        return "ClientReadMessage{" +
+                "key=" + key +
+                '}';
+    }
+}
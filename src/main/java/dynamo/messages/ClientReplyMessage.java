@@ -0,0 +1,71 @@
+package dynamo.messages;
+
+import java.io.Serializable;
+
+/**
+ * Reply of a coordinator to a ClientReadMessage (with the item) or to a ClientWriteMessage,
+ * or to either of them if the quorum was not reached in time (not successful)
+ */
+public class ClientReplyMessage implements Serializable {
+
+    private final boolean success;
+    // the item read, for the successful reads
+    private final int key;
+    private final String value;
+    private final int version;
+    // membership epoch of the coordinator, lets clients detect a stale ring
+    private final long epoch;
+
+    /**
+     * Reply to a write, or to an operation that failed
+     */
+    public ClientReplyMessage(boolean success, long epoch) {
+        this(success, 0, null, 0, epoch);
+    }
+
+    /**
+     * Reply to a successful read
+     */
+    public ClientReplyMessage(int key, String value, int version, long epoch) {
+        this(true, key, value, version, epoch);
+    }
+
+    private ClientReplyMessage(boolean success, int key, String value, int version, long epoch) {
+        this.success = success;
+        this.key = key;
+        this.value = value;
+        this.version = version;
+        this.epoch = epoch;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public int getKey() {
+        return key;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    @Override
+    public String toString() {
+        return "ClientReplyMessage{" +
+                "success=" + success +
+                ", key=" + key +
+                ", value='" + value + '\'' +
+                ", version=" + version +
+                ", epoch=" + epoch +
+                '}';
+    }
+}
@@ -0,0 +1,33 @@
+package dynamo.messages;
+
+import java.io.Serializable;
+
+/**
+ * Request of a client to update (or insert) an item, sent to the node coordinating it
+ */
+public class ClientWriteMessage implements Serializable {
+
+    private final int key;
+    private final String value;
+
+    public ClientWriteMessage(int key, String value) {
+        this.key = key;
+        this.value = value;
+    }
+
+    public int getKey() {
+        return key;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return "ClientWriteMessage{" +
+                "key=" + key +
+                ", value='" + value + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,68 @@
+package dynamo.messages;
+
+import dynamo.nodeutilities.Item;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+
+/**
+ * Message sent by a node to ask its storage shards for their items (e.g. to hand them over
+ * to a new node, or to the others when leaving), and used by the shards to reply
+ */
+public class CollectItemsMessage implements Serializable {
+
+    private boolean request = false;
+    // the key of the new node the items are for, null to collect all of them
+    private Integer newNodeKey = null;
+    // the range the items are collected from (see Ring.isBetween), null for all of them
+    private Integer from = null;
+    private Integer to = null;
+    private ArrayList<Item> items = null;
+
+    public CollectItemsMessage(boolean request, Integer newNodeKey) {
+        this.request = request;
+        this.newNodeKey = newNodeKey;
+    }
+
+    public CollectItemsMessage(Integer from, Integer to) {
+        this.request = true;
+        this.from = from;
+        this.to = to;
+    }
+
+    public CollectItemsMessage(boolean request, ArrayList<Item> items) {
+        this.request = request;
+        this.items = items;
+    }
+
+    public boolean isRequest() {
+        return request;
+    }
+
+    public Integer getNewNodeKey() {
+        return newNodeKey;
+    }
+
+    public Integer getFrom() {
+        return from;
+    }
+
+    public Integer getTo() {
+        return to;
+    }
+
+    public ArrayList<Item> getItems() {
+        return items;
+    }
+
+    @Override
+    public String toString() {
+        return "CollectItemsMessage{" +
+                "request=" + request +
+                ", newNodeKey=" + newNodeKey +
+                ", from=" + from +
+                ", to=" + to +
+                ", items=" + items +
+                '}';
+    }
+}
@@ -0,0 +1,69 @@
+package dynamo.messages;
+
+import dynamo.nodeutilities.Item;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+
+/**
+ * A chunk of the items sent by a storage shard to a recovering node, in reply to a
+ * RequestDeltasMessage. The last chunk of each shard is marked, so that the recovering
+ * node knows when every shard of every replica it asked is done.
+ */
+public class DeltaItemsMessage implements Serializable {
+
+    // the key of the node of the shard
+    private final int senderKey;
+    private final int shard;
+    private final int shards;
+    private final ArrayList<Item> items;
+    private final boolean last;
+
+    public DeltaItemsMessage(int senderKey, int shard, int shards, ArrayList<Item> items, boolean last) {
+        this.senderKey = senderKey;
+        this.shard = shard;
+        this.shards = shards;
+        this.items = items;
+        this.last = last;
+    }
+
+    public int getSenderKey() {
+        return senderKey;
+    }
+
+    /**
+     * @return the index of the shard which sent the items
+     */
+    public int getShard() {
+        return shard;
+    }
+
+    /**
+     * @return the number of shards of the sender
+     */
+    public int getShards() {
+        return shards;
+    }
+
+    public ArrayList<Item> getItems() {
+        return items;
+    }
+
+    /**
+     * @return true if this is the last chunk of the shard
+     */
+    public boolean isLast() {
+        return last;
+    }
+
+    @Override
+    public String toString() {
+        return "DeltaItemsMessage{" +
+                "senderKey=" + senderKey +
+                ", shard=" + shard +
+                ", shards=" + shards +
+                ", items=" + items.size() +
+                ", last=" + last +
+                '}';
+    }
+}
@@ -0,0 +1,27 @@
+package dynamo.messages;
+
+import java.io.Serializable;
+
+/**
+ * Message scheduled by a coordinator to itself: if the operation is still waiting for its quorum
+ * when the message arrives, the replicas that were not contacted yet are involved too
+ */
+public class FallbackMessage implements Serializable {
+
+    private long operationId;
+
+    public FallbackMessage(long operationId) {
+        this.operationId = operationId;
+    }
+
+    public long getOperationId() {
+        return operationId;
+    }
+
+    @Override
+    public String toString() {
+        return "FallbackMessage{" +
+                "operationId=" + operationId +
+                '}';
+    }
+}
@@ -0,0 +1,10 @@
+package dynamo.messages;
+
+import java.io.Serializable;
+
+/**
+ * Message sent by a coordinator to itself when it starts batching the messages to the replicas:
+ * when it arrives, the batches are sent
+ */
+public class FlushBatchesMessage implements Serializable {
+}
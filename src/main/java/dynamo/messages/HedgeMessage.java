@@ -0,0 +1,27 @@
+package dynamo.messages;
+
+import java.io.Serializable;
+
+/**
+ * Message scheduled by a coordinator to itself: if the read operation is still waiting for its quorum
+ * when the message arrives, the request is sent to one more replica (hedged read)
+ */
+public class HedgeMessage implements Serializable {
+
+    private long operationId;
+
+    public HedgeMessage(long operationId) {
+        this.operationId = operationId;
+    }
+
+    public long getOperationId() {
+        return operationId;
+    }
+
+    @Override
+    public String toString() {
+        return "HedgeMessage{" +
+                "operationId=" + operationId +
+                '}';
+    }
+}
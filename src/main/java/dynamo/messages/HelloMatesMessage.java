@@ -1,22 +1,26 @@
 package dynamo.messages;
 
 import akka.actor.ActorSelection;
+import akka.dispatch.ControlMessage;
 
 import java.io.Serializable;
 
 /**
  * Message responsible for making all the Peers know about the new Peer that has joined the system
  */
-public class HelloMatesMessage implements Serializable {
+public class HelloMatesMessage implements Serializable, ControlMessage {
 
     private ActorSelection remoteSelection;
     private Integer key;
     private String remotePath;
+    // the membership epoch of the ring with the new Peer
+    private long epoch;
 
-    public HelloMatesMessage(ActorSelection remoteSelection, Integer key, String remotePath) {
+    public HelloMatesMessage(ActorSelection remoteSelection, Integer key, String remotePath, long epoch) {
         this.remoteSelection = remoteSelection;
         this.key = key;
         this.remotePath = remotePath;
+        this.epoch = epoch;
     }
 
     public ActorSelection getRemoteSelection() {
@@ -31,12 +35,17 @@ public class HelloMatesMessage implements Serializable {
         return remotePath;
     }
 
+    public long getEpoch() {
+        return epoch;
+    }
+
     @Override
     public String toString() {
         return "HelloMatesMessage{" +
                 "remoteSelection=" + remoteSelection +
                 ", key=" + key +
                 ", remotePath='" + remotePath + '\'' +
+                ", epoch=" + epoch +
                 '}';
     }
 }
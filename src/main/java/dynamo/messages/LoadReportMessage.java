@@ -0,0 +1,70 @@
+package dynamo.messages;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+
+/**
+ * Message responsible to ask for and share the load of a node, used to rebalance the ring
+ * (see TokenBalancer): the size of the range of keys it is the first replica of, how many
+ * items of the range it stores and how many requests for them it serves per second.
+ * The node asks its storage shards for their part with the same message.
+ */
+public class LoadReportMessage implements Serializable {
+
+    private boolean request = false;
+    private Integer key = null;
+    private long rangeSize = 0;
+    private long items = 0;
+    private double requestRate = 0;
+    // some keys of the items of the range, sorted, evenly spaced among them
+    private ArrayList<Integer> sampleKeys = null;
+
+    public LoadReportMessage() {
+        this.request = true;
+    }
+
+    public LoadReportMessage(Integer key, long rangeSize, long items, double requestRate,
+                             ArrayList<Integer> sampleKeys) {
+        this.key = key;
+        this.rangeSize = rangeSize;
+        this.items = items;
+        this.requestRate = requestRate;
+        this.sampleKeys = sampleKeys;
+    }
+
+    public boolean isRequest() {
+        return request;
+    }
+
+    public Integer getKey() {
+        return key;
+    }
+
+    public long getRangeSize() {
+        return rangeSize;
+    }
+
+    public long getItems() {
+        return items;
+    }
+
+    public double getRequestRate() {
+        return requestRate;
+    }
+
+    public ArrayList<Integer> getSampleKeys() {
+        return sampleKeys;
+    }
+
+    @Override
+    public String toString() {
+        return "LoadReportMessage{" +
+                "request=" + request +
+                ", key=" + key +
+                ", rangeSize=" + rangeSize +
+                ", items=" + items +
+                ", requestRate=" + requestRate +
+                ", sampleKeys=" + (sampleKeys == null ? null : sampleKeys.size()) +
+                '}';
+    }
+}
@@ -0,0 +1,50 @@
+package dynamo.messages;
+
+import dynamo.nodeutilities.Item;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+
+/**
+ * Message sent by a storage shard to its I/O actor to read the items saved in its file
+ * (recovery after a crash), and used by the I/O actor to reply with them
+ */
+public class LoadStorageMessage implements Serializable {
+
+    private boolean request = false;
+    // the items read, null if they could not be read (responses only)
+    private ArrayList<Item> items = null;
+    // why the items could not be read (responses only)
+    private String error = null;
+
+    public LoadStorageMessage(boolean request) {
+        this.request = request;
+    }
+
+    public LoadStorageMessage(boolean request, ArrayList<Item> items, String error) {
+        this.request = request;
+        this.items = items;
+        this.error = error;
+    }
+
+    public boolean isRequest() {
+        return request;
+    }
+
+    public ArrayList<Item> getItems() {
+        return items;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        return "LoadStorageMessage{" +
+                "request=" + request +
+                ", items=" + items +
+                ", error='" + error + '\'' +
+                '}';
+    }
+}
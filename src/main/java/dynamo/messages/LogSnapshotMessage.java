@@ -0,0 +1,10 @@
+package dynamo.messages;
+
+import java.io.Serializable;
+
+/**
+ * Message periodically sent by a node to itself and to its shards (if dynamo.logger.snapshot-interval
+ * is set), to log the items of the storage
+ */
+public class LogSnapshotMessage implements Serializable {
+}
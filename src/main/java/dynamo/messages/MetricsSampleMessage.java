@@ -0,0 +1,10 @@
+package dynamo.messages;
+
+import java.io.Serializable;
+
+/**
+ * Message periodically sent by a node to itself, to sample the metrics
+ * that are not updated by the operations (e.g. the depth of its mailbox)
+ */
+public class MetricsSampleMessage implements Serializable {
+}
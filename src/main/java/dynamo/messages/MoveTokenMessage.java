@@ -0,0 +1,47 @@
+package dynamo.messages;
+
+import java.io.Serializable;
+
+/**
+ * Message sent by an operator to ask a node to move to another key of the ring,
+ * between its previous and its next Peer, and used by the node to reply once done
+ */
+public class MoveTokenMessage implements Serializable {
+
+    private boolean request = false;
+    // the new key of the node
+    private Integer key;
+    // for the reply, false if the node could not move
+    private boolean success = false;
+
+    public MoveTokenMessage(Integer key) {
+        this.request = true;
+        this.key = key;
+    }
+
+    public MoveTokenMessage(Integer key, boolean success) {
+        this.key = key;
+        this.success = success;
+    }
+
+    public boolean isRequest() {
+        return request;
+    }
+
+    public Integer getKey() {
+        return key;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    @Override
+    public String toString() {
+        return "MoveTokenMessage{" +
+                "request=" + request +
+                ", key=" + key +
+                ", success=" + success +
+                '}';
+    }
+}
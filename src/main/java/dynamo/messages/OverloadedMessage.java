@@ -0,0 +1,28 @@
+package dynamo.messages;
+
+import java.io.Serializable;
+
+/**
+ * Reply of a coordinator to a ClientReadMessage or a ClientWriteMessage it refused
+ * without doing anything, because it has too many requests to handle already
+ */
+public class OverloadedMessage implements Serializable {
+
+    // membership epoch of the coordinator, lets clients detect a stale ring
+    private final long epoch;
+
+    public OverloadedMessage(long epoch) {
+        this.epoch = epoch;
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    @Override
+    public String toString() {
+        return "OverloadedMessage{" +
+                "epoch=" + epoch +
+                '}';
+    }
+}
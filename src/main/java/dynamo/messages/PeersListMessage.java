@@ -1,23 +1,41 @@
 package dynamo.messages;
 
+import akka.dispatch.ControlMessage;
 import dynamo.nodeutilities.Peer;
 
 import java.io.Serializable;
 import java.util.TreeMap;
 
 /**
- * Message responsible to ask for and sharing information regarding the already existing Peers in the system
+ * Message responsible to ask for and sharing information regarding the already existing Peers in the system.
+ * A request carries the version (epoch and origin, see Ring) of the ring of the requester (epoch 0 if it
+ * has none, or if it needs all the Peers): if the changes since then are known, the reply is a
+ * RingDeltaMessage with just them instead of all the Peers.
  */
-public class PeersListMessage implements Serializable {
+public class PeersListMessage implements Serializable, ControlMessage {
 
     private boolean request = false;
     TreeMap<Integer, Peer> peers = null;
+    // membership epoch of the ring the peers come from (of the ring of the requester, for a request)
+    private long epoch = 0;
+    // the key of the node which made the last change of that ring
+    private Integer epochOrigin = null;
 
     public PeersListMessage(boolean request, TreeMap<Integer, Peer> peers) {
         this.request = request;
         this.peers = peers;
     }
 
+    public PeersListMessage(boolean request, TreeMap<Integer, Peer> peers, long epoch) {
+        this(request, peers);
+        this.epoch = epoch;
+    }
+
+    public PeersListMessage(boolean request, TreeMap<Integer, Peer> peers, long epoch, Integer epochOrigin) {
+        this(request, peers, epoch);
+        this.epochOrigin = epochOrigin;
+    }
+
     public boolean isRequest() {
         return request;
     }
@@ -26,11 +44,21 @@ public class PeersListMessage implements Serializable {
         return peers;
     }
 
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public Integer getEpochOrigin() {
+        return epochOrigin;
+    }
+
     @Override
     public String toString() {
         return "PeersListMessage{" +
                 "request=" + request +
                 ", peers=" + peers +
+                ", epoch=" + epoch +
+                ", epochOrigin=" + epochOrigin +
                 '}';
     }
 }
@@ -0,0 +1,57 @@
+package dynamo.messages;
+
+import akka.dispatch.ControlMessage;
+import dynamo.nodeutilities.CompressedItems;
+
+import java.io.Serializable;
+
+/**
+ * Message responsible to ask for and share the Items in a range of keys, sent by a node moving
+ * forward in the ring to the next one, for the keys it becomes responsible for
+ */
+public class RangeItemsMessage implements Serializable, ControlMessage {
+
+    private boolean request = false;
+    // the range, see Ring.isBetween
+    private Integer from;
+    private Integer to;
+    private CompressedItems items = null;
+
+    public RangeItemsMessage(Integer from, Integer to) {
+        this.request = true;
+        this.from = from;
+        this.to = to;
+    }
+
+    public RangeItemsMessage(Integer from, Integer to, CompressedItems items) {
+        this.from = from;
+        this.to = to;
+        this.items = items;
+    }
+
+    public boolean isRequest() {
+        return request;
+    }
+
+    public Integer getFrom() {
+        return from;
+    }
+
+    public Integer getTo() {
+        return to;
+    }
+
+    public CompressedItems getItems() {
+        return items;
+    }
+
+    @Override
+    public String toString() {
+        return "RangeItemsMessage{" +
+                "request=" + request +
+                ", from=" + from +
+                ", to=" + to +
+                ", items=" + items +
+                '}';
+    }
+}
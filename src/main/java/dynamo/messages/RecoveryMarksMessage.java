@@ -0,0 +1,37 @@
+package dynamo.messages;
+
+import java.io.Serializable;
+import java.util.HashMap;
+
+/**
+ * Message sent by a recovering node to ask its storage shards for the high-water marks of
+ * the ranges (see ChangeLog), and used by the shards to reply. The node then sends the marks
+ * of all the shards to itself, to ask the other replicas for the items it missed.
+ */
+public class RecoveryMarksMessage implements Serializable {
+
+    private boolean request = false;
+    // the time of the last write applied in each range, by key of the range
+    private HashMap<Integer, Long> marks = null;
+
+    public RecoveryMarksMessage(boolean request, HashMap<Integer, Long> marks) {
+        this.request = request;
+        this.marks = marks;
+    }
+
+    public boolean isRequest() {
+        return request;
+    }
+
+    public HashMap<Integer, Long> getMarks() {
+        return marks;
+    }
+
+    @Override
+    public String toString() {
+        return "RecoveryMarksMessage{" +
+                "request=" + request +
+                ", marks=" + marks +
+                '}';
+    }
+}
@@ -1,17 +1,20 @@
 package dynamo.messages;
 
 import akka.actor.ActorSelection;
+import akka.dispatch.ControlMessage;
 
 import java.io.Serializable;
 
 /**
  * Message responsible manage the recovery of a crashed Node
  */
-public class RecoveryMessage implements Serializable{
+public class RecoveryMessage implements Serializable, ControlMessage {
 
     private String remoteIp, remotePort, remotePath;
     private int requesterId;
     private ActorSelection remoteSelection;
+    // the membership epoch of the ring with the recovered Peer (from the recovered node)
+    private long epoch;
 
     public RecoveryMessage(String remoteIp, String remotePort, int requesterId) {
         this.remoteIp = remoteIp;
@@ -19,10 +22,11 @@ public class RecoveryMessage implements Serializable{
         this.requesterId = requesterId;
     }
 
-    public RecoveryMessage(String remotePath, ActorSelection remoteSelection, int requesterId) {
+    public RecoveryMessage(String remotePath, ActorSelection remoteSelection, int requesterId, long epoch) {
         this.remotePath = remotePath;
         this.remoteSelection = remoteSelection;
         this.requesterId = requesterId;
+        this.epoch = epoch;
     }
 
     public String getRemotePath(){
@@ -45,6 +49,10 @@ public class RecoveryMessage implements Serializable{
         return remotePort;
     }
 
+    public long getEpoch() {
+        return epoch;
+    }
+
     @Override
     public String toString() {
         return "RecoveryMessage{" +
@@ -53,6 +61,7 @@ public class RecoveryMessage implements Serializable{
                 ", remotePath='" + remotePath + '\'' +
                 ", requesterId=" + requesterId +
                 ", remoteSelection=" + remoteSelection +
+                ", epoch=" + epoch +
                 '}';
     }
 }
@@ -0,0 +1,29 @@
+package dynamo.messages;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+
+/**
+ * Envelope of the ReplicaReadMessages and ReplicaWriteMessages sent by a coordinator to the same
+ * replica within a short time, sent as a single message. The replies to the reads are batched
+ * in a ReplicaReplyBatchMessage.
+ */
+public class ReplicaBatchMessage implements Serializable {
+
+    private final ArrayList<Serializable> messages;
+
+    public ReplicaBatchMessage(ArrayList<Serializable> messages) {
+        this.messages = messages;
+    }
+
+    public ArrayList<Serializable> getMessages() {
+        return messages;
+    }
+
+    @Override
+    public String toString() {
+        return "ReplicaBatchMessage{" +
+                "messages=" + messages +
+                '}';
+    }
+}
@@ -0,0 +1,51 @@
+package dynamo.messages;
+
+import java.io.Serializable;
+
+/**
+ * Request of a coordinator to a replica for its version of an item, answered with a ReplicaReadReplyMessage
+ */
+public class ReplicaReadMessage implements Serializable {
+
+    private final int key;
+    // identifier of the coordinator's operation the request belongs to, echoed back by the replica
+    private final long operationId;
+    // System.nanoTime() of the coordinator when the request was sent, echoed back by the replica
+    private final long timestamp;
+    // membership epoch of the coordinator (0 if unknown, e.g. from a client), lets a replica
+    // with an older ring notice it and catch up
+    private final long epoch;
+
+    public ReplicaReadMessage(int key, long operationId, long timestamp, long epoch) {
+        this.key = key;
+        this.operationId = operationId;
+        this.timestamp = timestamp;
+        this.epoch = epoch;
+    }
+
+    public int getKey() {
+        return key;
+    }
+
+    public long getOperationId() {
+        return operationId;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    @Override
+    public String toString() {
+        return "ReplicaReadMessage{" +
+                "key=" + key +
+                ", operationId=" + operationId +
+                ", timestamp=" + timestamp +
+                ", epoch=" + epoch +
+                '}';
+    }
+}
@@ -0,0 +1,83 @@
+package dynamo.messages;
+
+import java.io.Serializable;
+
+/**
+ * Reply of a replica to a ReplicaReadMessage, with its version of the item
+ */
+public class ReplicaReadReplyMessage implements Serializable {
+
+    // the version of the replies of the replicas without the item (the versions start from 1)
+    public static final int NO_VERSION = 0;
+
+    private final int key;
+    // null and NO_VERSION if the replica does not have the item
+    private final String value;
+    private final int version;
+    // key of the replica that sent the reply
+    private final int senderKey;
+    // echoed from the request
+    private final long timestamp;
+    private final long operationId;
+    // membership epoch of the replica, lets clients detect a stale ring
+    private final long epoch;
+
+    public ReplicaReadReplyMessage(int key, String value, int version, int senderKey, long timestamp,
+                                   long operationId, long epoch) {
+        this.key = key;
+        this.value = value;
+        this.version = version;
+        this.senderKey = senderKey;
+        this.timestamp = timestamp;
+        this.operationId = operationId;
+        this.epoch = epoch;
+    }
+
+    /**
+     * @return true if the replica has the item
+     */
+    public boolean hasItem() {
+        return version != NO_VERSION;
+    }
+
+    public int getKey() {
+        return key;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public int getSenderKey() {
+        return senderKey;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public long getOperationId() {
+        return operationId;
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    @Override
+    public String toString() {
+        return "ReplicaReadReplyMessage{" +
+                "key=" + key +
+                ", value='" + value + '\'' +
+                ", version=" + version +
+                ", senderKey=" + senderKey +
+                ", timestamp=" + timestamp +
+                ", operationId=" + operationId +
+                ", epoch=" + epoch +
+                '}';
+    }
+}
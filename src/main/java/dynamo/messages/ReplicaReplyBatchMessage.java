@@ -0,0 +1,27 @@
+package dynamo.messages;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+
+/**
+ * The replies of a storage shard to the reads of a ReplicaBatchMessage, sent as a single message
+ */
+public class ReplicaReplyBatchMessage implements Serializable {
+
+    private final ArrayList<ReplicaReadReplyMessage> replies;
+
+    public ReplicaReplyBatchMessage(ArrayList<ReplicaReadReplyMessage> replies) {
+        this.replies = replies;
+    }
+
+    public ArrayList<ReplicaReadReplyMessage> getReplies() {
+        return replies;
+    }
+
+    @Override
+    public String toString() {
+        return "ReplicaReplyBatchMessage{" +
+                "replies=" + replies +
+                '}';
+    }
+}
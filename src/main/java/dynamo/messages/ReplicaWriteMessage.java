@@ -0,0 +1,49 @@
+package dynamo.messages;
+
+import java.io.Serializable;
+
+/**
+ * Order of a coordinator to a replica to store a new version of an item (not answered)
+ */
+public class ReplicaWriteMessage implements Serializable {
+
+    private final int key;
+    private final String value;
+    private final int version;
+    // membership epoch of the coordinator (0 if unknown, e.g. from a client), lets a replica
+    // with an older ring notice it and catch up
+    private final long epoch;
+
+    public ReplicaWriteMessage(int key, String value, int version, long epoch) {
+        this.key = key;
+        this.value = value;
+        this.version = version;
+        this.epoch = epoch;
+    }
+
+    public int getKey() {
+        return key;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    @Override
+    public String toString() {
+        return "ReplicaWriteMessage{" +
+                "key=" + key +
+                ", value='" + value + '\'' +
+                ", version=" + version +
+                ", epoch=" + epoch +
+                '}';
+    }
+}
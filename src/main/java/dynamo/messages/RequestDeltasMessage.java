@@ -0,0 +1,32 @@
+package dynamo.messages;
+
+import akka.dispatch.ControlMessage;
+
+import java.io.Serializable;
+import java.util.HashMap;
+
+/**
+ * Message sent by a recovering node to another replica of some of its ranges, to ask for the
+ * items of each range changed since a given time (all of them if the time is Long.MIN_VALUE).
+ * The node forwards it to its storage shards, which reply with DeltaItemsMessages.
+ */
+public class RequestDeltasMessage implements Serializable, ControlMessage {
+
+    // the time since when the changes are needed, by key of the range
+    private final HashMap<Integer, Long> since;
+
+    public RequestDeltasMessage(HashMap<Integer, Long> since) {
+        this.since = since;
+    }
+
+    public HashMap<Integer, Long> getSince() {
+        return since;
+    }
+
+    @Override
+    public String toString() {
+        return "RequestDeltasMessage{" +
+                "since=" + since +
+                '}';
+    }
+}
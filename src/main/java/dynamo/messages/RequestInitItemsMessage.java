@@ -1,16 +1,16 @@
 package dynamo.messages;
 
-import dynamo.nodeutilities.Item;
+import akka.dispatch.ControlMessage;
+import dynamo.nodeutilities.CompressedItems;
 
 import java.io.Serializable;
-import java.util.ArrayList;
 
 /**
  * Message responsible to ask for and share all the already existing Items that the sender will be responsible for
  */
-public class RequestInitItemsMessage implements Serializable {
+public class RequestInitItemsMessage implements Serializable, ControlMessage {
     private boolean request = false;
-    ArrayList<Item> items = null;
+    CompressedItems items = null;
     private Integer senderKey = null;
 
     public RequestInitItemsMessage(boolean request, Integer senderKey) {
@@ -18,7 +18,7 @@ public class RequestInitItemsMessage implements Serializable {
         this.senderKey = senderKey;
     }
 
-    public RequestInitItemsMessage(boolean request, ArrayList<Item> items) {
+    public RequestInitItemsMessage(boolean request, CompressedItems items) {
         this.request = request;
         this.items = items;
     }
@@ -27,7 +27,7 @@ public class RequestInitItemsMessage implements Serializable {
         return request;
     }
 
-    public ArrayList<Item> getItems() {
+    public CompressedItems getItems() {
         return items;
     }
 
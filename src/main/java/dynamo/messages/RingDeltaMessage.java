@@ -0,0 +1,39 @@
+package dynamo.messages;
+
+import akka.dispatch.ControlMessage;
+import dynamo.nodeutilities.RingChange;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+
+/**
+ * Reply to a PeersListMessage from a node (or client) with an older copy of the ring:
+ * the membership changes it missed, in order, instead of all the Peers
+ */
+public class RingDeltaMessage implements Serializable, ControlMessage {
+
+    private final ArrayList<RingChange> changes;
+    // membership epoch of the ring the changes come from
+    private final long epoch;
+
+    public RingDeltaMessage(ArrayList<RingChange> changes, long epoch) {
+        this.changes = changes;
+        this.epoch = epoch;
+    }
+
+    public ArrayList<RingChange> getChanges() {
+        return changes;
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    @Override
+    public String toString() {
+        return "RingDeltaMessage{" +
+                "changes=" + changes +
+                ", epoch=" + epoch +
+                '}';
+    }
+}
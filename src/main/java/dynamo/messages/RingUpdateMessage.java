@@ -0,0 +1,55 @@
+package dynamo.messages;
+
+import akka.dispatch.ControlMessage;
+import dynamo.nodeutilities.Peer;
+
+import java.io.Serializable;
+import java.util.TreeMap;
+
+/**
+ * Message sent by a node to its coordinator and storage shards at every membership change,
+ * with a copy of the Peers in the ring (the actors never share the same Ring)
+ */
+public class RingUpdateMessage implements Serializable, ControlMessage {
+
+    private TreeMap<Integer, Peer> peers;
+    private long epoch;
+    // the key of the node, which changes if it moves (see MoveTokenMessage)
+    private Integer selfKey;
+    // true if the shards have to remove the items the node is not responsible for anymore
+    private boolean removeItemsOutOfResponsibility;
+
+    public RingUpdateMessage(TreeMap<Integer, Peer> peers, long epoch, Integer selfKey,
+                             boolean removeItemsOutOfResponsibility) {
+        this.peers = peers;
+        this.epoch = epoch;
+        this.selfKey = selfKey;
+        this.removeItemsOutOfResponsibility = removeItemsOutOfResponsibility;
+    }
+
+    public TreeMap<Integer, Peer> getPeers() {
+        return peers;
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public Integer getSelfKey() {
+        return selfKey;
+    }
+
+    public boolean isRemoveItemsOutOfResponsibility() {
+        return removeItemsOutOfResponsibility;
+    }
+
+    @Override
+    public String toString() {
+        return "RingUpdateMessage{" +
+                "peers=" + peers.keySet() +
+                ", epoch=" + epoch +
+                ", selfKey=" + selfKey +
+                ", removeItemsOutOfResponsibility=" + removeItemsOutOfResponsibility +
+                '}';
+    }
+}
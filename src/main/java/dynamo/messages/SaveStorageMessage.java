@@ -0,0 +1,47 @@
+package dynamo.messages;
+
+import java.io.Serializable;
+
+/**
+ * Message sent by a storage shard to its I/O actor to save a snapshot of its Storage,
+ * and used by the I/O actor to reply when the file has been written
+ */
+public class SaveStorageMessage implements Serializable {
+
+    private boolean request = false;
+    // the content of the file (requests only)
+    private String content = null;
+    // true if the file has been written (responses only)
+    private boolean success = false;
+
+    public SaveStorageMessage(boolean request, String content) {
+        this.request = request;
+        this.content = content;
+    }
+
+    public SaveStorageMessage(boolean request, boolean success) {
+        this.request = request;
+        this.success = success;
+    }
+
+    public boolean isRequest() {
+        return request;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    @Override
+    public String toString() {
+        return "SaveStorageMessage{" +
+                "request=" + request +
+                ", content=" + (content == null ? null : content.length() + " characters") +
+                ", success=" + success +
+                '}';
+    }
+}
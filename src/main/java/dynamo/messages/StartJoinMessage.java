@@ -1,11 +1,13 @@
 package dynamo.messages;
 
+import akka.dispatch.ControlMessage;
+
 import java.io.Serializable;
 
 /**
  * Message that contains the IP address and the number of port of the coordinator that has to manage the joining request
  */
-public class StartJoinMessage implements Serializable {
+public class StartJoinMessage implements Serializable, ControlMessage {
 
     private String remoteIp;
     private String remotePort;
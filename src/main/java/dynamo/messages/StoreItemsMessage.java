@@ -0,0 +1,43 @@
+package dynamo.messages;
+
+import dynamo.nodeutilities.Item;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+
+/**
+ * Message sent by a node to a storage shard, with items it has to store
+ * (received from the next node at join time, or from a leaving node), or the items
+ * missed while it was down, which only replace older versions (incremental recovery)
+ */
+public class StoreItemsMessage implements Serializable {
+
+    private ArrayList<Item> items;
+    // true if an item is stored only if newer than the local one
+    private boolean newerOnly = false;
+
+    public StoreItemsMessage(ArrayList<Item> items) {
+        this.items = items;
+    }
+
+    public StoreItemsMessage(ArrayList<Item> items, boolean newerOnly) {
+        this.items = items;
+        this.newerOnly = newerOnly;
+    }
+
+    public ArrayList<Item> getItems() {
+        return items;
+    }
+
+    public boolean isNewerOnly() {
+        return newerOnly;
+    }
+
+    @Override
+    public String toString() {
+        return "StoreItemsMessage{" +
+                "items=" + items +
+                ", newerOnly=" + newerOnly +
+                '}';
+    }
+}
@@ -3,23 +3,37 @@ package dynamo.messages;
 import java.io.Serializable;
 
 /**
- * Message useful to inform the receiver that the operation it requested has not been successful, due to a timeout
+ * Message useful to inform the receiver that the operation it requested has not been successful, due to a timeout.
+ * It is not a control message: it is queued behind the replies received before it expired, which must
+ * complete the operation rather than be discarded after a spurious timeout
  */
-public class TimeoutMessage implements Serializable{
+public class TimeoutMessage implements Serializable {
     private boolean init = false;
+    // the operation that timed out (when not init)
+    private long operationId;
 
     public TimeoutMessage(boolean init) {
         this.init = init;
     }
 
+    public TimeoutMessage(boolean init, long operationId) {
+        this.init = init;
+        this.operationId = operationId;
+    }
+
     public boolean isInit() {
         return init;
     }
 
+    public long getOperationId() {
+        return operationId;
+    }
+
     @Override
     public String toString() {
         return "TimeoutMessage{" +
                 "init=" + init +
+                ", operationId=" + operationId +
                 '}';
     }
 }
@@ -0,0 +1,53 @@
+package dynamo.messages;
+
+import akka.dispatch.ControlMessage;
+import dynamo.nodeutilities.CompressedItems;
+
+import java.io.Serializable;
+
+/**
+ * Message sent by a node to all the others when it moves to another key of the ring.
+ * When it moves backwards, the Peer becoming a replica of the keys it left gets their Items.
+ */
+public class TokenMovedMessage implements Serializable, ControlMessage {
+
+    private Integer oldKey;
+    private Integer newKey;
+    // the Items of the keys left, null for the Peers which do not need them
+    private CompressedItems items;
+    // the membership epoch of the ring with the Peer moved
+    private long epoch;
+
+    public TokenMovedMessage(Integer oldKey, Integer newKey, CompressedItems items, long epoch) {
+        this.oldKey = oldKey;
+        this.newKey = newKey;
+        this.items = items;
+        this.epoch = epoch;
+    }
+
+    public Integer getOldKey() {
+        return oldKey;
+    }
+
+    public Integer getNewKey() {
+        return newKey;
+    }
+
+    public CompressedItems getItems() {
+        return items;
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    @Override
+    public String toString() {
+        return "TokenMovedMessage{" +
+                "oldKey=" + oldKey +
+                ", newKey=" + newKey +
+                ", items=" + items +
+                ", epoch=" + epoch +
+                '}';
+    }
+}
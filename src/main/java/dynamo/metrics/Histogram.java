@@ -0,0 +1,144 @@
+package dynamo.metrics;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread-safe histogram of non-negative long values (e.g. latencies in microseconds), in the
+ * style of HdrHistogram: buckets grow exponentially and every bucket is split into a fixed
+ * number of linear sub-buckets, so every recorded value is kept with a bounded relative error
+ * (less than 1%) using a fixed amount of memory.
+ */
+public class Histogram {
+
+    // 2^SUB_BUCKET_BITS linear sub-buckets: values below it are exact
+    private static final int SUB_BUCKET_BITS = 8;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT / 2;
+    private static final int SIZE = SUB_BUCKET_COUNT + (64 - SUB_BUCKET_BITS) * SUB_BUCKET_HALF;
+
+    private AtomicLongArray counts = new AtomicLongArray(SIZE);
+    private AtomicLong count = new AtomicLong();
+    private AtomicLong sum = new AtomicLong();
+    private AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a value
+     * @param value the value to be recorded, negative values are recorded as 0
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(indexOf(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * @return the number of recorded values
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return the mean of the recorded values, 0 if empty
+     */
+    public double getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    /**
+     * @return the greatest recorded value, 0 if empty
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Gets the value at a given percentile
+     * @param percentile the percentile, between 0 and 100 (e.g. 99.9)
+     * @return the (approximated) value, 0 if empty
+     */
+    public long getValueAtPercentile(double percentile) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * n));
+        long seen = 0;
+        for (int i = 0; i < SIZE; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(highestValueOf(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Adds all the values recorded by another histogram
+     * @param other the other histogram
+     */
+    public void add(Histogram other) {
+        for (int i = 0; i < SIZE; i++) {
+            long c = other.counts.get(i);
+            if (c != 0) {
+                counts.addAndGet(i, c);
+            }
+        }
+        count.addAndGet(other.count.get());
+        sum.addAndGet(other.sum.get());
+        long current = max.get();
+        long otherMax = other.max.get();
+        while (otherMax > current && !max.compareAndSet(current, otherMax)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * Prints the percentile distribution, in the same format used by HdrHistogram
+     * @param out where to print
+     * @param scale the values are divided by this before printing (e.g. 1000 for microseconds to milliseconds)
+     */
+    public void outputPercentileDistribution(PrintStream out, double scale) {
+        out.println(String.format("%12s %14s %10s %14s", "Value", "Percentile", "TotalCount", "1/(1-Percentile)"));
+        double[] percentiles = {0, 10, 20, 30, 40, 50, 55, 60, 65, 70, 75, 77.5, 80, 82.5, 85, 87.5,
+                90, 92.5, 95, 96.25, 97.5, 98.75, 99, 99.5, 99.9, 99.99, 99.999, 100};
+        long n = count.get();
+        for (double p : percentiles) {
+            long value = getValueAtPercentile(p);
+            long totalCount = (long) Math.ceil(p / 100.0 * n);
+            String inverse = p < 100 ? String.format("%14.2f", 1 / (1 - p / 100.0)) : String.format("%14s", "");
+            out.println(String.format("%12.3f %14.12f %10d %s", value / scale, p / 100.0, totalCount, inverse));
+        }
+        out.println(String.format("#[Mean    = %12.3f, Max = %12.3f]", getMean() / scale, getMax() / scale));
+        out.println(String.format("#[Total count    = %12d]", n));
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        int shift = msb - (SUB_BUCKET_BITS - 1);
+        int sub = (int) (value >>> shift);
+        return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF + (sub - SUB_BUCKET_HALF);
+    }
+
+    private static long highestValueOf(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF + 1;
+        long sub = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+        return ((sub + 1) << shift) - 1;
+    }
+}
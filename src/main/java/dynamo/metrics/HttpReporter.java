@@ -0,0 +1,88 @@
+package dynamo.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+/**
+ * A minimal HTTP endpoint serving the metrics of a MetricsRegistry at /metrics,
+ * in the Prometheus text format: one "name value" line per metric, with the dots
+ * of the names replaced by underscores and the "dynamo_" prefix
+ * (e.g. quorum.read.latency.us.p99 becomes dynamo_quorum_read_latency_us_p99).
+ * Requests are served by a single background thread, never by the actor.
+ */
+public class HttpReporter {
+
+    private MetricsRegistry registry;
+    private HttpServer server;
+
+    public HttpReporter(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Starts serving the metrics
+     * @param host the address to bind to (e.g. localhost, so that the metrics are not exposed outside)
+     * @param port the port to bind to, 0 for any free port
+     * @throws IOException if the address cannot be bound
+     */
+    public void start(String host, int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(host, port), 0);
+        server.createContext("/metrics", this::handle);
+        server.setExecutor(Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "dynamo-metrics-http");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        server.start();
+    }
+
+    /**
+     * @return the port the endpoint is listening on, -1 if not started
+     */
+    public int getPort() {
+        return server == null ? -1 : server.getAddress().getPort();
+    }
+
+    /**
+     * Stops serving the metrics, if started
+     */
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("GET")) {
+            exchange.sendResponseHeaders(405, -1);
+            exchange.close();
+            return;
+        }
+        byte[] body = format().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * @return the current metrics in the Prometheus text format
+     */
+    String format() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Number> entry : registry.snapshot().entrySet()) {
+            sb.append("dynamo_").append(entry.getKey().replaceAll("[^a-zA-Z0-9_]", "_"))
+                    .append(' ').append(entry.getValue()).append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,97 @@
+package dynamo.metrics;
+
+import javax.management.*;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Exposes the metrics of a MetricsRegistry as the (read-only) attributes of an MBean,
+ * so that they can be read with jconsole, VisualVM or any JMX collector.
+ * Attributes are computed from a new snapshot every time they are read.
+ */
+public class JmxReporter implements DynamicMBean {
+
+    private MetricsRegistry registry;
+    private ObjectName name;
+
+    public JmxReporter(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Registers the MBean in the platform MBean server
+     * @param name the name of the MBean, e.g. dynamo:type=Node,port=10042
+     * @throws JMException if the name is not valid or already registered
+     */
+    public void start(String name) throws JMException {
+        this.name = new ObjectName(name);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, this.name);
+    }
+
+    /**
+     * Unregisters the MBean, if registered
+     */
+    public void stop() {
+        if (name == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+        name = null;
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Number value = registry.snapshot().get(attribute);
+        if (value == null) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        return value;
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        TreeMap<String, Number> snapshot = registry.snapshot();
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            Number value = snapshot.get(attribute);
+            if (value != null) {
+                list.add(new Attribute(attribute, value));
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metrics are read-only");
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        // the set of metrics grows at runtime (e.g. new peers), so it is rebuilt every time
+        TreeMap<String, Number> snapshot = registry.snapshot();
+        MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[snapshot.size()];
+        int i = 0;
+        for (Map.Entry<String, Number> entry : snapshot.entrySet()) {
+            attributes[i++] = new MBeanAttributeInfo(entry.getKey(), entry.getValue().getClass().getName(),
+                    entry.getKey(), true, false, false);
+        }
+        return new MBeanInfo(getClass().getName(), "Runtime metrics of a Dynamo node",
+                attributes, null, null, null);
+    }
+}
@@ -0,0 +1,148 @@
+package dynamo.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds the runtime metrics of a node. Values are pushed by the actor that owns them
+ * (so no actor state is ever read from another thread) and can be read at any time.
+ */
+public class MetricsRegistry {
+
+    private ConcurrentHashMap<String, AtomicLong> counters = new ConcurrentHashMap<>();
+    private ConcurrentHashMap<String, Double> gauges = new ConcurrentHashMap<>();
+    private ConcurrentHashMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    // percentiles of the histograms included in the snapshots
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    /**
+     * Increments a counter by one, creating it if needed
+     * @param name the name of the counter
+     */
+    public void increment(String name) {
+        increment(name, 1);
+    }
+
+    /**
+     * Increments a counter, creating it if needed
+     * @param name the name of the counter
+     * @param delta the value to be added
+     */
+    public void increment(String name, long delta) {
+        AtomicLong counter = counters.get(name);
+        if (counter == null) {
+            counters.putIfAbsent(name, new AtomicLong());
+            counter = counters.get(name);
+        }
+        counter.addAndGet(delta);
+    }
+
+    /**
+     * Sets the current value of a gauge
+     * @param name the name of the gauge
+     * @param value the current value
+     */
+    public void setGauge(String name, double value) {
+        gauges.put(name, value);
+    }
+
+    /**
+     * Removes a gauge, e.g. when the Peer it refers to left the system
+     * @param name the name of the gauge
+     */
+    public void removeGauge(String name) {
+        gauges.remove(name);
+    }
+
+    /**
+     * Records a value in a histogram, creating it if needed
+     * @param name the name of the histogram
+     * @param value the value to be recorded (e.g. a latency in microseconds)
+     */
+    public void record(String name, long value) {
+        Histogram histogram = histograms.get(name);
+        if (histogram == null) {
+            histograms.putIfAbsent(name, new Histogram());
+            histogram = histograms.get(name);
+        }
+        histogram.record(value);
+    }
+
+    /**
+     * Removes a histogram, e.g. when the Peer it refers to left the system
+     * @param name the name of the histogram
+     */
+    public void removeHistogram(String name) {
+        histograms.remove(name);
+    }
+
+    /**
+     * @param name the name of the counter
+     * @return the current value of the counter, 0 if it does not exist
+     */
+    public long getCounter(String name) {
+        AtomicLong counter = counters.get(name);
+        return counter == null ? 0 : counter.get();
+    }
+
+    /**
+     * @param name the name of the gauge
+     * @return the current value of the gauge, null if it does not exist
+     */
+    public Double getGauge(String name) {
+        return gauges.get(name);
+    }
+
+    /**
+     * @param name the name of the histogram
+     * @return the histogram, null if it does not exist
+     */
+    public Histogram getHistogram(String name) {
+        return histograms.get(name);
+    }
+
+    /**
+     * @return all the metrics, sorted by name. Every histogram is summarized by
+     * its count, mean, max and some percentiles (e.g. name.count, name.p99)
+     */
+    public TreeMap<String, Number> snapshot() {
+        TreeMap<String, Number> snapshot = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : counters.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().get());
+        }
+        snapshot.putAll(gauges);
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            String name = entry.getKey();
+            Histogram histogram = entry.getValue();
+            snapshot.put(name + ".count", histogram.getCount());
+            snapshot.put(name + ".mean", histogram.getMean());
+            snapshot.put(name + ".max", histogram.getMax());
+            for (double p : PERCENTILES) {
+                snapshot.put(name + ".p" + percentileSuffix(p), histogram.getValueAtPercentile(p));
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * @param percentile a percentile (e.g. 99.9)
+     * @return its suffix in the metric names (e.g. 999)
+     */
+    private static String percentileSuffix(double percentile) {
+        String s = percentile == Math.floor(percentile) ? String.valueOf((long) percentile) : String.valueOf(percentile);
+        return s.replace(".", "");
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Metrics: \n");
+        for (Map.Entry<String, Number> entry : snapshot().entrySet()) {
+            sb.append("\t- ").append(entry.getKey()).append(" = ").append(entry.getValue()).append("\n");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,156 @@
+package dynamo.nodeutilities;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+/**
+ * The changes applied by a storage shard, used by the incremental recovery:
+ *  - the keys of the last changes and when they were applied, in a circular buffer, so that
+ *    the shard can tell a recovering peer which items changed since a given time
+ *  - the high-water mark of each range of keys (identified by the key of its first replica,
+ *    see Ring.getRangeKey): when the last write of the range was applied. The marks are
+ *    persisted, and after a crash the node asks the other replicas of each range only for
+ *    the items changed since its mark.
+ * The times are wall-clock milliseconds, so the recovering node subtracts a margin for the
+ * skew between the clocks of the nodes (dynamo.recovery.margin).
+ */
+public class ChangeLog {
+
+    // the circular buffer of the last changes, next is the position of the next one
+    private final long[] times;
+    private final int[] keys;
+    private int next = 0;
+    private int size = 0;
+    // the changes applied since this time are all in the buffer
+    private long completeSince;
+
+    // the high-water mark of each range
+    private HashMap<Integer, Long> marks = new HashMap<>();
+
+    /**
+     * @param capacity the number of changes kept
+     */
+    public ChangeLog(int capacity) {
+        this.times = new long[capacity];
+        this.keys = new int[capacity];
+        this.completeSince = System.currentTimeMillis();
+    }
+
+    /**
+     * Records a change of an item
+     * @param key the key of the item
+     * @param time when the change was applied
+     */
+    public void record(int key, long time) {
+        if (size == times.length) {
+            // the oldest change is forgotten
+            completeSince = Math.max(completeSince, times[next]);
+        } else {
+            size++;
+        }
+        times[next] = time;
+        keys[next] = key;
+        next = (next + 1) % times.length;
+    }
+
+    /**
+     * Advances the high-water mark of a range
+     * @param rangeKey the range
+     * @param time when a write of the range was applied
+     */
+    public void advanceMark(Integer rangeKey, long time) {
+        Long mark = marks.get(rangeKey);
+        if (mark == null || mark < time) {
+            marks.put(rangeKey, time);
+        }
+    }
+
+    /**
+     * @param since a time
+     * @return the keys of the items changed after the given time, or null if some of them
+     * have been forgotten already (or were applied before the log was created)
+     */
+    public HashSet<Integer> keysChangedSince(long since) {
+        if (since < completeSince) {
+            return null;
+        }
+        HashSet<Integer> changed = new HashSet<>();
+        // from the newest change back
+        for (int i = 0, position = next; i < size; i++) {
+            position = (position == 0 ? times.length : position) - 1;
+            if (times[position] <= since) {
+                break;
+            }
+            changed.add(keys[position]);
+        }
+        return changed;
+    }
+
+    /**
+     * @return a copy of the high-water marks, by range
+     */
+    public HashMap<Integer, Long> copyMarks() {
+        return new HashMap<>(marks);
+    }
+
+    /**
+     * Replaces the high-water marks, e.g. with the ones persisted before a crash
+     * @param marks the marks by range
+     */
+    public void setMarks(HashMap<Integer, Long> marks) {
+        this.marks = marks;
+    }
+
+    /**
+     * Writes high-water marks to a file, replacing it atomically
+     * @param pathname the path of the file
+     * @param marks the marks by range
+     * @throws IOException if the file cannot be written
+     */
+    public static void writeMarks(String pathname, Map<Integer, Long> marks) throws IOException {
+        String temporary = pathname + ".tmp";
+        try (FileWriter out = new FileWriter(temporary)) {
+            for (Map.Entry<Integer, Long> mark : marks.entrySet()) {
+                out.write(mark.getKey() + " " + mark.getValue() + "\n");
+            }
+        }
+        Files.move(Paths.get(temporary), Paths.get(pathname), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads the high-water marks saved in a file
+     * @param pathname the path of the file
+     * @return the marks by range, empty if there is no file
+     * @throws IOException if the file cannot be read or is corrupted
+     */
+    public static HashMap<Integer, Long> readMarks(String pathname) throws IOException {
+        HashMap<Integer, Long> marks = new HashMap<>();
+        try (BufferedReader in = new BufferedReader(new FileReader(pathname))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] fields = line.split(" ");
+                if (fields.length != 2) {
+                    throw new IOException("Corrupted high-water marks in " + pathname);
+                }
+                try {
+                    marks.put(Integer.parseInt(fields[0]), Long.parseLong(fields[1]));
+                } catch (NumberFormatException e) {
+                    throw new IOException("Corrupted high-water marks in " + pathname, e);
+                }
+            }
+        } catch (FileNotFoundException e) {
+            // never saved
+        }
+        return marks;
+    }
+}
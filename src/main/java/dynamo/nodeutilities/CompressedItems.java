@@ -0,0 +1,40 @@
+package dynamo.nodeutilities;
+
+import java.io.Serializable;
+
+/**
+ * Some items encoded as a single block, possibly compressed (see Compression.pack),
+ * as they are sent in bulk between nodes
+ */
+public class CompressedItems implements Serializable {
+
+    private int count;
+    private byte[] data;
+
+    public CompressedItems(int count, byte[] data) {
+        this.count = count;
+        this.data = data;
+    }
+
+    /**
+     * @return the number of items
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return the encoded items
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    @Override
+    public String toString() {
+        return "CompressedItems{" +
+                "count=" + count +
+                ", bytes=" + data.length +
+                '}';
+    }
+}
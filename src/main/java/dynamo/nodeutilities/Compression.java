@@ -0,0 +1,209 @@
+package dynamo.nodeutilities;
+
+import dynamo.metrics.MetricsRegistry;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses the values stored on disk and the items sent in bulk between nodes, which are
+ * mostly text. Blocks smaller than the threshold are kept raw, since compressing them costs
+ * more than it saves; the others are compressed with Deflate at its fastest level.
+ * Every encoded block starts with a byte telling whether it is compressed.
+ *
+ * The ratio (raw bytes / encoded bytes) and the time spent are published per kind of data
+ * (e.g. storage, wire) as compression.(kind).ratio, .compress.ns and .decompress.ns.
+ * An instance can be used by many threads.
+ */
+public class Compression {
+
+    private static final byte RAW = 0;
+    private static final byte DEFLATE = 1;
+
+    private boolean enabled;
+    private int threshold;
+    private MetricsRegistry metrics;
+
+    // Deflaters and Inflaters are expensive to create, so each thread reuses its own
+    private ThreadLocal<Deflater> deflater = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+    private ThreadLocal<Inflater> inflater = ThreadLocal.withInitial(Inflater::new);
+
+    /**
+     * @param enabled false to keep every block raw
+     * @param threshold the size in bytes below which blocks are kept raw
+     * @param metrics where the ratio and the time spent are published
+     */
+    public Compression(boolean enabled, int threshold, MetricsRegistry metrics) {
+        this.enabled = enabled;
+        this.threshold = threshold;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param raw a block of data
+     * @param kind the kind of data, used in the names of the metrics
+     * @return the encoded block, compressed if worth it
+     */
+    public byte[] compress(byte[] raw, String kind) {
+        if (!enabled || raw.length < threshold) {
+            return withHeader(RAW, raw);
+        }
+        long start = System.nanoTime();
+        Deflater deflater = this.deflater.get();
+        deflater.reset();
+        deflater.setInput(raw);
+        deflater.finish();
+        // Deflate may expand incompressible data a little
+        byte[] buffer = new byte[raw.length + raw.length / 100 + 64];
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == buffer.length) {
+                byte[] larger = new byte[buffer.length * 2];
+                System.arraycopy(buffer, 0, larger, 0, length);
+                buffer = larger;
+            }
+            length += deflater.deflate(buffer, length, buffer.length - length);
+        }
+        byte[] encoded;
+        if (length + 4 < raw.length) {
+            encoded = new byte[5 + length];
+            encoded[0] = DEFLATE;
+            writeInt(encoded, 1, raw.length);
+            System.arraycopy(buffer, 0, encoded, 5, length);
+        } else {
+            // not compressible: keep it raw
+            encoded = withHeader(RAW, raw);
+        }
+        metrics.record("compression." + kind + ".compress.ns", System.nanoTime() - start);
+        account(kind, raw.length, encoded.length);
+        return encoded;
+    }
+
+    /**
+     * @param encoded a block returned by compress
+     * @param kind the kind of data, used in the names of the metrics
+     * @return the raw block
+     * @throws IOException if the block is corrupted
+     */
+    public byte[] decompress(byte[] encoded, String kind) throws IOException {
+        if (encoded[0] == RAW) {
+            byte[] raw = new byte[encoded.length - 1];
+            System.arraycopy(encoded, 1, raw, 0, raw.length);
+            return raw;
+        }
+        long start = System.nanoTime();
+        byte[] raw = new byte[readInt(encoded, 1)];
+        Inflater inflater = this.inflater.get();
+        inflater.reset();
+        inflater.setInput(encoded, 5, encoded.length - 5);
+        try {
+            int length = 0;
+            while (length < raw.length && !inflater.finished()) {
+                int inflated = inflater.inflate(raw, length, raw.length - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated compressed block");
+                }
+                length += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted compressed block", e);
+        }
+        metrics.record("compression." + kind + ".decompress.ns", System.nanoTime() - start);
+        return raw;
+    }
+
+    /**
+     * @param value a String
+     * @param kind the kind of data, used in the names of the metrics
+     * @return the encoded UTF-8 bytes of the String
+     */
+    public byte[] compressString(String value, String kind) {
+        return compress(value.getBytes(StandardCharsets.UTF_8), kind);
+    }
+
+    /**
+     * @param encoded a block returned by compressString
+     * @param kind the kind of data, used in the names of the metrics
+     * @return the String
+     * @throws IOException if the block is corrupted
+     */
+    public String decompressString(byte[] encoded, String kind) throws IOException {
+        return new String(decompress(encoded, kind), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Encodes some items as a single block, to be sent to another node
+     * @param items the items
+     * @return the encoded items
+     */
+    public CompressedItems pack(ArrayList<Item> items) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            for (Item item : items) {
+                out.writeInt(item.getKey());
+                out.writeInt(item.getVersion());
+                byte[] value = item.getValue().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(value.length);
+                out.write(value);
+            }
+        } catch (IOException e) {
+            // not thrown by a ByteArrayOutputStream
+            throw new UncheckedIOException(e);
+        }
+        return new CompressedItems(items.size(), compress(bytes.toByteArray(), "wire"));
+    }
+
+    /**
+     * @param items the encoded items, from pack
+     * @return the items
+     * @throws IOException if the block is corrupted
+     */
+    public ArrayList<Item> unpack(CompressedItems items) throws IOException {
+        ArrayList<Item> list = new ArrayList<>(items.getCount());
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(decompress(items.getData(), "wire")));
+        for (int i = 0; i < items.getCount(); i++) {
+            int key = in.readInt();
+            int version = in.readInt();
+            byte[] value = new byte[in.readInt()];
+            in.readFully(value);
+            list.add(new Item(key, new String(value, StandardCharsets.UTF_8), version));
+        }
+        return list;
+    }
+
+    /**
+     * Updates the amount of data compressed and the resulting ratio
+     */
+    private void account(String kind, long raw, long encoded) {
+        String prefix = "compression." + kind;
+        metrics.increment(prefix + ".raw.bytes", raw);
+        metrics.increment(prefix + ".encoded.bytes", encoded);
+        long total = metrics.getCounter(prefix + ".encoded.bytes");
+        if (total > 0) {
+            metrics.setGauge(prefix + ".ratio", (double) metrics.getCounter(prefix + ".raw.bytes") / total);
+        }
+    }
+
+    private static byte[] withHeader(byte header, byte[] data) {
+        byte[] encoded = new byte[1 + data.length];
+        encoded[0] = header;
+        System.arraycopy(data, 0, encoded, 1, data.length);
+        return encoded;
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xff) << 24) | ((bytes[offset + 1] & 0xff) << 16)
+                | ((bytes[offset + 2] & 0xff) << 8) | (bytes[offset + 3] & 0xff);
+    }
+}
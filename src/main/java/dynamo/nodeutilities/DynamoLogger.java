@@ -1,7 +1,18 @@
 package dynamo.nodeutilities;
 
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
 /**
- * Useful to select what to show during the execution, in order to avoid verbose information
+ * Useful to select what to show during the execution, in order to avoid verbose information.
+ * The level is checked first: a suppressed message costs nothing but the call, and the
+ * variants taking a Supplier do not even compute the message (e.g. a dump of the storage).
+ * The messages are formatted by the caller, then written to the console by a background
+ * thread, through a bounded queue shared by all the loggers: the actors never wait for the
+ * console. If the queue is full the messages are dropped, and their number is printed later.
  */
 public class DynamoLogger {
     public static final String ANSI_PREFIX = "\u001B[";
@@ -13,54 +24,133 @@ public class DynamoLogger {
     public static final String ANSI_CYAN = ANSI_PREFIX + "36m";
     public static final String ANSI_WHITE = ANSI_PREFIX + "37m";
 
-    public enum LOG_LEVEL { INFO, DEBUG };
-    private LOG_LEVEL level;
-    private String prefix;
+    // from the least to the most verbose
+    public enum LOG_LEVEL { ERROR, INFO, DEBUG };
+
+    private static final String INFO_PREFIX = ANSI_CYAN + "[INFO] " + ANSI_RESET;
+    private static final String DEBUG_PREFIX = ANSI_YELLOW + "[DEBUG] " + ANSI_RESET;
+    private static final String ERROR_PREFIX = ANSI_RED + "[ERROR] " + ANSI_RESET;
+
+    // the messages waiting to be written, of all the loggers
+    private static final int QUEUE_CAPACITY = 8192;
+    private static final ArrayBlockingQueue<String> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    // the messages dropped since the last write because the queue was full
+    private static final AtomicLong dropped = new AtomicLong();
+    private static final PrintStream out = System.out;
+
+    static {
+        Thread writer = new Thread(DynamoLogger::writeMessages, "dynamo-logger");
+        writer.setDaemon(true);
+        writer.start();
+        // the messages still in the queue are written before the JVM exits
+        Runtime.getRuntime().addShutdownHook(new Thread(DynamoLogger::flush, "dynamo-logger-flush"));
+    }
+
+    private volatile LOG_LEVEL level = LOG_LEVEL.INFO;
 
     public DynamoLogger(){
-        this.prefix = null;
     }
 
-    private String applyArgsToString(String message, Object[] args){
+    /**
+     * Replaces the {} placeholders of a message with its arguments, in order
+     */
+    private static String format(String prefix, String message, Object[] args){
+        StringBuilder sb = new StringBuilder(prefix.length() + message.length() + 16 * args.length);
+        sb.append(prefix);
+        int from = 0;
         for (Object arg : args) {
-            if (arg == null){
-                message = message.replaceFirst("\\{\\}", "null");
-            } else {
-                message = message.replaceFirst("\\{\\}", arg.toString());
+            int placeholder = message.indexOf("{}", from);
+            if (placeholder < 0) {
+                break;
             }
+            sb.append(message, from, placeholder).append(arg);
+            from = placeholder + 2;
+        }
+        return sb.append(message, from, message.length()).toString();
+    }
+
+    private static void enqueue(String line){
+        if (!queue.offer(line)) {
+            dropped.incrementAndGet();
+        }
+    }
 
+    /**
+     * The loop of the background thread: writes the queued messages, as many as
+     * available at a time
+     */
+    private static void writeMessages(){
+        ArrayList<String> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            write(batch);
         }
-        return message;
     }
 
-    private String addPrefix(String message){
-        if (this.prefix == null){
-            return message;
-        }else {
-            return prefix + message;
+    private static synchronized void write(ArrayList<String> batch){
+        queue.drainTo(batch);
+        StringBuilder sb = new StringBuilder();
+        for (String line : batch) {
+            sb.append(line).append('\n');
         }
+        long lost = dropped.getAndSet(0);
+        if (lost > 0) {
+            sb.append(ERROR_PREFIX).append(lost).append(" log messages dropped").append('\n');
+        }
+        out.print(sb);
+        out.flush();
+        batch.clear();
+    }
+
+    /**
+     * Writes the queued messages now, from the calling thread
+     */
+    public static void flush(){
+        write(new ArrayList<>());
     }
 
-    private String format(String message){
-        message = addPrefix(message);
-        return message;
+    public boolean isEnabled(LOG_LEVEL level){
+        return this.level.compareTo(level) >= 0;
+    }
+
+    /**
+     * @return true if the debug messages are printed: lets the callers skip building
+     * the arguments of the debug messages on the hot paths
+     */
+    public boolean isDebugEnabled() {
+        return this.level == LOG_LEVEL.DEBUG;
     }
 
     public void info(String message, Object... args){
-        this.prefix = ANSI_CYAN + "[INFO] " + ANSI_RESET;
-        System.out.println(this.format(this.applyArgsToString(message, args)));
+        if (isEnabled(LOG_LEVEL.INFO)) {
+            enqueue(format(INFO_PREFIX, message, args));
+        }
+    }
+
+    public void info(Supplier<String> message){
+        if (isEnabled(LOG_LEVEL.INFO)) {
+            enqueue(INFO_PREFIX + message.get());
+        }
     }
 
     public void debug(String message, Object... args){
-        this.prefix = ANSI_YELLOW + "[DEBUG] " + ANSI_RESET;
-        if (this.level == LOG_LEVEL.DEBUG){
-            System.out.println(this.format(this.applyArgsToString(message, args)));
+        if (isDebugEnabled()) {
+            enqueue(format(DEBUG_PREFIX, message, args));
+        }
+    }
+
+    public void debug(Supplier<String> message){
+        if (isDebugEnabled()) {
+            enqueue(DEBUG_PREFIX + message.get());
         }
     }
 
     public void error(String message, Object... args){
-        this.prefix = ANSI_RED + "[ERROR] " + ANSI_RESET;
-        System.out.println(this.format(this.applyArgsToString(message, args)));
+        enqueue(format(ERROR_PREFIX, message, args));
     }
 
     public void setLevel(LOG_LEVEL level) {
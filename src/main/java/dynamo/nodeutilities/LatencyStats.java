@@ -0,0 +1,89 @@
+package dynamo.nodeutilities;
+
+import java.util.Arrays;
+
+/**
+ * Latency statistics (e.g. the response times of a single Peer): an exponentially weighted
+ * moving average plus a window of the most recent samples, used to compute percentiles
+ */
+public class LatencyStats {
+
+    // weight given to the newest sample in the moving average
+    private double alpha;
+    // moving average (in nanoseconds), null until the first sample arrives
+    private Double ewma = null;
+    // circular buffer with the most recent samples (in nanoseconds)
+    private long[] window;
+    private int next = 0;
+    private int count = 0;
+
+    public LatencyStats(double alpha, int windowSize) {
+        this.alpha = alpha;
+        this.window = new long[windowSize];
+    }
+
+    /**
+     * Adds a new latency sample
+     * @param nanos the observed latency, in nanoseconds
+     */
+    public void record(long nanos) {
+        if (ewma == null) {
+            ewma = (double) nanos;
+        } else {
+            ewma = alpha * nanos + (1 - alpha) * ewma;
+        }
+        window[next] = nanos;
+        next = (next + 1) % window.length;
+        if (count < window.length) {
+            count++;
+        }
+    }
+
+    /**
+     * @return true if at least one sample has been recorded
+     */
+    public boolean hasSamples() {
+        return count > 0;
+    }
+
+    /**
+     * @return the moving average in milliseconds, or 0 if there are no samples
+     */
+    public double getEwmaMillis() {
+        return ewma == null ? 0 : ewma / 1e6;
+    }
+
+    /**
+     * Computes a percentile over the window of recent samples
+     * @param p the percentile, between 0 and 1 (e.g. 0.99)
+     * @return the percentile in milliseconds, or 0 if there are no samples
+     */
+    public double getPercentileMillis(double p) {
+        if (count == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(window, count);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(p * count) - 1;
+        index = Math.max(0, Math.min(count - 1, index));
+        return sorted[index] / 1e6;
+    }
+
+    /**
+     * A conservative estimate of the latency,
+     * i.e. the greater between the moving average and the given percentile
+     * @param p the percentile to take into account
+     * @return the estimate in milliseconds
+     */
+    public double getEstimateMillis(double p) {
+        return Math.max(getEwmaMillis(), getPercentileMillis(p));
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyStats{" +
+                "ewma=" + String.format("%.3f", getEwmaMillis()) + "ms" +
+                ", samples=" + count +
+                '}';
+    }
+}
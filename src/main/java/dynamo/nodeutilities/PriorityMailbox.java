@@ -0,0 +1,185 @@
+package dynamo.nodeutilities;
+
+import akka.actor.ActorContext;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.dispatch.ControlMessage;
+import akka.dispatch.Envelope;
+import akka.dispatch.MailboxType;
+import akka.dispatch.MessageQueue;
+import akka.dispatch.ProducesMessageQueue;
+import akka.dispatch.UnboundedDequeBasedMessageQueueSemantics;
+import com.typesafe.config.Config;
+import dynamo.metrics.MetricsRegistry;
+import scala.Option;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An unbounded mailbox where the control messages (membership changes and ring updates, see
+ * akka.dispatch.ControlMessage) are delivered before the data messages (the operations and
+ * their replies and timeouts, which must keep their relative order),
+ * each kind in FIFO order: under load they do not wait behind thousands of operations.
+ * Once the owner of the mailbox provides a MetricsRegistry (see setMetrics), the time
+ * spent in the queue by the messages of each kind is recorded, in microseconds.
+ * It is selected in the configuration (dynamo-priority-mailbox) for the NodeActor and
+ * the CoordinatorActor, which read the number of messages waiting from their queue
+ * (see queueOf). With control-first = off it keeps the order of all the messages and
+ * just counts them (dynamo-counting-mailbox, for the storage shards). The queue is a
+ * deque, so the actors can stash messages.
+ */
+public class PriorityMailbox implements MailboxType, ProducesMessageQueue<PriorityMailbox.PriorityMessageQueue> {
+
+    // the queue of every actor with a PriorityMailbox: the mailbox is not exposed by the actor API
+    private static final ConcurrentHashMap<ActorRef, PriorityMessageQueue> queues = new ConcurrentHashMap<>();
+
+    // false if the control messages wait in line with the others
+    private final boolean controlFirst;
+
+    /**
+     * The constructor called by Akka
+     */
+    public PriorityMailbox(ActorSystem.Settings settings, Config config) {
+        this.controlFirst = !config.hasPath("control-first") || config.getBoolean("control-first");
+    }
+
+    @Override
+    public MessageQueue create(Option<ActorRef> owner, Option<ActorSystem> system) {
+        PriorityMessageQueue queue = new PriorityMessageQueue(controlFirst);
+        if (owner.isDefined()) {
+            queues.put(owner.get(), queue);
+        }
+        return queue;
+    }
+
+    /**
+     * @param actor an actor (usually the calling one, as getSelf())
+     * @return the queue of its mailbox, or null if it does not have a PriorityMailbox
+     */
+    public static PriorityMessageQueue queueOf(ActorRef actor) {
+        return queues.get(actor);
+    }
+
+    /**
+     * A message and the time it was enqueued at
+     */
+    private static class QueuedEnvelope {
+        final Envelope envelope;
+        final long enqueued;
+
+        QueuedEnvelope(Envelope envelope) {
+            this.envelope = envelope;
+            this.enqueued = System.nanoTime();
+        }
+    }
+
+    /**
+     * The queue of a PriorityMailbox: the messages are enqueued by any thread,
+     * and dequeued by the one running the actor
+     */
+    public static class PriorityMessageQueue implements MessageQueue, UnboundedDequeBasedMessageQueueSemantics {
+
+        private final boolean controlFirst;
+        private final ConcurrentLinkedDeque<QueuedEnvelope> control = new ConcurrentLinkedDeque<>();
+        private final ConcurrentLinkedDeque<QueuedEnvelope> data = new ConcurrentLinkedDeque<>();
+        // the size of the ConcurrentLinkedDeques takes time linear in the number of their elements
+        private final AtomicInteger size = new AtomicInteger();
+
+        private volatile MetricsRegistry metrics = null;
+        private String controlMetric;
+        private String dataMetric;
+
+        PriorityMessageQueue(boolean controlFirst) {
+            this.controlFirst = controlFirst;
+        }
+
+        /**
+         * Starts recording the time spent in the queue by the messages
+         * @param metrics the registry of the node
+         * @param prefix the prefix of the names of the histograms (e.g. "mailbox")
+         */
+        public void setMetrics(MetricsRegistry metrics, String prefix) {
+            this.controlMetric = prefix + ".control.queue-time.us";
+            this.dataMetric = prefix + ".data.queue-time.us";
+            this.metrics = metrics;
+        }
+
+        @Override
+        public void enqueue(ActorRef receiver, Envelope handle) {
+            if (controlFirst && handle.message() instanceof ControlMessage) {
+                control.add(new QueuedEnvelope(handle));
+            } else {
+                data.add(new QueuedEnvelope(handle));
+            }
+            size.incrementAndGet();
+        }
+
+        /**
+         * Puts a message back at the head of its queue (when it is unstashed)
+         */
+        @Override
+        public void enqueueFirst(ActorRef receiver, Envelope handle) {
+            if (controlFirst && handle.message() instanceof ControlMessage) {
+                control.addFirst(new QueuedEnvelope(handle));
+            } else {
+                data.addFirst(new QueuedEnvelope(handle));
+            }
+            size.incrementAndGet();
+        }
+
+        @Override
+        public Envelope dequeue() {
+            QueuedEnvelope queued = control.poll();
+            boolean isControl = queued != null;
+            if (!isControl) {
+                queued = data.poll();
+                if (queued == null) {
+                    return null;
+                }
+            }
+            size.decrementAndGet();
+            MetricsRegistry registry = this.metrics;
+            if (registry != null) {
+                registry.record(isControl ? controlMetric : dataMetric, (System.nanoTime() - queued.enqueued) / 1000);
+            }
+            return queued.envelope;
+        }
+
+        @Override
+        public int numberOfMessages() {
+            return size.get();
+        }
+
+        @Override
+        public boolean hasMessages() {
+            return !control.isEmpty() || !data.isEmpty();
+        }
+
+        /**
+         * Sends the messages left in the queue to the dead letters, when the actor stops
+         */
+        @Override
+        public void cleanUp(ActorRef owner, MessageQueue deadLetters) {
+            queues.remove(owner, this);
+            Envelope envelope;
+            while ((envelope = dequeue()) != null) {
+                deadLetters.enqueue(owner, envelope);
+            }
+        }
+
+        /**
+         * Starts recording the queue times of the mailbox of an actor, if it is a PriorityMailbox
+         * @param context the context of the actor
+         * @param metrics the registry of the node
+         * @param prefix the prefix of the names of the histograms
+         */
+        public static void recordQueueTimes(ActorContext context, MetricsRegistry metrics, String prefix) {
+            PriorityMessageQueue queue = queueOf(context.self());
+            if (queue != null) {
+                queue.setMetrics(metrics, prefix);
+            }
+        }
+    }
+}
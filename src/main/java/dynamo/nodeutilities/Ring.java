@@ -10,8 +10,51 @@ public class Ring {
 
     private TreeMap<Integer, Peer> peers = new TreeMap<Integer, Peer>();
 
+    // incremented at every membership change (join, leave, recovery), so that
+    // whoever caches the ring (e.g. a client) can tell whether its copy is current.
+    // The node making a change announces the epoch it leads to, which the others adopt:
+    // the version of the ring is the epoch and the key of the node which made the last
+    // change (its origin), so that concurrent changes with the same epoch are told apart
+    private long epoch = 0;
+    private Integer epochOrigin = null;
+    // the last membership changes, oldest first, numbered by the version they lead to:
+    // the copies of the ring up to MAX_CHANGES epochs older can catch up with them
+    private ArrayDeque<RingChange> changes = new ArrayDeque<>();
+    // the version the first of the changes applies to
+    private long baseEpoch = 0;
+    private Integer baseOrigin = null;
+    private static final int MAX_CHANGES = 256;
+
+    /**
+     * How a change announced by another node relates to the local ring (see adoptChange)
+     */
+    public enum Adoption {
+        // it follows the current version, which it becomes
+        APPLIED,
+        // it is the current version, or an older one the ring went through
+        KNOWN,
+        // some changes before it are missing
+        MISSING,
+        // it was made concurrently with a change of the ring
+        CONFLICT
+    }
+
+    // latency observed by the local node for every Peer, kept locally (never shipped with the peers)
+    private HashMap<Integer, LatencyStats> latencies = new HashMap<>();
+    private double latencyAlpha = 0.2;
+    private int latencyWindow = 100;
+
     public Ring(){ }
 
+    /**
+     * @param latencyAlpha weight of the newest sample in the per-peer latency moving average
+     * @param latencyWindow number of recent samples kept per peer to compute percentiles
+     */
+    public Ring(double latencyAlpha, int latencyWindow){
+        this.latencyAlpha = latencyAlpha;
+        this.latencyWindow = latencyWindow;
+    }
+
     /**
      * Adds a Peer to the Collection
      *
@@ -60,6 +103,7 @@ public class Ring {
     public boolean removePeer(Integer key){
         if (peers.containsKey(key)){
             peers.remove(key);
+            latencies.remove(key);
             return true;
         }
         return false;
@@ -107,6 +151,20 @@ public class Ring {
         return peers.get(key);
     }
 
+    /**
+     * Gets the Peer before the given key
+     *
+     * @param key the key of the successor of the desired Peer
+     * @return the Peer having the previous key in the Ring
+     */
+    public Peer getPreviousPeer(Integer key){
+        Integer previous = peers.lowerKey(key);
+        if (previous == null){
+            previous = peers.lastKey();
+        }
+        return this.getPeer(previous);
+    }
+
     /**
      * Gets the Peer next to the given key
      *
@@ -165,6 +223,60 @@ public class Ring {
         return replicas;
     }
 
+    /**
+     * Returns the key of the first replica of an item, which identifies the range
+     * of keys the item belongs to (the keys between the previous Peer and that one)
+     * @param itemKey the key of the item
+     * @return the key of the range
+     */
+    public Integer getRangeKey(Integer itemKey) {
+        return this.nextEqual(itemKey);
+    }
+
+    /**
+     * Returns the number of keys in the range of a node, i.e. the keys it is the first
+     * replica of (the keys wrap around, as the ints do)
+     * @param nodeKey the key of the node
+     * @return the size of the range
+     */
+    public long getRangeSize(Integer nodeKey) {
+        if (this.getNumberOfPeers() == 1) {
+            return 1L << 32;
+        }
+        return Integer.toUnsignedLong(nodeKey - this.getPreviousPeer(nodeKey).getKey());
+    }
+
+    /**
+     * Checks if a key is in a range of the ring, going clockwise (the keys wrap around)
+     * @param key the key to be checked
+     * @param from the start of the range, excluded
+     * @param to the end of the range, included
+     * @return true if the key is in the range
+     */
+    public static boolean isBetween(int key, int from, int to) {
+        if (from < to) {
+            return key > from && key <= to;
+        }
+        // the range wraps around (or is the whole ring, if from == to)
+        return key > from || key <= to;
+    }
+
+    /**
+     * Returns the ranges of keys a node stores a replica of (see getRangeKey)
+     * @param N The number of replicas responsible for a data item
+     * @param nodeKey the key of the node
+     * @return the keys of the ranges
+     */
+    public ArrayList<Integer> getRangesOfNode(Integer N, Integer nodeKey) {
+        ArrayList<Integer> ranges = new ArrayList<>();
+        for (Integer rangeKey : this.peers.keySet()) {
+            if (this.isNodeWithinRangeFromItem(rangeKey, nodeKey, N)) {
+                ranges.add(rangeKey);
+            }
+        }
+        return ranges;
+    }
+
     /**
      * Checks if this Node is among the next N nodes in clockwise
      * order starting from a certain key value
@@ -216,6 +328,274 @@ public class Ring {
         return responsible;
     }
 
+    /**
+     * Records the time a Peer took to respond to a request of the local node
+     *
+     * @param key the key of the Peer
+     * @param nanos the response time in nanoseconds
+     */
+    public void recordLatency(Integer key, long nanos){
+        if (!peers.containsKey(key)) {
+            return;
+        }
+        LatencyStats latency = latencies.get(key);
+        if (latency == null) {
+            latency = new LatencyStats(latencyAlpha, latencyWindow);
+            latencies.put(key, latency);
+        }
+        latency.record(nanos);
+    }
+
+    /**
+     * Gets the latency statistics of a Peer
+     *
+     * @param key the key of the Peer
+     * @return the latency statistics, or null if the Peer never responded
+     */
+    public LatencyStats getLatency(Integer key){
+        return latencies.get(key);
+    }
+
+    /**
+     * Gets the latency score of a Peer, i.e. the moving average of its response times
+     *
+     * @param key the key of the Peer
+     * @return the score in milliseconds, or null if the Peer never responded
+     */
+    public Double getLatencyScore(Integer key){
+        LatencyStats latency = latencies.get(key);
+        if (latency == null || !latency.hasSamples()) {
+            return null;
+        }
+        return latency.getEwmaMillis();
+    }
+
+    /**
+     * Returns the replicas responsible for a data item (see getReplicasFromKey)
+     * sorted by their latency score, fastest first. Peers that never responded
+     * come before all the others, so that they get sampled as soon as possible.
+     * @param N The number of replicas responsible for a data item
+     * @param itemKey the item's key to retrieve
+     * @return an array of Peers
+     */
+    public ArrayList<Peer> getReplicasByLatency(Integer N, Integer itemKey){
+        ArrayList<Peer> replicas = this.getReplicasFromKey(N, itemKey);
+        // the sort is stable, so peers with the same score keep the ring order
+        Collections.sort(replicas, new Comparator<Peer>() {
+            @Override
+            public int compare(Peer a, Peer b) {
+                Double scoreA = getLatencyScore(a.getKey());
+                Double scoreB = getLatencyScore(b.getKey());
+                if (scoreA == null || scoreB == null) {
+                    return scoreA == null ? (scoreB == null ? 0 : -1) : 1;
+                }
+                return Double.compare(scoreA, scoreB);
+            }
+        });
+        return replicas;
+    }
+
+    /**
+     * @return the membership epoch of the Ring
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * @return the key of the node which made the last membership change, null if not known
+     */
+    public Integer getEpochOrigin() {
+        return epochOrigin;
+    }
+
+    /**
+     * Orders the versions of the Ring: by epoch, then by the key of the node which made the
+     * last change (an unknown one first), so that concurrent changes are ordered the same
+     * way by every node
+     * @return a negative number, zero or a positive number if the first version is older,
+     * the same or newer than the second one
+     */
+    public static int compareVersions(long epoch, Integer origin, long otherEpoch, Integer otherOrigin) {
+        if (epoch != otherEpoch) {
+            return Long.compare(epoch, otherEpoch);
+        }
+        if (origin == null || otherOrigin == null) {
+            return origin == null ? (otherOrigin == null ? 0 : -1) : 1;
+        }
+        return Integer.compare(origin, otherOrigin);
+    }
+
+    /**
+     * Sets the membership epoch, e.g. when the Ring is copied from another node:
+     * the changes before it are not known
+     * @param epoch the new epoch
+     */
+    public void setEpoch(long epoch) {
+        this.setEpoch(epoch, null);
+    }
+
+    /**
+     * Sets the membership version, e.g. when the Ring is copied from another node:
+     * the changes before it are not known
+     * @param epoch the new epoch
+     * @param origin the key of the node which made the last change
+     */
+    public void setEpoch(long epoch, Integer origin) {
+        this.epoch = epoch;
+        this.epochOrigin = origin;
+        this.changes.clear();
+        this.baseEpoch = epoch;
+        this.baseOrigin = origin;
+    }
+
+    /**
+     * Advances the membership epoch after a change made by the local node, once the Peer has
+     * been added, updated or removed: the new epoch is the one to be announced to the others
+     * @param key the key of the Peer that changed
+     * @param origin the key of the local node
+     */
+    public void nextEpoch(Integer key, Integer origin) {
+        this.record(this.epoch + 1, origin, key);
+    }
+
+    /**
+     * Adopts the version announced by the node which made a change, once the Peer has been
+     * added, updated or removed. If the change does not follow the current version, the
+     * epoch is left as it is when changes are missing (they must be asked to the announcer,
+     * see getChangesSince). On a conflict the newest of the two versions is kept, but the
+     * Peers may differ from the ones of the other nodes at that version: the whole ring
+     * must be asked to the announcer, and the changes known cannot be served anymore
+     * @param epoch the epoch the change led to
+     * @param origin the key of the node which made the change
+     * @param key the key of the Peer that changed
+     * @return how the change relates to the local ring
+     */
+    public Adoption adoptChange(long epoch, Integer origin, Integer key) {
+        if (epoch == this.epoch + 1) {
+            this.record(epoch, origin, key);
+            return Adoption.APPLIED;
+        }
+        if (epoch > this.epoch) {
+            return Adoption.MISSING;
+        }
+        if (isKnown(epoch, origin)) {
+            return Adoption.KNOWN;
+        }
+        if (compareVersions(epoch, origin, this.epoch, this.epochOrigin) > 0) {
+            this.setEpoch(epoch, origin);
+        } else {
+            this.setEpoch(this.epoch, this.epochOrigin);
+        }
+        return Adoption.CONFLICT;
+    }
+
+    /**
+     * @return true if the Ring is at the given version, or went through it (as far as the
+     * changes known tell)
+     */
+    private boolean isKnown(long epoch, Integer origin) {
+        if (compareVersions(epoch, origin, this.epoch, this.epochOrigin) == 0
+                || compareVersions(epoch, origin, this.baseEpoch, this.baseOrigin) == 0) {
+            return true;
+        }
+        for (RingChange change : changes) {
+            if (compareVersions(epoch, origin, change.getEpoch(), change.getOrigin()) == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void record(long epoch, Integer origin, Integer key) {
+        this.epoch = epoch;
+        this.epochOrigin = origin;
+        Peer peer = peers.get(key);
+        changes.addLast(new RingChange(epoch, origin, key,
+                peer == null ? null : new Peer(peer.getRemotePath(), peer.getRemoteSelection(), key)));
+        if (changes.size() > MAX_CHANGES) {
+            RingChange oldest = changes.removeFirst();
+            this.baseEpoch = oldest.getEpoch();
+            this.baseOrigin = oldest.getOrigin();
+        }
+    }
+
+    /**
+     * @param epoch the epoch of an older copy of the Ring
+     * @param origin the key of the node which made the last change of the copy
+     * @return the changes from that version to the current one, in order (none if the copy is
+     * current), or null if they are not known: the copy is too old, or newer, or it went
+     * through a change this Ring did not (a concurrent one)
+     */
+    public ArrayList<RingChange> getChangesSince(long epoch, Integer origin) {
+        ArrayList<RingChange> since = new ArrayList<>();
+        if (compareVersions(epoch, origin, this.epoch, this.epochOrigin) == 0) {
+            return since;
+        }
+        boolean found = compareVersions(epoch, origin, this.baseEpoch, this.baseOrigin) == 0;
+        for (RingChange change : changes) {
+            if (found) {
+                since.add(change);
+            } else {
+                found = compareVersions(epoch, origin, change.getEpoch(), change.getOrigin()) == 0;
+            }
+        }
+        return found ? since : null;
+    }
+
+    /**
+     * Applies the changes following the current version, in order (the ones already known
+     * are skipped)
+     * @param changes consecutive changes, e.g. from getChangesSince of another Ring
+     * @return false if some changes between the current version and the given ones are
+     * missing, or if they conflict with the ones of this Ring: the whole ring is needed
+     */
+    public boolean applyChanges(List<RingChange> changes) {
+        for (RingChange change : changes) {
+            if (change.getEpoch() <= this.epoch) {
+                if (isKnown(change.getEpoch(), change.getOrigin())) {
+                    continue;
+                }
+                return false;
+            }
+            if (change.getEpoch() != this.epoch + 1) {
+                return false;
+            }
+            if (change.getPeer() == null) {
+                this.removePeer(change.getKey());
+            } else {
+                Peer peer = change.getPeer();
+                this.addPeer(new Peer(peer.getRemotePath(), peer.getRemoteSelection(), peer.getKey()), true);
+            }
+            this.record(change.getEpoch(), change.getOrigin(), change.getKey());
+        }
+        return true;
+    }
+
+    /**
+     * Replaces all the Peers of the Ring, e.g. with a newer copy of the membership.
+     * The latency statistics of the Peers still in the Ring are kept.
+     *
+     * @param peers the new set of Peers
+     */
+    public void setPeers(TreeMap<Integer, Peer> peers) {
+        this.peers = new TreeMap<>(peers);
+        this.latencies.keySet().retainAll(peers.keySet());
+    }
+
+    /**
+     * Copies the Peers of the Ring, so that they can be handed to another actor
+     *
+     * @return a copy of the set of Peers (the Peer objects are copied too)
+     */
+    public TreeMap<Integer, Peer> copyPeers() {
+        TreeMap<Integer, Peer> copy = new TreeMap<>();
+        for (Peer peer : peers.values()) {
+            copy.put(peer.getKey(), new Peer(peer.getRemotePath(), peer.getRemoteSelection(), peer.getKey()));
+        }
+        return copy;
+    }
+
     /**
      * Gets the entire set of Peers currently joined to the Ring
      *
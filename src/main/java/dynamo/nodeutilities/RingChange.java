@@ -0,0 +1,60 @@
+package dynamo.nodeutilities;
+
+import java.io.Serializable;
+
+/**
+ * A membership change of the Ring: the Peer with a given key joined, recovered (with a new
+ * address) or left. The changes are numbered by the epoch they lead to and by the key of the
+ * node which made them (their origin), so that a node with an older copy of the Ring can
+ * catch up by applying the ones it missed, in order, and concurrent changes are told apart.
+ */
+public class RingChange implements Serializable {
+
+    private final long epoch;
+    private final Integer origin;
+    private final Integer key;
+    // the Peer as it is after the change, null if it left
+    private final Peer peer;
+
+    public RingChange(long epoch, Integer origin, Integer key, Peer peer) {
+        this.epoch = epoch;
+        this.origin = origin;
+        this.key = key;
+        this.peer = peer;
+    }
+
+    /**
+     * @return the epoch of the Ring after the change
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * @return the key of the node which made the change
+     */
+    public Integer getOrigin() {
+        return origin;
+    }
+
+    public Integer getKey() {
+        return key;
+    }
+
+    /**
+     * @return the Peer after the change, null if it left the Ring
+     */
+    public Peer getPeer() {
+        return peer;
+    }
+
+    @Override
+    public String toString() {
+        return "RingChange{" +
+                "epoch=" + epoch +
+                ", origin=" + origin +
+                ", key=" + key +
+                ", peer=" + peer +
+                '}';
+    }
+}
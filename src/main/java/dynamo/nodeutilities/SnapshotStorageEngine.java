@@ -0,0 +1,21 @@
+package dynamo.nodeutilities;
+
+/**
+ * A StorageEngine whose items are persisted by its owner: the owner takes a snapshot of the
+ * engine when it changed and writes it to the file of the engine (see Storage.write), e.g.
+ * from another thread, and restores it at recovery (see Storage.readItems). The engines
+ * not implementing it persist their items themselves.
+ */
+public interface SnapshotStorageEngine extends StorageEngine {
+
+    /**
+     * @return true if there are changes that have not been taken by takeSnapshot yet
+     */
+    boolean isDirty();
+
+    /**
+     * Takes the content to be persisted, as it is now: the storage is not dirty anymore
+     * @return the content of the file of the storage
+     */
+    String takeSnapshot();
+}
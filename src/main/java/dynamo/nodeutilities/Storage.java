@@ -1,5 +1,7 @@
 package dynamo.nodeutilities;
 
+import dynamo.metrics.MetricsRegistry;
+
 import java.io.*;
 import java.util.*;
 import java.util.regex.Matcher;
@@ -7,22 +9,36 @@ import java.util.regex.Pattern;
 
 /**
  * The storage where all Items for which a particular node is responsible are stored
+ * (the "list" StorageEngine): the items are kept in memory, sorted by decreasing key.
+ * By default it is saved to its file at every change; otherwise the owner is in charge of
+ * persisting it (see isDirty and takeSnapshot), e.g. from another thread.
  */
-public class Storage {
+public class Storage implements SnapshotStorageEngine {
 
     private ArrayList<Item> db;
 
     private String pathname;
 
+    // where the size of the storage and the time spent saving it are published
+    private MetricsRegistry metrics;
+    // the prefix of the names of the metrics (e.g. storage)
+    private String metricsPrefix;
+
+    // true if the storage is saved at every change: it is never dirty for its owner then
+    private boolean autoSave;
+    // true if there are changes not taken by takeSnapshot yet
+    private boolean dirty = false;
+
     public Storage(String pathname) {
-        this.db = new ArrayList<>();
-        this.pathname = pathname;
+        this(pathname, new MetricsRegistry(), "storage", true);
     }
 
-    public void initializeStorage(ArrayList<Item> initItems){
-        for (Item item : initItems){
-            this.update(item.getKey(), item.getValue(), item.getVersion());
-        }
+    public Storage(String pathname, MetricsRegistry metrics, String metricsPrefix, boolean autoSave) {
+        this.db = new ArrayList<>();
+        this.pathname = pathname;
+        this.metrics = metrics;
+        this.metricsPrefix = metricsPrefix;
+        this.autoSave = autoSave;
     }
 
     /**
@@ -33,6 +49,7 @@ public class Storage {
      * @param value the updated value of the NodeUtilities.Item
      * @param version the version number of the NodeUtilities.Item
      */
+    @Override
     public void update(int key, String value, int version) {
         Item item = new Item(key, value, version);
 
@@ -46,14 +63,14 @@ public class Storage {
         if(db.size() > i && db.get(i).getKey() == key) {
             db.get(i).setValue(value);
             db.get(i).setVersion(version);
-            save();
+            changed();
             return;
         } else {
             //else, add, shifting possibly all the others on the right, if any is present after
             db.add(i, item);
         }
         // save the items to disk
-        save();
+        changed();
     }
 
     /**
@@ -66,6 +83,7 @@ public class Storage {
      * @param N the number of Peers that must have a copy of an Item
      *
      */
+    @Override
     public void removeItemsOutOfResponsibility(Integer localNodeKey, Ring localNodeRing, Integer N){
         ArrayList<Item> valuesToBeRemoved = new ArrayList<>(); // to avoid java.util.ConcurrentModificationException
 
@@ -76,7 +94,7 @@ public class Storage {
             }
         }
         db.removeAll(valuesToBeRemoved);
-        save();
+        changed();
     }
 
     /**
@@ -85,6 +103,7 @@ public class Storage {
      * @param key the key of the NodeUtilities.Item
      * @return the Item
      */
+    @Override
     public Item getItem(int key) {
         Item item;
 
@@ -99,56 +118,107 @@ public class Storage {
     }
 
     /**
-     * Gets all the items excepts the ones with key that is inside
-     * the given range, with 'to' excluded.
-     * @param from the first integer, in crescent order, the Item key must be less or equal than
-     * @param to the first integer, in crescent order, the Item key must be greater than
-     * @return the list of the Items the requesting node is responsible for
+     * @return the Items, sorted by key (the list is walked backwards)
      */
-    public ArrayList<Item> getItemsForNewNode(Integer from, Integer to){
-        ArrayList<Item> list = new ArrayList<>();
-        for(int i = 0; i < db.size(); i++) {
-            Item item = db.get(i);
+    @Override
+    public Iterator<Item> iterator() {
+        final ListIterator<Item> reverse = db.listIterator(db.size());
+        return new Iterator<Item>() {
+            public boolean hasNext() {
+                return reverse.hasPrevious();
+            }
 
-            if(item.getKey() <= from || item.getKey() > to) {
-                list.add(item);
+            public Item next() {
+                return reverse.previous();
             }
-        }
-        return list;
+        };
     }
 
     /**
-    * @return the ArrayList representing the Storage
-    */
-    public ArrayList<Item> getStorage() {
-        return db;
+     * @return the path of the file of the storage
+     */
+    @Override
+    public String getPathname() {
+        return pathname;
     }
 
+    @Override
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    @Override
+    public String takeSnapshot() {
+        dirty = false;
+        return this.toString();
+    }
+
+    /**
+     * to be called at every change of the items
+     */
+    private void changed() {
+        metrics.setGauge(metricsPrefix + ".items", db.size());
+        dirty = true;
+        if (autoSave) {
+            save();
+        }
+    }
 
     /**
      * saves the storage on a local text file
      */
     private void save() {
         try {
-            FileWriter out = new FileWriter(pathname);
-            out.write(this.toString());
-            out.close();
+            write(pathname, takeSnapshot(), metrics, metricsPrefix);
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * Writes the content of a storage to its file, accounting the time spent and the size
+     * @param pathname the path of the file
+     * @param content the content, from takeSnapshot
+     * @param metrics where the size of the file and the time spent are published
+     * @param metricsPrefix the prefix of the names of the metrics
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(String pathname, String content, MetricsRegistry metrics, String metricsPrefix)
+            throws IOException {
+        long start = System.nanoTime();
+        try (FileWriter out = new FileWriter(pathname)) {
+            out.write(content);
+        }
+        metrics.record(metricsPrefix + ".save.us", (System.nanoTime() - start) / 1000);
+        // the file is plain ASCII, so characters are bytes
+        metrics.setGauge(metricsPrefix + ".bytes", content.length());
+    }
+
     /**
      * load Items after a crash, when recovery is requested
      * @return true if the operation has been correctly executed, false otherwise
-     * @throws FileNotFoundException if no File is found in the predefined path
-     * @throws IOException if something goes wrong during the I/O operations
      * @throws Exception if local Storage is corrupted
      */
     public boolean loadItems() throws Exception {
+        ArrayList<Item> items = readItems(pathname);
+        if (items == null) {
+            return false;
+        }
+        initializeStorage(items);
+        return true;
+    }
+
+    /**
+     * Reads the Items saved in a storage file
+     * @param pathname the path of the file
+     * @return the Items, or null if there is no file
+     * @throws Exception if the file is corrupted
+     */
+    public static ArrayList<Item> readItems(String pathname) throws Exception {
 
         int key, version;
         String value;
+        ArrayList<Item> items = new ArrayList<>();
 
         try {
             FileReader in = new FileReader(pathname);
@@ -162,6 +232,12 @@ public class Storage {
             Matcher matcher;
 
             while((current = b.readLine()) != null) {
+                // the color codes of the header (see toString) end up at the start of this line
+                current = current.replaceAll("\u001B\\[[0-9;]*m", "");
+                // an empty storage is saved as such (see toString)
+                if (current.equals("\tEmpty.")) {
+                    continue;
+                }
 
                 matcher = pattern.matcher(current);
 
@@ -170,7 +246,7 @@ public class Storage {
                     value = matcher.group(2);
                     version = Integer.parseInt(matcher.group(3));
 
-                    update(key, value, version);
+                    items.add(new Item(key, value, version));
                 } else {
                     throw new Exception("Corrupted data. Failed to load local Storage.");
                 }
@@ -178,11 +254,11 @@ public class Storage {
             b.close();
             in.close();
         } catch (FileNotFoundException e) {
-            return false;
+            return null;
         } catch (IOException e) {
             e.printStackTrace();
         }
-        return true;
+        return items;
     }
 
     /**
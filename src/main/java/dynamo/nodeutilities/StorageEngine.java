@@ -0,0 +1,94 @@
+package dynamo.nodeutilities;
+
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * The operations a StorageShardActor performs on the items it owns. The engines (see
+ * StorageEngines, selected by dynamo.storage.engine) differ in how they keep the items
+ * in memory and on disk. Bulk operations return iterators and streams, so that an engine
+ * does not have to hold all of its items in memory to serve them.
+ *
+ * The engines persisting their items through their owner implement SnapshotStorageEngine.
+ * The methods are called by a single thread, the one of the owning actor. Every new engine
+ * must pass the conformance suite (StorageEngineConformanceTest, run by gradle test).
+ */
+public interface StorageEngine {
+
+    /**
+     * Updates an Item, if already present, or adds it if not
+     * @param key the key of the Item
+     * @param value the updated value of the Item
+     * @param version the version number of the Item
+     * @throws java.io.UncheckedIOException if an engine persisting its items cannot write it
+     */
+    void update(int key, String value, int version);
+
+    /**
+     * @param key the key of the Item
+     * @return the Item, or null if there is no Item with this key
+     * @throws java.io.UncheckedIOException if an engine persisting its items cannot read it
+     */
+    Item getItem(int key);
+
+    /**
+     * Removes the items for which the local node is not among the N replicas anymore
+     * @param localNodeKey the key of the current node
+     * @param localNodeRing the Ring of the current node
+     * @param N the number of Peers that must have a copy of an Item
+     */
+    void removeItemsOutOfResponsibility(Integer localNodeKey, Ring localNodeRing, Integer N);
+
+    /**
+     * @return all the Items, sorted by key. The Items must not be modified, and the iteration
+     * must be completed before the storage is changed
+     */
+    Iterator<Item> iterator();
+
+    /**
+     * @return all the Items, sorted by key (see iterator)
+     */
+    default Stream<Item> items() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator(),
+                Spliterator.ORDERED | Spliterator.SORTED | Spliterator.DISTINCT | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * Gets all the items excepts the ones with key that is inside
+     * the given range, with 'to' excluded.
+     * @param from the first integer, in crescent order, the Item key must be less or equal than
+     * @param to the first integer, in crescent order, the Item key must be greater than
+     * @return the Items the requesting node is responsible for, sorted by key (see iterator)
+     */
+    default Stream<Item> itemsForNewNode(Integer from, Integer to) {
+        return items().filter(item -> item.getKey() <= from || item.getKey() > to);
+    }
+
+    /**
+     * Adds (or updates) some Items, as a batch: the engines persisting their items
+     * themselves do it once for all of them
+     * @param items the Items
+     * @throws java.io.UncheckedIOException if an engine persisting its items cannot write them:
+     * the ones before the failure may be stored
+     */
+    default void initializeStorage(Iterable<Item> items) {
+        for (Item item : items) {
+            this.update(item.getKey(), item.getValue(), item.getVersion());
+        }
+    }
+
+    /**
+     * @return the path of the file (or directory) where the engine keeps its items
+     */
+    String getPathname();
+
+    /**
+     * Releases the resources of the storage, when its owner stops
+     * @throws java.io.UncheckedIOException if an engine persisting its items cannot close its files
+     */
+    default void close() {
+    }
+}
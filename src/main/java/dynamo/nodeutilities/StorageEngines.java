@@ -0,0 +1,59 @@
+package dynamo.nodeutilities;
+
+import com.typesafe.config.Config;
+import dynamo.lsm.LsmStorage;
+import dynamo.lsm.TieredStorage;
+import dynamo.metrics.MetricsRegistry;
+
+import java.io.IOException;
+
+/**
+ * Creates the StorageEngine selected in the configuration (dynamo.storage.engine):
+ *  - list: the items are kept in memory, in a list, and saved to a text file (Storage)
+ *  - lsm: log-structured merge storage, for datasets larger than memory (LsmStorage)
+ *  - tiered: an lsm storage with a cache of the hot items, all within a heap budget
+ *    (dynamo.storage.max-heap-bytes, shared by the shards of the node) (TieredStorage)
+ */
+public class StorageEngines {
+
+    /**
+     * @param config the configuration, with the dynamo.storage and dynamo.compression sections
+     * @param basePathname the path of the files of the engine, without extension
+     * @param recover true to reopen the files left by a previous run. The engines needing
+     *                snapshots are restored by their owner instead (see Storage.readItems)
+     * @param shards the number of engines sharing the heap budget of the node
+     * @param metrics where the metrics of the engine are published
+     * @param metricsPrefix the prefix of the names of the metrics
+     * @return the engine
+     * @throws IOException if the files of the engine cannot be read or written
+     */
+    public static StorageEngine create(Config config, String basePathname, boolean recover, int shards,
+                                       MetricsRegistry metrics, String metricsPrefix) throws IOException {
+        String engine = config.getString("dynamo.storage.engine");
+        switch (engine) {
+            case "list":
+                return new Storage(basePathname + ".dynamo", metrics, metricsPrefix, false);
+            case "lsm":
+                return createLsm(config, basePathname, recover, metrics, metricsPrefix);
+            case "tiered":
+                long budget = config.getBytes("dynamo.storage.max-heap-bytes") / shards;
+                long memtableBytes = (long) (budget * config.getDouble("dynamo.storage.tiered.memtable-fraction"));
+                LsmStorage disk = createLsm(config, basePathname, recover, metrics, metricsPrefix);
+                disk.setMemtableBytes(memtableBytes);
+                return new TieredStorage(disk, budget - memtableBytes, metrics, metricsPrefix);
+            default:
+                throw new IllegalArgumentException("Unknown storage engine: " + engine);
+        }
+    }
+
+    private static LsmStorage createLsm(Config config, String basePathname, boolean recover,
+                                        MetricsRegistry metrics, String metricsPrefix) throws IOException {
+        Config lsm = config.getConfig("dynamo.storage.lsm");
+        return new LsmStorage(basePathname + ".lsm", recover,
+                lsm.getInt("memtable-items"), lsm.getInt("compaction-threshold"),
+                lsm.getInt("bloom-bits-per-key"), lsm.getInt("index-interval"),
+                new Compression(config.getBoolean("dynamo.compression.enabled"),
+                        config.getInt("dynamo.compression.threshold"), metrics),
+                metrics, metricsPrefix);
+    }
+}
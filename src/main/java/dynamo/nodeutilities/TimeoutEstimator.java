@@ -0,0 +1,83 @@
+package dynamo.nodeutilities;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Derives the timeout of a quorum operation from the latencies observed for the
+ * replicas involved, instead of using the same fixed value for every operation
+ */
+public class TimeoutEstimator {
+
+    // used for replicas that never responded yet
+    private long initialMillis;
+    // bounds of the computed timeout
+    private long minMillis;
+    private long maxMillis;
+    // percentile of the recent latencies taken into account (e.g. 0.99)
+    private double percentile;
+    // safety factor applied to the estimated latency
+    private double multiplier;
+
+    public TimeoutEstimator(long initialMillis, long minMillis, long maxMillis, double percentile, double multiplier) {
+        this.initialMillis = initialMillis;
+        this.minMillis = minMillis;
+        this.maxMillis = maxMillis;
+        this.percentile = percentile;
+        this.multiplier = multiplier;
+    }
+
+    /**
+     * Estimates how long it will take for a quorum of replicas to respond.
+     * Every replica gets an estimate (the greater between its moving average and its
+     * percentile); the timeout is the quorum-th smallest estimate times the multiplier,
+     * bounded between the configured min and max values.
+     *
+     * @param ring the Ring holding the latency statistics of the Peers
+     * @param replicas the Peers the request is sent to
+     * @param quorum the number of replies needed
+     * @return the timeout in milliseconds
+     */
+    public long getQuorumTimeout(Ring ring, List<Peer> replicas, int quorum) {
+        long timeout = (long) Math.ceil(quorumEstimate(ring, replicas, quorum, multiplier));
+        return Math.max(minMillis, Math.min(maxMillis, timeout));
+    }
+
+    /**
+     * Estimates how long a quorum of replicas usually takes to respond, i.e. the quorum-th
+     * smallest replica estimate without any safety factor. Waiting longer than this
+     * means that some of the replicas are late.
+     *
+     * @param ring the Ring holding the latency statistics of the Peers
+     * @param replicas the Peers the request is sent to
+     * @param quorum the number of replies needed
+     * @return the expected latency in milliseconds
+     */
+    public long getExpectedQuorumLatency(Ring ring, List<Peer> replicas, int quorum) {
+        long expected = (long) Math.ceil(quorumEstimate(ring, replicas, quorum, 1));
+        return Math.max(minMillis, Math.min(maxMillis, expected));
+    }
+
+    private double quorumEstimate(Ring ring, List<Peer> replicas, int quorum, double factor) {
+        ArrayList<Double> estimates = new ArrayList<>();
+        for (Peer p : replicas) {
+            LatencyStats latency = ring.getLatency(p.getKey());
+            if (latency == null || !latency.hasSamples()) {
+                estimates.add((double) initialMillis);
+            } else {
+                estimates.add(latency.getEstimateMillis(percentile) * factor);
+            }
+        }
+        if (estimates.isEmpty()) {
+            return initialMillis;
+        }
+        Collections.sort(estimates);
+        int index = Math.max(0, Math.min(estimates.size(), quorum) - 1);
+        return estimates.get(index);
+    }
+
+    public double getPercentile() {
+        return percentile;
+    }
+}
@@ -0,0 +1,222 @@
+package dynamo.nodeutilities;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Plans the moves of the nodes along the ring that even out their load: the random keys
+ * of the nodes leave some of them the first replica of much larger ranges than others.
+ *
+ * The load of a node is the request rate of its range (or, if no requests were served,
+ * the number of its items), spread over the range as its items are: every node reports
+ * some keys of its items, evenly spaced among them. The ring is then cut again in ranges
+ * of equal load, keeping the node with the greatest key where it is. Every move shifts
+ * the boundary between a node and the previous one, so only the items between the old
+ * and the new key change replicas.
+ */
+public class TokenBalancer {
+
+    /**
+     * The load of a node, as reported by it
+     */
+    public static class Load {
+        final Integer key;
+        final long items;
+        final double requestRate;
+        // some keys of the items of the range, evenly spaced among them
+        final List<Integer> sampleKeys;
+
+        public Load(Integer key, long items, double requestRate, List<Integer> sampleKeys) {
+            this.key = key;
+            this.items = items;
+            this.requestRate = requestRate;
+            this.sampleKeys = sampleKeys;
+        }
+    }
+
+    /**
+     * A node moving from a key to another
+     */
+    public static class Move {
+        private final Integer from;
+        private final Integer to;
+
+        Move(Integer from, Integer to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        public Integer getFrom() {
+            return from;
+        }
+
+        public Integer getTo() {
+            return to;
+        }
+
+        @Override
+        public String toString() {
+            return from + " -> " + to;
+        }
+    }
+
+    // the imbalance tolerated: the most loaded node can have this fraction more than the average
+    private double tolerance;
+
+    public TokenBalancer(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Plans the moves evening out the load of the nodes
+     * @param loads the load of every node of the ring
+     * @return the moves, in an order in which every node stays between its previous and
+     * its next one (empty if the load is balanced enough already)
+     */
+    public ArrayList<Move> plan(List<Load> loads) {
+        ArrayList<Move> moves = new ArrayList<>();
+        int n = loads.size();
+        if (n < 2) {
+            return moves;
+        }
+        ArrayList<Load> sorted = new ArrayList<>(loads);
+        sorted.sort(Comparator.comparing(load -> load.key));
+
+        boolean byRate = false;
+        for (Load load : sorted) {
+            byRate |= load.requestRate > 0;
+        }
+        double[] weights = new double[n];
+        double total = 0;
+        double max = 0;
+        for (int i = 0; i < n; i++) {
+            weights[i] = byRate ? sorted.get(i).requestRate : sorted.get(i).items;
+            total += weights[i];
+            max = Math.max(max, weights[i]);
+        }
+        if (total == 0 || max <= (1 + tolerance) * total / n) {
+            return moves;
+        }
+
+        // the ring starts after the last node, which stays: the range of the first one wraps around
+        int start = sorted.get(n - 1).key;
+        int[] tokens = new int[n];
+        double cumulative = 0;
+        int boundary = 0;
+        for (int i = 0; i < n && boundary < n - 1; i++) {
+            Load load = sorted.get(i);
+            ArrayList<Integer> points = new ArrayList<>(load.sampleKeys);
+            if (points.isEmpty()) {
+                // nothing tells how the load is spread: all of it at the key of the node
+                points.add(load.key);
+            }
+            int previous = i == 0 ? start : sorted.get(i - 1).key;
+            points.sort(Comparator.comparingLong(key -> Integer.toUnsignedLong(key - previous)));
+            double weight = weights[i] / points.size();
+            for (int p = 0; p < points.size() && boundary < n - 1; p++) {
+                cumulative += weight;
+                // a node ends where the load reaches its share
+                while (boundary < n - 1 && cumulative >= (boundary + 1) * total / n) {
+                    tokens[boundary++] = points.get(p);
+                }
+            }
+        }
+        for (; boundary < n - 1; boundary++) {
+            tokens[boundary] = sorted.get(boundary).key;
+        }
+        tokens[n - 1] = start;
+
+        // every node must come strictly after the previous one (several may end on the same key)
+        long previousOffset = 0;
+        for (int i = 0; i < n - 1; i++) {
+            long offset = Integer.toUnsignedLong(tokens[i] - start);
+            if (offset <= previousOffset) {
+                offset = previousOffset + 1;
+                tokens[i] = start + (int) offset;
+            }
+            previousOffset = offset;
+        }
+        if (previousOffset >= 1L << 32) {
+            // no room left before the last node
+            return moves;
+        }
+        return order(sorted, tokens);
+    }
+
+    /**
+     * Merges the keys sampled by the shards of a node into evenly spaced ones
+     * @param samples the keys sampled by every shard, evenly spaced among its items
+     * @param counts the number of items of every shard
+     * @param from the key the range of the items starts after
+     * @param size the number of keys to be kept, at most
+     * @return the keys, in the order of the ring
+     */
+    public static ArrayList<Integer> mergeSamples(List<List<Integer>> samples, List<Long> counts, int from, int size) {
+        ArrayList<Integer> keys = new ArrayList<>();
+        ArrayList<Double> weights = new ArrayList<>();
+        double total = 0;
+        for (int s = 0; s < samples.size(); s++) {
+            for (Integer key : samples.get(s)) {
+                keys.add(key);
+            }
+            total += counts.get(s);
+        }
+        // every key stands for the items of its shard between it and the previous one
+        ArrayList<Integer> order = new ArrayList<>();
+        for (int s = 0; s < samples.size(); s++) {
+            for (int k = 0; k < samples.get(s).size(); k++) {
+                order.add(weights.size());
+                weights.add((double) counts.get(s) / samples.get(s).size());
+            }
+        }
+        order.sort(Comparator.comparingLong(index -> Integer.toUnsignedLong(keys.get(index) - from)));
+        ArrayList<Integer> merged = new ArrayList<>();
+        double cumulative = 0;
+        for (Integer index : order) {
+            cumulative += weights.get(index);
+            if (cumulative >= (merged.size() + 1) * total / size) {
+                merged.add(keys.get(index));
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Orders the moves so that every node moves between its current neighbours: a node can
+     * move past the current key of a neighbour only after the neighbour moved away
+     * @param sorted the loads of the nodes, sorted by key
+     * @param tokens the new key of every node
+     * @return the moves
+     */
+    private ArrayList<Move> order(List<Load> sorted, int[] tokens) {
+        int n = tokens.length;
+        int[] current = new int[n];
+        boolean[] pending = new boolean[n];
+        int left = 0;
+        for (int i = 0; i < n; i++) {
+            current[i] = sorted.get(i).key;
+            pending[i] = current[i] != tokens[i];
+            if (pending[i]) {
+                left++;
+            }
+        }
+        ArrayList<Move> moves = new ArrayList<>();
+        boolean progress = true;
+        while (left > 0 && progress) {
+            progress = false;
+            for (int i = 0; i < n; i++) {
+                int previous = current[(i + n - 1) % n];
+                int next = current[(i + 1) % n];
+                if (pending[i] && tokens[i] != next && Ring.isBetween(tokens[i], previous, next)) {
+                    moves.add(new Move(current[i], tokens[i]));
+                    current[i] = tokens[i];
+                    pending[i] = false;
+                    left--;
+                    progress = true;
+                }
+            }
+        }
+        return moves;
+    }
+}
@@ -0,0 +1,125 @@
+package dynamo.lsm;
+
+import dynamo.metrics.MetricsRegistry;
+import dynamo.nodeutilities.Item;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class HotSetCacheTest {
+
+    // every item of VALUE_LENGTH characters takes ITEM_BYTES in the cache
+    private static final int VALUE_LENGTH = 40;
+    private static final long ITEM_BYTES = 120 + 2 * VALUE_LENGTH;
+
+    private MetricsRegistry metrics = new MetricsRegistry();
+    private HotSetCache cache = new HotSetCache(2 * ITEM_BYTES, metrics, "storage");
+
+    private static Item item(int key, int length) {
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            value.append((char) ('a' + key % 26));
+        }
+        return new Item(key, value.toString(), 1);
+    }
+
+    /**
+     * Looks a key up some times before it is cached, raising its frequency
+     */
+    private void access(int key, int times) {
+        for (int i = 0; i < times; i++) {
+            cache.get(key);
+        }
+    }
+
+    @Test
+    public void admitsWhileThereIsRoom() {
+        cache.admit(item(1, VALUE_LENGTH));
+        cache.admit(item(2, VALUE_LENGTH));
+        assertNotNull(cache.get(1));
+        assertNotNull(cache.get(2));
+        assertEquals(0, metrics.getCounter("storage.cache.rejections"));
+        assertEquals(2 * ITEM_BYTES, metrics.getGauge("storage.cache.bytes"), 0);
+    }
+
+    @Test
+    public void rejectsAnItemLargerThanTheBudget() {
+        cache.admit(item(1, 2 * VALUE_LENGTH + 200));
+        assertNull(cache.get(1));
+        assertEquals(1, metrics.getCounter("storage.cache.rejections"));
+    }
+
+    @Test
+    public void aRejectedItemEvictsNothing() {
+        access(1, 1);
+        access(2, 5);
+        cache.admit(item(1, VALUE_LENGTH));
+        cache.admit(item(2, VALUE_LENGTH));
+        // more frequent than the first victim, not than the second one
+        access(3, 3);
+        cache.admit(item(3, 2 * VALUE_LENGTH + 120 / 2));
+
+        assertEquals(1, metrics.getCounter("storage.cache.rejections"));
+        assertEquals(0, metrics.getCounter("storage.cache.evictions"));
+        assertNotNull(cache.get(1));
+        assertNotNull(cache.get(2));
+        assertNull(cache.get(3));
+    }
+
+    @Test
+    public void aHotItemEvictsEveryVictim() {
+        access(1, 1);
+        access(2, 2);
+        cache.admit(item(1, VALUE_LENGTH));
+        cache.admit(item(2, VALUE_LENGTH));
+        access(3, 5);
+        cache.admit(item(3, 2 * VALUE_LENGTH + 120 / 2));
+
+        assertEquals(2, metrics.getCounter("storage.cache.evictions"));
+        assertNull(cache.get(1));
+        assertNull(cache.get(2));
+        assertNotNull(cache.get(3));
+    }
+
+    @Test
+    public void updatesReplaceTheItemInPlace() {
+        cache.admit(item(1, VALUE_LENGTH));
+        cache.admit(item(2, VALUE_LENGTH));
+        // promoted to the protected segment
+        cache.get(1);
+        cache.updateIfPresent(new Item(1, item(5, VALUE_LENGTH).getValue(), 2));
+
+        Item updated = cache.get(1);
+        assertEquals(2, updated.getVersion());
+        assertEquals(item(5, VALUE_LENGTH).getValue(), updated.getValue());
+        assertNotNull(cache.get(2));
+        assertEquals(0, metrics.getCounter("storage.cache.evictions"));
+        assertEquals(2 * ITEM_BYTES, metrics.getGauge("storage.cache.bytes"), 0);
+    }
+
+    @Test
+    public void updatesDoNotBringItemsIntoTheCache() {
+        cache.updateIfPresent(item(1, VALUE_LENGTH));
+        assertNull(cache.get(1));
+    }
+
+    @Test
+    public void aLargerVersionEvictsOtherItems() {
+        cache.admit(item(1, VALUE_LENGTH));
+        cache.admit(item(2, VALUE_LENGTH));
+        cache.updateIfPresent(new Item(2, item(2, VALUE_LENGTH + 20).getValue(), 2));
+
+        assertNull(cache.get(1));
+        assertEquals(2, cache.get(2).getVersion());
+        assertEquals(1, metrics.getCounter("storage.cache.evictions"));
+    }
+
+    @Test
+    public void removesTheMatchingKeys() {
+        cache.admit(item(1, VALUE_LENGTH));
+        cache.admit(item(2, VALUE_LENGTH));
+        cache.removeIf(key -> key == 1);
+        assertNull(cache.get(1));
+        assertNotNull(cache.get(2));
+    }
+}
@@ -0,0 +1,155 @@
+package dynamo.lsm;
+
+import dynamo.metrics.MetricsRegistry;
+import dynamo.nodeutilities.Compression;
+import dynamo.nodeutilities.Item;
+import dynamo.nodeutilities.Peer;
+import dynamo.nodeutilities.Ring;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+public class LsmStorageTest {
+
+    private static final int MEMTABLE_ITEMS = 10;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MetricsRegistry metrics = new MetricsRegistry();
+    private File directory;
+    private LsmStorage storage;
+    private TreeMap<Integer, Item> expected = new TreeMap<>();
+
+    @Before
+    public void setUp() throws Exception {
+        directory = new File(folder.getRoot(), "lsm");
+        storage = open(false);
+    }
+
+    @After
+    public void tearDown() {
+        storage.close();
+    }
+
+    private LsmStorage open(boolean recover) throws Exception {
+        return new LsmStorage(directory.getPath(), recover, MEMTABLE_ITEMS, 3, 10, 4,
+                new Compression(true, 16, metrics), metrics, "storage");
+    }
+
+    private void update(int key, String value, int version) {
+        storage.update(key, value, version);
+        expected.put(key, new Item(key, value, version));
+    }
+
+    private void writeRandomly(int operations) {
+        Random random = new Random(7);
+        for (int i = 0; i < operations; i++) {
+            int key = random.nextInt(100);
+            Item previous = expected.get(key);
+            int version = previous == null ? 1 : previous.getVersion() + 1;
+            update(key, "value" + key + "v" + version, version);
+        }
+    }
+
+    private void assertContent() {
+        for (int key = 0; key < 120; key++) {
+            Item item = storage.getItem(key);
+            Item wanted = expected.get(key);
+            if (wanted == null) {
+                assertNull("item " + key + " is missing", item);
+            } else {
+                assertNotNull("item " + key + " is present", item);
+                assertEquals(wanted.getVersion(), item.getVersion());
+                assertEquals(wanted.getValue(), item.getValue());
+            }
+        }
+        List<Integer> keys = new ArrayList<>();
+        storage.iterator().forEachRemaining(item -> keys.add(item.getKey()));
+        assertEquals(new ArrayList<>(expected.keySet()), keys);
+    }
+
+    @Test
+    public void readsTheLatestVersionAcrossFlushesAndCompactions() {
+        writeRandomly(1000);
+        assertContent();
+        assertTrue(metrics.getCounter("storage.lsm.flushes") > 0);
+    }
+
+    @Test
+    public void recoversFromTheLogAndTheTables() throws Exception {
+        writeRandomly(1000);
+        storage.close();
+        storage = open(true);
+        assertContent();
+    }
+
+    @Test
+    public void removedItemsStayRemovedAfterRecovery() throws Exception {
+        writeRandomly(300);
+        Ring ring = new Ring();
+        for (int key : new int[]{10, 30, 50, 70, 90}) {
+            ring.addPeer(new Peer(null, null, key));
+        }
+        storage.removeItemsOutOfResponsibility(50, ring, 2);
+        expected.entrySet().removeIf(entry -> !ring.isNodeWithinRangeFromItem(entry.getKey(), 50, 2));
+        assertContent();
+
+        storage.close();
+        storage = open(true);
+        assertContent();
+    }
+
+    @Test
+    public void aLogThatCannotBeRotatedFailsTheWrite() throws Exception {
+        for (int key = 0; key < MEMTABLE_ITEMS - 1; key++) {
+            update(key, "value" + key, 1);
+        }
+        // the next log cannot be created anymore
+        for (File file : directory.listFiles()) {
+            assertTrue(file.delete());
+        }
+        assertTrue(directory.delete());
+        try {
+            storage.update(MEMTABLE_ITEMS, "value", 1);
+            fail("the rotation of the log must fail");
+        } catch (UncheckedIOException e) {
+            assertEquals(1, metrics.getCounter("storage.lsm.log.errors"));
+        }
+        // the memtable is kept, so the items written to the old log are still served
+        assertEquals("value0", storage.getItem(0).getValue());
+    }
+
+    @Test
+    public void aTableThatCannotBeReadFailsTheRead() throws Exception {
+        for (int key = 0; key < MEMTABLE_ITEMS; key++) {
+            update(key, "value" + key, 1);
+        }
+        while (metrics.getCounter("storage.lsm.flushes") == 0) {
+            Thread.sleep(10);
+        }
+        for (File file : directory.listFiles((dir, name) -> name.endsWith(".sst"))) {
+            try (RandomAccessFile table = new RandomAccessFile(file, "rw")) {
+                table.setLength(1);
+            }
+        }
+        try {
+            storage.getItem(0);
+            fail("the item must not be taken for missing");
+        } catch (UncheckedIOException e) {
+            assertEquals(1, metrics.getCounter("storage.lsm.read.errors"));
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package dynamo.nodeutilities;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import static org.junit.Assert.*;
+
+public class ChangeLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // a time after the creation of the log
+    private long now;
+
+    private ChangeLog newLog(int capacity) {
+        ChangeLog log = new ChangeLog(capacity);
+        now = System.currentTimeMillis();
+        return log;
+    }
+
+    @Test
+    public void tellsTheKeysChangedAfterATime() {
+        ChangeLog log = newLog(10);
+        log.record(1, now + 10);
+        log.record(2, now + 20);
+        log.record(3, now + 30);
+        log.record(1, now + 40);
+
+        assertEquals(new HashSet<>(Arrays.asList(1, 3)), log.keysChangedSince(now + 20));
+        assertEquals(new HashSet<>(Arrays.asList(1, 2, 3)), log.keysChangedSince(now));
+        assertTrue(log.keysChangedSince(now + 40).isEmpty());
+    }
+
+    @Test
+    public void doesNotKnowTheChangesBeforeItWasCreated() {
+        ChangeLog log = newLog(10);
+        log.record(1, now + 10);
+        assertNull(log.keysChangedSince(now - 1000));
+    }
+
+    @Test
+    public void forgetsTheOldestChanges() {
+        ChangeLog log = newLog(3);
+        for (int key = 1; key <= 5; key++) {
+            log.record(key, now + 10 * key);
+        }
+        // the changes of keys 1 and 2 are forgotten
+        assertNull(log.keysChangedSince(now + 10));
+        assertEquals(new HashSet<>(Arrays.asList(3, 4, 5)), log.keysChangedSince(now + 20));
+        assertEquals(new HashSet<>(Arrays.asList(4, 5)), log.keysChangedSince(now + 30));
+    }
+
+    @Test
+    public void marksOnlyAdvance() {
+        ChangeLog log = newLog(10);
+        log.advanceMark(7, now + 20);
+        log.advanceMark(7, now + 10);
+        log.advanceMark(9, now + 5);
+        HashMap<Integer, Long> marks = log.copyMarks();
+        assertEquals(Long.valueOf(now + 20), marks.get(7));
+        assertEquals(Long.valueOf(now + 5), marks.get(9));
+
+        // a copy, not a view
+        marks.put(7, 0L);
+        assertEquals(Long.valueOf(now + 20), log.copyMarks().get(7));
+    }
+
+    @Test
+    public void marksSurviveARestart() throws IOException {
+        String pathname = new File(folder.getRoot(), "marks").getPath();
+        HashMap<Integer, Long> marks = new HashMap<>();
+        marks.put(7, 1000L);
+        marks.put(-3, 2000L);
+        ChangeLog.writeMarks(pathname, marks);
+        assertEquals(marks, ChangeLog.readMarks(pathname));
+    }
+
+    @Test
+    public void noMarksWereSavedBeforeTheFirstRun() throws IOException {
+        assertTrue(ChangeLog.readMarks(new File(folder.getRoot(), "missing").getPath()).isEmpty());
+    }
+
+    @Test(expected = IOException.class)
+    public void corruptedMarksAreAnError() throws IOException {
+        File file = new File(folder.getRoot(), "marks");
+        try (FileWriter out = new FileWriter(file)) {
+            out.write("7 not-a-time\n");
+        }
+        ChangeLog.readMarks(file.getPath());
+    }
+}
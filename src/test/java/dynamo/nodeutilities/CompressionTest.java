@@ -0,0 +1,85 @@
+package dynamo.nodeutilities;
+
+import dynamo.metrics.MetricsRegistry;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CompressionTest {
+
+    private MetricsRegistry metrics = new MetricsRegistry();
+    private Compression compression = new Compression(true, 64, metrics);
+
+    private static String repetitive(int length) {
+        StringBuilder value = new StringBuilder();
+        while (value.length() < length) {
+            value.append("the same words again and again, ");
+        }
+        return value.substring(0, length);
+    }
+
+    @Test
+    public void compressesRepetitiveBlocks() throws IOException {
+        String value = repetitive(4096);
+        byte[] encoded = compression.compressString(value, "test");
+        assertTrue(encoded.length < value.length() / 4);
+        assertEquals(value, compression.decompressString(encoded, "test"));
+        assertTrue(metrics.getGauge("compression.test.ratio") > 4);
+    }
+
+    @Test
+    public void keepsSmallBlocksRaw() throws IOException {
+        byte[] raw = repetitive(63).getBytes("UTF-8");
+        byte[] encoded = compression.compress(raw, "test");
+        assertEquals(raw.length + 1, encoded.length);
+        assertArrayEquals(raw, compression.decompress(encoded, "test"));
+    }
+
+    @Test
+    public void keepsIncompressibleBlocksRaw() throws IOException {
+        byte[] raw = new byte[4096];
+        new Random(1).nextBytes(raw);
+        byte[] encoded = compression.compress(raw, "test");
+        assertEquals(raw.length + 1, encoded.length);
+        assertArrayEquals(raw, compression.decompress(encoded, "test"));
+    }
+
+    @Test
+    public void keepsEveryBlockRawWhenDisabled() throws IOException {
+        Compression disabled = new Compression(false, 64, metrics);
+        byte[] raw = repetitive(4096).getBytes("UTF-8");
+        byte[] encoded = disabled.compress(raw, "test");
+        assertEquals(raw.length + 1, encoded.length);
+        // blocks are decoded the same way whatever the settings of the reader
+        assertArrayEquals(raw, compression.decompress(encoded, "test"));
+    }
+
+    @Test
+    public void packsAndUnpacksItems() throws IOException {
+        ArrayList<Item> items = new ArrayList<>();
+        for (int key = 0; key < 200; key++) {
+            items.add(new Item(key, repetitive(key) + "\u00e8\u4e16", key % 5));
+        }
+        CompressedItems packed = compression.pack(items);
+        assertEquals(items.size(), packed.getCount());
+
+        ArrayList<Item> unpacked = compression.unpack(packed);
+        assertEquals(items.size(), unpacked.size());
+        for (int i = 0; i < items.size(); i++) {
+            assertEquals(items.get(i).getKey(), unpacked.get(i).getKey());
+            assertEquals(items.get(i).getVersion(), unpacked.get(i).getVersion());
+            assertEquals(items.get(i).getValue(), unpacked.get(i).getValue());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void aTruncatedBlockCannotBeDecoded() throws IOException {
+        byte[] encoded = compression.compressString(repetitive(4096), "test");
+        compression.decompress(Arrays.copyOf(encoded, encoded.length / 2), "test");
+    }
+}
@@ -0,0 +1,63 @@
+package dynamo.nodeutilities;
+
+import akka.dispatch.Envelope;
+import dynamo.messages.ClientReadMessage;
+import dynamo.messages.StartJoinMessage;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PriorityMailboxTest {
+
+    private static final Object CONTROL = new StartJoinMessage(null, null);
+    private static final Object FIRST = new ClientReadMessage(1);
+    private static final Object SECOND = new ClientReadMessage(2);
+
+    private static Envelope envelope(Object message) {
+        return new Envelope(message, null);
+    }
+
+    private static List<Object> drain(PriorityMailbox.PriorityMessageQueue queue) {
+        List<Object> messages = new ArrayList<>();
+        Envelope envelope;
+        while ((envelope = queue.dequeue()) != null) {
+            messages.add(envelope.message());
+        }
+        return messages;
+    }
+
+    @Test
+    public void controlMessagesComeFirst() {
+        PriorityMailbox.PriorityMessageQueue queue = new PriorityMailbox.PriorityMessageQueue(true);
+        queue.enqueue(null, envelope(FIRST));
+        queue.enqueue(null, envelope(CONTROL));
+        queue.enqueue(null, envelope(SECOND));
+        assertEquals(3, queue.numberOfMessages());
+        assertEquals(Arrays.asList(CONTROL, FIRST, SECOND), drain(queue));
+        assertEquals(0, queue.numberOfMessages());
+        assertFalse(queue.hasMessages());
+    }
+
+    @Test
+    public void withoutControlFirstTheOrderIsKept() {
+        PriorityMailbox.PriorityMessageQueue queue = new PriorityMailbox.PriorityMessageQueue(false);
+        queue.enqueue(null, envelope(FIRST));
+        queue.enqueue(null, envelope(CONTROL));
+        queue.enqueue(null, envelope(SECOND));
+        assertEquals(3, queue.numberOfMessages());
+        assertEquals(Arrays.asList(FIRST, CONTROL, SECOND), drain(queue));
+    }
+
+    @Test
+    public void unstashedMessagesGoBackToTheHead() {
+        PriorityMailbox.PriorityMessageQueue queue = new PriorityMailbox.PriorityMessageQueue(false);
+        queue.enqueue(null, envelope(SECOND));
+        queue.enqueueFirst(null, envelope(FIRST));
+        assertEquals(2, queue.numberOfMessages());
+        assertEquals(Arrays.asList(FIRST, SECOND), drain(queue));
+    }
+}
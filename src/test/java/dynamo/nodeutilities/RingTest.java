@@ -0,0 +1,207 @@
+package dynamo.nodeutilities;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.Assert.*;
+
+public class RingTest {
+
+    private static Peer peer(int key) {
+        return new Peer("akka.tcp://dynamo@127.0.0.1:" + (10000 + key) + "/user/node", null, key);
+    }
+
+    /**
+     * @return a ring where the given nodes joined one after the other, each announcing itself
+     */
+    private static Ring ringOf(int... keys) {
+        Ring ring = new Ring();
+        for (int key : keys) {
+            ring.addPeer(peer(key));
+            ring.nextEpoch(key, key);
+        }
+        return ring;
+    }
+
+    /**
+     * @return a copy of the peers and of the version of a ring, without its changes
+     */
+    private static Ring copyOf(Ring ring) {
+        Ring copy = new Ring();
+        copy.addPeers(ring.copyPeers());
+        copy.setEpoch(ring.getEpoch(), ring.getEpochOrigin());
+        return copy;
+    }
+
+    private static void join(Ring ring, int key) {
+        ring.addPeer(peer(key));
+    }
+
+    @Test
+    public void nextEpochAdvancesTheVersion() {
+        Ring ring = ringOf(10, 20);
+        assertEquals(2, ring.getEpoch());
+        assertEquals(Integer.valueOf(20), ring.getEpochOrigin());
+    }
+
+    @Test
+    public void versionsAreOrderedByEpochThenOrigin() {
+        assertTrue(Ring.compareVersions(2, 10, 3, 5) < 0);
+        assertTrue(Ring.compareVersions(3, 20, 3, 10) > 0);
+        assertTrue(Ring.compareVersions(3, null, 3, 10) < 0);
+        assertEquals(0, Ring.compareVersions(3, 10, 3, 10));
+        assertEquals(0, Ring.compareVersions(0, null, 0, null));
+    }
+
+    @Test
+    public void changesSinceTheCurrentVersionAreNone() {
+        Ring ring = ringOf(10, 20, 30);
+        assertTrue(ring.getChangesSince(3, 30).isEmpty());
+    }
+
+    @Test
+    public void changesSinceAnOlderVersionAreTheMissedOnes() {
+        Ring ring = ringOf(10);
+        Ring old = copyOf(ring);
+        join(ring, 20);
+        ring.nextEpoch(20, 20);
+        ring.removePeer(10);
+        ring.nextEpoch(10, 10);
+
+        ArrayList<RingChange> changes = ring.getChangesSince(old.getEpoch(), old.getEpochOrigin());
+        assertEquals(2, changes.size());
+        assertEquals(Integer.valueOf(20), changes.get(0).getKey());
+        assertNull(changes.get(1).getPeer());
+
+        assertTrue(old.applyChanges(changes));
+        assertEquals(ring.getEpoch(), old.getEpoch());
+        assertEquals(ring.getEpochOrigin(), old.getEpochOrigin());
+        assertEquals(ring.getPeers().keySet(), old.getPeers().keySet());
+    }
+
+    @Test
+    public void changesAlreadyAppliedAreSkipped() {
+        Ring ring = ringOf(10);
+        Ring old = copyOf(ring);
+        join(ring, 20);
+        ring.nextEpoch(20, 20);
+        ArrayList<RingChange> changes = ring.getChangesSince(old.getEpoch(), old.getEpochOrigin());
+
+        assertTrue(old.applyChanges(changes));
+        assertTrue(old.applyChanges(changes));
+        assertEquals(2, old.getEpoch());
+        assertEquals(new HashSet<>(Arrays.asList(10, 20)), old.getPeers().keySet());
+    }
+
+    @Test
+    public void changesOfAnUnknownVersionAreNotKnown() {
+        Ring ring = ringOf(10, 20);
+        // same epoch, made by another node
+        assertNull(ring.getChangesSince(1, 99));
+        // newer than the ring
+        assertNull(ring.getChangesSince(5, 10));
+        // older than the changes known
+        ring.setEpoch(2, 20);
+        assertNull(ring.getChangesSince(1, 10));
+        assertTrue(ring.getChangesSince(2, 20).isEmpty());
+    }
+
+    @Test
+    public void theOldestChangesAreForgotten() {
+        Ring ring = ringOf(1);
+        for (int i = 0; i < 300; i++) {
+            ring.removePeer(1);
+            ring.nextEpoch(1, 1);
+            join(ring, 1);
+            ring.nextEpoch(1, 1);
+        }
+        assertNull(ring.getChangesSince(1, 1));
+        ArrayList<RingChange> recent = ring.getChangesSince(ring.getEpoch() - 10, 1);
+        assertEquals(10, recent.size());
+    }
+
+    @Test
+    public void announcedChangesAreAdopted() {
+        Ring announcer = ringOf(10);
+        Ring receiver = copyOf(announcer);
+        join(announcer, 20);
+        announcer.nextEpoch(20, 20);
+
+        join(receiver, 20);
+        assertEquals(Ring.Adoption.APPLIED, receiver.adoptChange(announcer.getEpoch(), 20, 20));
+        assertEquals(announcer.getEpoch(), receiver.getEpoch());
+        assertEquals(Integer.valueOf(20), receiver.getEpochOrigin());
+        // the same announcement again, e.g. after learning the change from another node
+        assertEquals(Ring.Adoption.KNOWN, receiver.adoptChange(announcer.getEpoch(), 20, 20));
+        assertEquals(announcer.getEpoch(), receiver.getEpoch());
+    }
+
+    @Test
+    public void aChangeAfterAGapIsMissingChanges() {
+        Ring announcer = ringOf(10);
+        Ring receiver = copyOf(announcer);
+        join(announcer, 20);
+        announcer.nextEpoch(20, 20);
+        join(announcer, 30);
+        announcer.nextEpoch(30, 30);
+
+        join(receiver, 30);
+        assertEquals(Ring.Adoption.MISSING, receiver.adoptChange(3, 30, 30));
+        // the epoch stays, so that the missed changes can be asked for
+        assertEquals(1, receiver.getEpoch());
+        ArrayList<RingChange> missed = announcer.getChangesSince(receiver.getEpoch(), receiver.getEpochOrigin());
+        assertTrue(receiver.applyChanges(missed));
+        assertEquals(3, receiver.getEpoch());
+        assertEquals(announcer.getPeers().keySet(), receiver.getPeers().keySet());
+    }
+
+    @Test
+    public void concurrentChangesConvergeInEitherOrder() {
+        Ring base = ringOf(10);
+        // two nodes join at the same time, both announcing epoch 2
+        Ring first = copyOf(base);
+        Ring second = copyOf(base);
+
+        join(first, 20);
+        assertEquals(Ring.Adoption.APPLIED, first.adoptChange(2, 20, 20));
+        join(first, 30);
+        assertEquals(Ring.Adoption.CONFLICT, first.adoptChange(2, 30, 30));
+
+        join(second, 30);
+        assertEquals(Ring.Adoption.APPLIED, second.adoptChange(2, 30, 30));
+        join(second, 20);
+        assertEquals(Ring.Adoption.CONFLICT, second.adoptChange(2, 20, 20));
+
+        // both keep the newest version, with the same peers
+        assertEquals(2, first.getEpoch());
+        assertEquals(Integer.valueOf(30), first.getEpochOrigin());
+        assertEquals(first.getEpoch(), second.getEpoch());
+        assertEquals(first.getEpochOrigin(), second.getEpochOrigin());
+        assertEquals(first.getPeers().keySet(), second.getPeers().keySet());
+
+        // the changes across the conflict cannot be served: the whole ring is needed
+        assertNull(first.getChangesSince(1, 10));
+        assertNull(second.getChangesSince(1, 10));
+    }
+
+    @Test
+    public void conflictingChangesAreNotApplied() {
+        Ring base = ringOf(10);
+        Ring left = copyOf(base);
+        Ring right = copyOf(base);
+        join(left, 20);
+        left.nextEpoch(20, 20);
+        join(right, 30);
+        right.nextEpoch(30, 30);
+
+        ArrayList<RingChange> changes = left.getChangesSince(1, 10);
+        assertFalse(right.applyChanges(changes));
+        assertFalse(right.keyExists(20));
+        assertEquals(Integer.valueOf(30), right.getEpochOrigin());
+        // a copy that went through a change the ring did not make has no changes to catch up with
+        assertNull(left.getChangesSince(right.getEpoch(), right.getEpochOrigin()));
+    }
+}
@@ -0,0 +1,179 @@
+package dynamo.nodeutilities;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import dynamo.metrics.MetricsRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.File;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/**
+ * The checks every StorageEngine must pass: the engine is driven with random updates and
+ * membership changes, and its content is compared with a TreeMap after every step,
+ * through the point lookups and the bulk operations, and after being reopened.
+ * The lsm and tiered engines are run with a small memtable and heap budget, so that
+ * flushes, compactions and cache evictions happen. A new engine is added to engines().
+ */
+@RunWith(Parameterized.class)
+public class StorageEngineConformanceTest {
+
+    private static final int KEYS = 2000;
+    private static final int OPERATIONS = 20000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String engine;
+    private Config config;
+    private StorageEngine storage;
+    private TreeMap<Integer, Item> expected = new TreeMap<>();
+    private Random random = new Random(42);
+
+    public StorageEngineConformanceTest(String engine) {
+        this.engine = engine;
+    }
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> engines() {
+        return Arrays.asList(new Object[][]{{"list"}, {"lsm"}, {"tiered"}});
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        this.config = ConfigFactory.parseString("dynamo.storage.engine = " + engine + "\n"
+                + "dynamo.storage.lsm.memtable-items = 100\n"
+                + "dynamo.storage.lsm.compaction-threshold = 3\n"
+                + "dynamo.compression.threshold = 16\n"
+                + "dynamo.storage.max-heap-bytes = 65536")
+                .withFallback(ConfigFactory.load("application"));
+        this.storage = open(false);
+    }
+
+    @After
+    public void tearDown() {
+        storage.close();
+    }
+
+    private StorageEngine open(boolean recover) throws Exception {
+        StorageEngine engine = StorageEngines.create(config, new File(folder.getRoot(), "storage").getPath(), recover, 1,
+                new MetricsRegistry(), "storage");
+        // the engines needing snapshots are restored by their owner, as the shards do
+        if (recover && engine instanceof SnapshotStorageEngine) {
+            ArrayList<Item> items = Storage.readItems(engine.getPathname());
+            assertNotNull("the snapshot can be read back", items);
+            engine.initializeStorage(items);
+        }
+        return engine;
+    }
+
+    @Test
+    public void emptyStorage() {
+        assertNull("an empty storage has no items", storage.getItem(1));
+        assertFalse("an empty storage iterates over nothing", storage.iterator().hasNext());
+        verify("empty storage");
+    }
+
+    @Test
+    public void updatesRemovalsAndRecoveries() throws Exception {
+        for (int round = 0; round < 4; round++) {
+            for (int i = 0; i < OPERATIONS / 4; i++) {
+                int key = random.nextInt(KEYS);
+                // versions grow, as the coordinators make them
+                Item previous = expected.get(key);
+                int version = previous == null ? 1 : previous.getVersion() + 1;
+                String value = "value" + key + "v" + version + (i % 7 == 0 ? repeat("x", 200) : "");
+                storage.update(key, value, version);
+                expected.put(key, new Item(key, value, version));
+            }
+            verify("round " + round + " of updates");
+
+            // a ring of 8 nodes over the keys: this node loses the items it is not a replica of anymore
+            Ring ring = new Ring();
+            for (int node = 0; node < 8; node++) {
+                ring.addPeer(new Peer(null, null, node * KEYS / 8 + random.nextInt(KEYS / 8)));
+            }
+            Integer localKey = new ArrayList<>(ring.getPeers().keySet()).get(random.nextInt(8));
+            storage.removeItemsOutOfResponsibility(localKey, ring, 4);
+            expected.entrySet().removeIf(entry -> !ring.isNodeWithinRangeFromItem(entry.getKey(), localKey, 4));
+            verify("round " + round + " of removals");
+
+            int from = random.nextInt(KEYS);
+            int to = from + random.nextInt(KEYS - from);
+            List<Integer> forNewNode = storage.itemsForNewNode(from, to).map(Item::getKey).collect(Collectors.toList());
+            List<Integer> expectedForNewNode = expected.keySet().stream()
+                    .filter(key -> key <= from || key > to).collect(Collectors.toList());
+            assertEquals("itemsForNewNode(" + from + ", " + to + ") returns the items out of the range, sorted by key",
+                    expectedForNewNode, forNewNode);
+
+            // reopen the storage, as after a crash
+            if (storage instanceof SnapshotStorageEngine) {
+                SnapshotStorageEngine snapshots = (SnapshotStorageEngine) storage;
+                Storage.write(storage.getPathname(), snapshots.takeSnapshot(), new MetricsRegistry(), "storage");
+                assertFalse("a storage is not dirty after a snapshot", snapshots.isDirty());
+            }
+            storage.close();
+            storage = open(true);
+            verify("round " + round + " after recovery");
+        }
+    }
+
+    @Test
+    public void initializeStorage() {
+        for (int key = 0; key < KEYS; key += 3) {
+            storage.update(key, "value" + key, 1);
+            expected.put(key, new Item(key, "value" + key, 1));
+        }
+        ArrayList<Item> handedOver = new ArrayList<>();
+        for (int key = KEYS; key < KEYS + 100; key++) {
+            handedOver.add(new Item(key, "handed" + key, 3));
+            expected.put(key, new Item(key, "handed" + key, 3));
+        }
+        storage.initializeStorage(handedOver);
+        verify("initializeStorage");
+    }
+
+    /**
+     * Compares the content of the storage with the expected one
+     */
+    private void verify(String step) {
+        for (int key = 0; key < KEYS + 100; key++) {
+            assertTrue(step + ": getItem returns the last version of item " + key + ", null if missing",
+                    same(storage.getItem(key), expected.get(key)));
+        }
+
+        List<Item> items = new ArrayList<>();
+        storage.iterator().forEachRemaining(items::add);
+        assertEquals(step + ": iterator returns every item once", expected.size(), items.size());
+        Iterator<Item> expectedItems = expected.values().iterator();
+        for (Item item : items) {
+            assertTrue(step + ": iterator returns the items sorted by key", same(item, expectedItems.next()));
+        }
+        assertEquals(step + ": items streams every item", expected.size(), storage.items().count());
+    }
+
+    private static boolean same(Item item, Item expected) {
+        if (item == null || expected == null) {
+            return item == expected;
+        }
+        return item.getKey() == expected.getKey() && item.getVersion() == expected.getVersion()
+                && item.getValue().equals(expected.getValue());
+    }
+
+    private static String repeat(String s, int times) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,127 @@
+package dynamo.nodeutilities;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class TokenBalancerTest {
+
+    private static final int KEYS = 100;
+
+    /**
+     * @return the load of every node, when the keys 0..KEYS-1 hold one item each
+     * and the nodes have the given keys
+     */
+    private static List<TokenBalancer.Load> loads(int... nodes) {
+        Arrays.sort(nodes);
+        List<TokenBalancer.Load> loads = new ArrayList<>();
+        for (int i = 0; i < nodes.length; i++) {
+            int previous = nodes[(i + nodes.length - 1) % nodes.length];
+            List<Integer> keys = keysOf(previous, nodes[i]);
+            loads.add(new TokenBalancer.Load(nodes[i], keys.size(), 0, keys));
+        }
+        return loads;
+    }
+
+    /**
+     * @return the keys of the items in the range (from, to], in the order of the ring
+     */
+    private static List<Integer> keysOf(int from, int to) {
+        List<Integer> keys = new ArrayList<>();
+        for (int key = (from + 1) % KEYS; ; key = (key + 1) % KEYS) {
+            keys.add(key);
+            if (key == to) {
+                return keys;
+            }
+        }
+    }
+
+    @Test
+    public void aBalancedRingDoesNotMove() {
+        assertTrue(new TokenBalancer(0.1).plan(loads(24, 49, 74, 99)).isEmpty());
+    }
+
+    @Test
+    public void aSingleNodeDoesNotMove() {
+        assertTrue(new TokenBalancer(0.1).plan(loads(42)).isEmpty());
+    }
+
+    @Test
+    public void anImbalanceWithinTheToleranceIsKept() {
+        // the most loaded node has 60 items, against an average of 25
+        assertTrue(new TokenBalancer(5).plan(loads(10, 20, 30, 90)).isEmpty());
+    }
+
+    @Test
+    public void movesEvenOutTheItems() {
+        int[] nodes = {10, 20, 30, 90};
+        ArrayList<TokenBalancer.Move> moves = new TokenBalancer(0.1).plan(loads(nodes));
+        assertFalse(moves.isEmpty());
+
+        // every move keeps the node between its current neighbours
+        TreeSet<Integer> ring = new TreeSet<>();
+        for (int node : nodes) {
+            ring.add(node);
+        }
+        for (TokenBalancer.Move move : moves) {
+            assertNotEquals("the node with the greatest key stays", Integer.valueOf(90), move.getFrom());
+            assertTrue(ring.contains(move.getFrom()));
+            Integer previous = ring.lower(move.getFrom()) != null ? ring.lower(move.getFrom()) : ring.last();
+            Integer next = ring.higher(move.getFrom()) != null ? ring.higher(move.getFrom()) : ring.first();
+            assertTrue(move + " stays between " + previous + " and " + next,
+                    Ring.isBetween(move.getTo(), previous, next) && !move.getTo().equals(next));
+            ring.remove(move.getFrom());
+            ring.add(move.getTo());
+        }
+
+        // every range ends up with about a quarter of the items
+        Integer previous = ring.last();
+        for (Integer node : ring) {
+            int items = keysOf(previous, node).size();
+            assertTrue("node " + node + " has " + items + " items", Math.abs(items - KEYS / 4) <= 2);
+            previous = node;
+        }
+    }
+
+    @Test
+    public void theRequestRateWeighsMoreThanTheItems() {
+        List<TokenBalancer.Load> loads = loads(24, 49, 74, 99);
+        // the same items, but the first range gets most of the requests
+        List<TokenBalancer.Load> rates = new ArrayList<>();
+        for (TokenBalancer.Load load : loads) {
+            rates.add(new TokenBalancer.Load(load.key, load.items, load.key == 24 ? 900 : 100, load.sampleKeys));
+        }
+        ArrayList<TokenBalancer.Move> moves = new TokenBalancer(0.1).plan(rates);
+        assertFalse(moves.isEmpty());
+        for (TokenBalancer.Move move : moves) {
+            if (move.getFrom() == 24) {
+                assertTrue("the hot node shrinks its range", move.getTo() < 24);
+            }
+        }
+    }
+
+    @Test
+    public void mergedSamplesAreEvenlySpacedInRingOrder() {
+        // two shards: the even keys and the odd ones of the range (50, 49]
+        List<Integer> even = new ArrayList<>();
+        List<Integer> odd = new ArrayList<>();
+        for (int key : keysOf(50, 49)) {
+            (key % 2 == 0 ? even : odd).add(key);
+        }
+        ArrayList<Integer> merged = TokenBalancer.mergeSamples(Arrays.asList(even, odd),
+                Arrays.asList((long) even.size(), (long) odd.size()), 50, 10);
+
+        assertEquals(10, merged.size());
+        long previous = -1;
+        for (Integer key : merged) {
+            long offset = Integer.toUnsignedLong(key - 50);
+            assertTrue("in the order of the ring from 50", offset > previous);
+            previous = offset;
+        }
+        // every tenth of the items
+        assertEquals(Integer.valueOf(60), merged.get(0));
+        assertEquals(Integer.valueOf(49), merged.get(9));
+    }
+}